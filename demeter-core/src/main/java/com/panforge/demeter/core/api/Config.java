@@ -15,8 +15,11 @@
  */
 package com.panforge.demeter.core.api;
 
+import com.panforge.demeter.core.utils.QueryUtils;
 import java.time.OffsetDateTime;
 import java.util.Arrays;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
 
 /**
  * Repository configuration/identification.
@@ -38,8 +41,12 @@ public class Config {
   public Deletion deletedRecord = Deletion.No;
   /** granularity (default: YYYY-MM-DDThh:mm:ssZ)*/
   public String granularity = "YYYY-MM-DDThh:mm:ssZ";
-  /** data compression (default: all) */
-  public Compression [] compression = Compression.values();
+  /** data compression (default: gzip and deflate) */
+  public Compression [] compression = new Compression[]{Compression.Gzip, Compression.Deflate};
+  /** minimal size of the response in bytes to apply compression (default: 1024) */
+  public int compressionThreshold = 1024;
+  /** response output profile (default: indented) */
+  public OutputProfile outputProfile = OutputProfile.Indented;
   
   /** 
    * modes of storing information about deleted records.
@@ -70,13 +77,23 @@ public class Config {
    */
   public static enum Compression {
     /** gzip */
-    Gzip,
+    Gzip("gzip", true),
     /** compress */
-    Compress,
+    Compress("compress", false),
     /** defalate */
-    Deflate,
+    Deflate("deflate", true),
     /** identity */
-    Identity;
+    Identity("identity", true);
+    
+    /** content coding name */
+    public final String encoding;
+    /** <code>true</code> if the compression can be produced by the servers */
+    public final boolean supported;
+
+    private Compression(String encoding, boolean supported) {
+      this.encoding = encoding;
+      this.supported = supported;
+    }
     
     /**
      * Parses compression.
@@ -87,5 +104,58 @@ public class Config {
       final String sValue = value!=null? value.toLowerCase(): null;
       return Arrays.stream(values()).filter((v) -> v.name().toLowerCase().equals(sValue)).findFirst().orElse(null);
     }
+    
+    /**
+     * Negotiates compression based on the value of <i>Accept-Encoding</i> header.
+     * <p>
+     * Selects supported compression with the highest quality value; in case
+     * of a tie, the order of the available compressions decides.
+     * @param acceptEncoding value of <i>Accept-Encoding</i> header
+     * @param available available compressions
+     * @return negotiated compression (never <code>null</code>)
+     */
+    public static Compression negotiate(String acceptEncoding, Compression [] available) {
+      if (StringUtils.isBlank(acceptEncoding) || available == null) {
+        return Identity;
+      }
+      Map<String, Double> qualities = QueryUtils.parseQualities(acceptEncoding);
+      Double xgzip = qualities.remove("x-gzip");
+      if (xgzip != null) {
+        qualities.merge("gzip", xgzip, Math::max);
+      }
+      Compression negotiated = Identity;
+      double best = 0.0;
+      for (Compression c: available) {
+        if (c == null || !c.supported || c == Identity) {
+          continue;
+        }
+        double quality = qualities.getOrDefault(c.encoding, qualities.getOrDefault("*", 0.0));
+        if (quality > best) {
+          negotiated = c;
+          best = quality;
+        }
+      }
+      return negotiated;
+    }
+  }
+  
+  /** 
+   * response output profiles.
+   */
+  public static enum OutputProfile {
+    /** human readable, indented output */
+    Indented,
+    /** compact output without any indentation */
+    Compact;
+    
+    /**
+     * Parses output profile.
+     * @param value string representation of output profile
+     * @return output profile
+     */
+    public static OutputProfile parse(String value) {
+      final String sValue = value!=null? value.toLowerCase(): null;
+      return Arrays.stream(values()).filter((v) -> v.name().toLowerCase().equals(sValue)).findFirst().orElse(null);
+    }
   }
 }
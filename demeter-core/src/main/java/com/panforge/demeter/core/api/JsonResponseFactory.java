@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.api;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.panforge.demeter.core.api.Config.OutputProfile;
+import com.panforge.demeter.core.model.ErrorInfo;
+import com.panforge.demeter.core.model.ResumptionToken;
+import com.panforge.demeter.core.model.request.Request;
+import com.panforge.demeter.core.model.response.GetRecordResponse;
+import com.panforge.demeter.core.model.response.IdentifyResponse;
+import com.panforge.demeter.core.model.response.ListIdentifiersResponse;
+import com.panforge.demeter.core.model.response.ListMetadataFormatsResponse;
+import com.panforge.demeter.core.model.response.ListRecordsResponse;
+import com.panforge.demeter.core.model.response.ListSetsResponse;
+import com.panforge.demeter.core.model.response.Response;
+import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFormat;
+import com.panforge.demeter.core.model.response.elements.MetadataFragment;
+import com.panforge.demeter.core.model.response.elements.Record;
+import com.panforge.demeter.core.model.response.elements.Set;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.w3c.dom.Document;
+
+/**
+ * JSON response factory.
+ * <p>
+ * Converts response object into JSON. The structure follows XML response: 
+ * each element becomes a field, repeatable elements become arrays, and embedded
+ * documents (metadata, about, descriptions) are kept as XML strings.
+ * @see JsonResponseParser
+ */
+public class JsonResponseFactory extends ResponseFactory {
+  private static final JsonFactory FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  private final Context CTX;
+
+  /**
+   * Creates instance of the factory.
+   *
+   * @param CTX context
+   */
+  public JsonResponseFactory(Context CTX) {
+    super(CTX);
+    this.CTX = CTX;
+  }
+
+  @Override
+  public void writeErrorResponse(OffsetDateTime responseDate, Map<String, String[]> reqParams, ErrorInfo[] errors, OutputStream out) throws IOException {
+    write(out, responseDate, reqParams, gen -> {
+      gen.writeArrayFieldStart("error");
+      for (ErrorInfo error: errors != null? errors: new ErrorInfo[0]) {
+        if (error != null) {
+          gen.writeStartObject();
+          gen.writeStringField("code", error.errorCode.name());
+          gen.writeStringField("message", error.message);
+          gen.writeEndObject();
+        }
+      }
+      gen.writeEndArray();
+    });
+  }
+
+  @Override
+  public void writeGetRecordResponse(GetRecordResponse response, OutputStream out) throws IOException {
+    write(out, response, gen -> {
+      gen.writeObjectFieldStart("GetRecord");
+      if (response.record != null) {
+        gen.writeFieldName("record");
+        writeRecord(gen, response.record);
+      }
+      gen.writeEndObject();
+    });
+  }
+
+  @Override
+  public void writeListRecordsResponse(ListRecordsResponse response, Stream<Record> records, Supplier<ResumptionToken> resumptionToken, OutputStream out) throws IOException {
+    write(out, response, gen -> {
+      gen.writeObjectFieldStart("ListRecords");
+      gen.writeArrayFieldStart("record");
+      for (Iterator<Record> it = records.iterator(); it.hasNext();) {
+        Record record = it.next();
+        if (record != null) {
+          writeRecord(gen, record);
+        }
+      }
+      gen.writeEndArray();
+      writeResumptionToken(gen, resumptionToken.get());
+      gen.writeEndObject();
+    });
+  }
+
+  @Override
+  public void writeListIdentifiersResponse(ListIdentifiersResponse response, Stream<Header> headers, Supplier<ResumptionToken> resumptionToken, OutputStream out) throws IOException {
+    write(out, response, gen -> {
+      gen.writeObjectFieldStart("ListIdentifiers");
+      gen.writeArrayFieldStart("header");
+      for (Iterator<Header> it = headers.iterator(); it.hasNext();) {
+        Header header = it.next();
+        if (header != null) {
+          writeRecordHeader(gen, header);
+        }
+      }
+      gen.writeEndArray();
+      writeResumptionToken(gen, resumptionToken.get());
+      gen.writeEndObject();
+    });
+  }
+
+  @Override
+  public void writeIdentifyResponse(IdentifyResponse response, OutputStream out) throws IOException {
+    write(out, response, gen -> {
+      gen.writeObjectFieldStart("Identify");
+      gen.writeStringField("repositoryName", response.repositoryName);
+      gen.writeStringField("baseURL", response.baseURL);
+      gen.writeStringField("protocolVersion", response.protocolVersion);
+      gen.writeArrayFieldStart("adminEmail");
+      for (String adminEmail: response.adminEmail != null? response.adminEmail: new String[0]) {
+        gen.writeString(adminEmail);
+      }
+      gen.writeEndArray();
+      gen.writeStringField("earliestDatestamp", (response.earliestDatestamp != null ? response.earliestDatestamp : OffsetDateTime.now()).format(DateTimeFormatter.ISO_DATE));
+      gen.writeStringField("deletedRecord", response.deletedRecord != null ? response.deletedRecord.name().toLowerCase() : "");
+      gen.writeStringField("granularity", response.granularity);
+      gen.writeArrayFieldStart("compression");
+      for (Config.Compression compression: response.compression != null? response.compression: new Config.Compression[0]) {
+        gen.writeString(compression.encoding);
+      }
+      gen.writeEndArray();
+      writeDocuments(gen, "description", response.descriptions);
+      gen.writeEndObject();
+    });
+  }
+
+  @Override
+  public void writeListSetsResponse(ListSetsResponse response, OutputStream out) throws IOException {
+    write(out, response, gen -> {
+      gen.writeObjectFieldStart("ListSets");
+      gen.writeArrayFieldStart("set");
+      for (Set set: response.listSets != null? response.listSets: new Set[0]) {
+        gen.writeStartObject();
+        gen.writeStringField("setSpec", set.setSpec);
+        gen.writeStringField("setName", set.setName);
+        writeDocuments(gen, "setDescription", set.descriptions);
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+      writeResumptionToken(gen, response.resumptionToken);
+      gen.writeEndObject();
+    });
+  }
+
+  @Override
+  public void writeListMetadataFormatsResponse(ListMetadataFormatsResponse response, OutputStream out) throws IOException {
+    write(out, response, gen -> {
+      gen.writeObjectFieldStart("ListMetadataFormats");
+      gen.writeArrayFieldStart("metadataFormat");
+      for (MetadataFormat fmt: response.metadataFormats != null? response.metadataFormats: new MetadataFormat[0]) {
+        gen.writeStartObject();
+        gen.writeStringField("metadataPrefix", fmt.metadataPrefix);
+        gen.writeStringField("schema", fmt.schema);
+        gen.writeStringField("metadataNamespace", fmt.metadataNamespace);
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+      gen.writeEndObject();
+    });
+  }
+
+  private void writeRecord(JsonGenerator gen, Record record) throws IOException {
+    gen.writeStartObject();
+    if (record.header != null) {
+      gen.writeFieldName("header");
+      writeRecordHeader(gen, record.header);
+    }
+    MetadataFragment fragment = record.metadataFragment;
+    if (fragment == null && record.metadata != null && record.metadata.getDocumentElement() != null) {
+      fragment = MetadataFragment.of(record.metadata);
+    }
+    if (fragment != null) {
+      gen.writeFieldName("metadata");
+      gen.writeUTF8String(fragment.content, 0, fragment.content.length);
+      if (!fragment.namespaces.isEmpty()) {
+        gen.writeObjectFieldStart("metadataNamespaces");
+        for (Map.Entry<String, String> ns: fragment.namespaces.entrySet()) {
+          gen.writeStringField(ns.getKey(), ns.getValue());
+        }
+        gen.writeEndObject();
+      }
+    }
+    writeDocuments(gen, "about", record.about);
+    gen.writeEndObject();
+  }
+
+  private void writeRecordHeader(JsonGenerator gen, Header header) throws IOException {
+    gen.writeStartObject();
+    if (header.deleted) {
+      gen.writeStringField("status", "deleted");
+    }
+    gen.writeStringField("identifier", header.identifier.toASCIIString());
+    gen.writeStringField("datestamp", header.datestamp.format(DateTimeFormatter.ISO_DATE));
+    if (header.set != null && header.set.length > 0) {
+      gen.writeArrayFieldStart("setSpec");
+      for (String set: header.set) {
+        gen.writeString(set);
+      }
+      gen.writeEndArray();
+    }
+    gen.writeEndObject();
+  }
+
+  private void writeResumptionToken(JsonGenerator gen, ResumptionToken resumptionToken) throws IOException {
+    if (resumptionToken != null) {
+      gen.writeObjectFieldStart("resumptionToken");
+      gen.writeStringField("value", resumptionToken.value);
+      if (resumptionToken.expirationDate != null) {
+        gen.writeStringField("expirationDate", resumptionToken.expirationDate.format(DateTimeFormatter.ISO_DATE_TIME));
+      }
+      if (resumptionToken.completeListSize >= 0) {
+        gen.writeNumberField("completeListSize", resumptionToken.completeListSize);
+      }
+      gen.writeNumberField("cursor", resumptionToken.cursor);
+      gen.writeEndObject();
+    }
+  }
+
+  private void writeDocuments(JsonGenerator gen, String name, Document [] docs) throws IOException {
+    if (docs != null && docs.length > 0) {
+      gen.writeArrayFieldStart(name);
+      for (Document doc: docs) {
+        MetadataFragment fragment = MetadataFragment.of(doc);
+        if (fragment != null) {
+          gen.writeUTF8String(fragment.content, 0, fragment.content.length);
+        }
+      }
+      gen.writeEndArray();
+    }
+  }
+
+  private void write(OutputStream out, Response<? extends Request> response, JsonContent content) throws IOException {
+    write(out, response.responseDate, response.parameters, content);
+  }
+
+  private void write(OutputStream out, OffsetDateTime responseDate, Map<String, String[]> parameters, JsonContent content) throws IOException {
+    try (JsonGenerator gen = FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+      if (CTX.config.outputProfile != OutputProfile.Compact) {
+        gen.useDefaultPrettyPrinter();
+      }
+      gen.writeStartObject();
+      gen.writeStringField("responseDate", responseDate.format(DateTimeFormatter.ISO_DATE_TIME));
+      gen.writeObjectFieldStart("request");
+      gen.writeStringField("baseURL", CTX.config.baseURL);
+      gen.writeObjectFieldStart("parameters");
+      if (parameters != null) {
+        for (Map.Entry<String, String[]> param: parameters.entrySet()) {
+          String value = param.getValue() != null? Stream.of(param.getValue()).filter(v -> v != null).findFirst().orElse(null): null;
+          if (value != null) {
+            gen.writeStringField(param.getKey(), value);
+          }
+        }
+      }
+      gen.writeEndObject();
+      gen.writeEndObject();
+      content.write(gen);
+      gen.writeEndObject();
+    }
+  }
+
+  /**
+   * JSON content writer.
+   */
+  @FunctionalInterface
+  private interface JsonContent {
+    void write(JsonGenerator gen) throws IOException;
+  }
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.panforge.demeter.core.api.exception.BadVerbException;
+import com.panforge.demeter.core.model.ErrorCode;
+import com.panforge.demeter.core.model.ErrorInfo;
+import com.panforge.demeter.core.model.ResumptionToken;
+import com.panforge.demeter.core.model.Verb;
+import com.panforge.demeter.core.model.request.Request;
+import com.panforge.demeter.core.model.response.ErrorResponse;
+import com.panforge.demeter.core.model.response.GetRecordResponse;
+import com.panforge.demeter.core.model.response.IdentifyResponse;
+import com.panforge.demeter.core.model.response.ListIdentifiersResponse;
+import com.panforge.demeter.core.model.response.ListMetadataFormatsResponse;
+import com.panforge.demeter.core.model.response.ListRecordsResponse;
+import com.panforge.demeter.core.model.response.ListSetsResponse;
+import com.panforge.demeter.core.model.response.Response;
+import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFormat;
+import com.panforge.demeter.core.model.response.elements.MetadataFragment;
+import com.panforge.demeter.core.model.response.elements.Record;
+import com.panforge.demeter.core.model.response.elements.Set;
+import com.panforge.demeter.core.utils.DateTimeUtils;
+import com.panforge.demeter.core.utils.XmlUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * JSON response parser.
+ * <p>
+ * Converts JSON response produced by {@link JsonResponseFactory} into response
+ * object. JSON is read as a stream of tokens; only embedded XML documents 
+ * (metadata, about, descriptions) are parsed into DOM. Record metadata might 
+ * be kept as raw bytes instead (see {@link #JsonResponseParser(boolean)}).
+ */
+public class JsonResponseParser {
+  private static final JsonFactory FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+  
+  private final boolean lazyMetadata;
+
+  /**
+   * Creates instance of the parser.
+   * @param lazyMetadata <code>true</code> to keep record metadata as {@link MetadataFragment} and build DOM on demand only
+   */
+  public JsonResponseParser(boolean lazyMetadata) {
+    this.lazyMetadata = lazyMetadata;
+  }
+
+  /**
+   * Creates instance of the parser.
+   */
+  public JsonResponseParser() {
+    this(false);
+  }
+
+  /**
+   * Parses response.
+   *
+   * @param json JSON response
+   * @return response response object.
+   * @throws java.io.IOException if error reading response
+   * @throws org.xml.sax.SAXException if error parsing embedded xml
+   * @throws BadVerbException if parsing fails
+   */
+  public Response<? extends Request> parse(String json) throws IOException, SAXException, BadVerbException {
+    try (JsonParser parser = FACTORY.createParser(json)) {
+      return parse(parser);
+    }
+  }
+
+  /**
+   * Parses response.
+   *
+   * @param jsonStream content stream
+   * @return response response object.
+   * @throws java.io.IOException if error reading response
+   * @throws org.xml.sax.SAXException if error parsing embedded xml
+   * @throws BadVerbException if parsing fails
+   */
+  public Response<? extends Request> parse(InputStream jsonStream) throws IOException, SAXException, BadVerbException {
+    try (JsonParser parser = FACTORY.createParser(jsonStream)) {
+      return parse(parser);
+    }
+  }
+
+  private Response<? extends Request> parse(JsonParser parser) throws IOException, SAXException, BadVerbException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new JsonParseException(parser, "Expected response object.");
+    }
+    OffsetDateTime responseDate = null;
+    Map<String, String[]> parameters = new HashMap<>();
+    List<ErrorInfo> errors = new ArrayList<>();
+    ResponseBuilder builder = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "responseDate":
+          responseDate = DateTimeUtils.parseTimestamp(parser.getText());
+          break;
+        case "request":
+          readRequest(parser, parameters);
+          break;
+        case "error":
+          readErrors(parser, errors);
+          break;
+        default:
+          Verb verb = Verb.parse(name);
+          if (verb != null) {
+            builder = readContent(parser, verb);
+          } else {
+            parser.skipChildren();
+          }
+      }
+    }
+    if (!errors.isEmpty()) {
+      return new ErrorResponse(parameters, responseDate, errors.toArray(new ErrorInfo[errors.size()]));
+    }
+    if (builder == null) {
+      throw new BadVerbException("Missing response content.");
+    }
+    return builder.build(parameters, responseDate);
+  }
+
+  private ResponseBuilder readContent(JsonParser parser, Verb verb) throws IOException, SAXException {
+    switch (verb) {
+      case Identify:
+        return readIdentify(parser);
+      case ListMetadataFormats:
+        return readListMetadataFormats(parser);
+      case ListSets:
+        return readListSets(parser);
+      case ListIdentifiers:
+        return readListIdentifiers(parser);
+      case ListRecords:
+        return readListRecords(parser);
+      case GetRecord:
+        return readGetRecord(parser);
+      default:
+        parser.skipChildren();
+        return null;
+    }
+  }
+
+  private ResponseBuilder readIdentify(JsonParser parser) throws IOException, SAXException {
+    Map<String, String> values = new HashMap<>();
+    String [] adminEmail = new String[0];
+    Config.Compression [] compression = new Config.Compression[0];
+    Document [] descriptions = new Document[0];
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "adminEmail":
+          adminEmail = readStrings(parser);
+          break;
+        case "compression":
+          compression = Arrays.stream(readStrings(parser)).map(Config.Compression::parse).filter(c -> c != null).toArray(Config.Compression[]::new);
+          break;
+        case "description":
+          descriptions = readDocuments(parser);
+          break;
+        default:
+          values.put(name, readText(parser));
+      }
+    }
+    String [] adminEmailArray = adminEmail;
+    Config.Compression [] compressionArray = compression;
+    Document [] descriptionsArray = descriptions;
+    return (parameters, responseDate) -> new IdentifyResponse(parameters, responseDate,
+            values.get("repositoryName"),
+            values.get("baseURL"),
+            values.get("protocolVersion"),
+            adminEmailArray,
+            !StringUtils.isBlank(values.get("earliestDatestamp"))? DateTimeUtils.parseTimestamp(values.get("earliestDatestamp")): null,
+            Config.Deletion.parse(values.get("deletedRecord")),
+            values.get("granularity"),
+            compressionArray,
+            descriptionsArray);
+  }
+
+  private ResponseBuilder readListMetadataFormats(JsonParser parser) throws IOException {
+    List<MetadataFormat> metadataFormats = new ArrayList<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (name.equals("metadataFormat")) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          Map<String, String> values = readValues(parser);
+          metadataFormats.add(new MetadataFormat(values.get("metadataPrefix"), values.get("schema"), values.get("metadataNamespace")));
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return (parameters, responseDate) -> new ListMetadataFormatsResponse(parameters, responseDate, metadataFormats.toArray(new MetadataFormat[metadataFormats.size()]));
+  }
+
+  private ResponseBuilder readListSets(JsonParser parser) throws IOException, SAXException {
+    List<Set> sets = new ArrayList<>();
+    ResumptionToken resumptionToken = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (name.equals("set")) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          sets.add(readSet(parser));
+        }
+      } else if (name.equals("resumptionToken")) {
+        resumptionToken = readResumptionToken(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    ResumptionToken token = resumptionToken;
+    return (parameters, responseDate) -> new ListSetsResponse(parameters, responseDate, sets.toArray(new Set[sets.size()]), token);
+  }
+
+  private ResponseBuilder readListIdentifiers(JsonParser parser) throws IOException {
+    List<Header> headers = new ArrayList<>();
+    ResumptionToken resumptionToken = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (name.equals("header")) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          headers.add(readHeader(parser));
+        }
+      } else if (name.equals("resumptionToken")) {
+        resumptionToken = readResumptionToken(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    ResumptionToken token = resumptionToken;
+    return (parameters, responseDate) -> new ListIdentifiersResponse(parameters, responseDate, headers.toArray(new Header[headers.size()]), token);
+  }
+
+  private ResponseBuilder readListRecords(JsonParser parser) throws IOException, SAXException {
+    List<Record> records = new ArrayList<>();
+    ResumptionToken resumptionToken = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (name.equals("record")) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          records.add(readRecord(parser));
+        }
+      } else if (name.equals("resumptionToken")) {
+        resumptionToken = readResumptionToken(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    ResumptionToken token = resumptionToken;
+    return (parameters, responseDate) -> new ListRecordsResponse(parameters, responseDate, records.toArray(new Record[records.size()]), token);
+  }
+
+  private ResponseBuilder readGetRecord(JsonParser parser) throws IOException, SAXException {
+    Record record = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (name.equals("record")) {
+        record = readRecord(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    Record rec = record;
+    return (parameters, responseDate) -> new GetRecordResponse(parameters, responseDate, rec);
+  }
+
+  private Record readRecord(JsonParser parser) throws IOException, SAXException {
+    Header header = null;
+    String metadata = null;
+    Map<String, String> namespaces = new LinkedHashMap<>();
+    Document [] about = new Document[0];
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "header":
+          header = readHeader(parser);
+          break;
+        case "metadata":
+          metadata = readText(parser);
+          break;
+        case "metadataNamespaces":
+          namespaces = readValues(parser);
+          break;
+        case "about":
+          about = readDocuments(parser);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    if (metadata == null) {
+      return new Record(header, null, about);
+    }
+    MetadataFragment fragment = new MetadataFragment(metadata.getBytes(StandardCharsets.UTF_8), namespaces);
+    return lazyMetadata? new Record(header, null, fragment, about): new Record(header, fragment.toDocument(), about);
+  }
+
+  private Header readHeader(JsonParser parser) throws IOException {
+    Map<String, String> values = new HashMap<>();
+    String [] sets = new String[0];
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (name.equals("setSpec")) {
+        sets = readStrings(parser);
+      } else {
+        values.put(name, readText(parser));
+      }
+    }
+    String identifier = values.get("identifier");
+    String datestamp = values.get("datestamp");
+    if (StringUtils.isBlank(identifier)) {
+      throw new JsonParseException(parser, "Missing header identifier.");
+    }
+    if (StringUtils.isBlank(datestamp)) {
+      throw new JsonParseException(parser, "Missing header datestamp.");
+    }
+    try {
+      return new Header(
+              URI.create(identifier),
+              DateTimeUtils.parseTimestamp(datestamp),
+              sets,
+              "deleted".equalsIgnoreCase(values.get("status"))
+      );
+    } catch (IllegalArgumentException|DateTimeParseException ex) {
+      throw new JsonParseException(parser, String.format("Invalid header: %s", ex.getMessage()), ex);
+    }
+  }
+
+  private Set readSet(JsonParser parser) throws IOException, SAXException {
+    Map<String, String> values = new HashMap<>();
+    Document [] descriptions = new Document[0];
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (name.equals("setDescription")) {
+        descriptions = readDocuments(parser);
+      } else {
+        values.put(name, readText(parser));
+      }
+    }
+    return new Set(values.get("setSpec"), values.get("setName"), descriptions);
+  }
+
+  private ResumptionToken readResumptionToken(JsonParser parser) throws IOException {
+    Map<String, String> values = readValues(parser);
+    return new ResumptionToken(
+            values.get("value"),
+            !StringUtils.isBlank(values.get("expirationDate"))? DateTimeUtils.parseTimestamp(values.get("expirationDate")): null,
+            Long.parseLong(StringUtils.defaultIfBlank(values.get("completeListSize"), "-1")),
+            Long.parseLong(StringUtils.defaultIfBlank(values.get("cursor"), "0"))
+    );
+  }
+
+  private void readRequest(JsonParser parser, Map<String, String[]> parameters) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if (name.equals("parameters")) {
+        readValues(parser).forEach((key, value) -> parameters.put(key, new String[]{ value }));
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private void readErrors(JsonParser parser, List<ErrorInfo> errors) throws IOException {
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      Map<String, String> values = readValues(parser);
+      errors.add(new ErrorInfo(ErrorCode.parse(values.get("code")), values.get("message")));
+    }
+  }
+
+  private Map<String, String> readValues(JsonParser parser) throws IOException {
+    Map<String, String> values = new LinkedHashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      values.put(name, readText(parser));
+    }
+    return values;
+  }
+
+  private String [] readStrings(JsonParser parser) throws IOException {
+    List<String> values = new ArrayList<>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      values.add(readText(parser));
+    }
+    return values.toArray(new String[values.size()]);
+  }
+
+  private Document [] readDocuments(JsonParser parser) throws IOException, SAXException {
+    List<Document> docs = new ArrayList<>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      docs.add(parseDocument(readText(parser)));
+    }
+    return docs.toArray(new Document[docs.size()]);
+  }
+
+  private String readText(JsonParser parser) throws IOException {
+    if (parser.currentToken().isStructStart()) {
+      parser.skipChildren();
+      return null;
+    }
+    return parser.getValueAsString();
+  }
+
+  private Document parseDocument(String xml) throws IOException, SAXException {
+    return XmlUtils.parseToXml(xml);
+  }
+
+  /**
+   * Response builder.
+   */
+  @FunctionalInterface
+  private interface ResponseBuilder {
+    Response<? extends Request> build(Map<String, String[]> parameters, OffsetDateTime responseDate);
+  }
+}
@@ -28,7 +28,6 @@ import com.panforge.demeter.core.model.request.Request;
 import java.util.Map;
 import java.util.stream.Collectors;
 import static com.panforge.demeter.core.utils.QueryUtils.queryToParams;
-import static com.panforge.demeter.core.utils.QueryUtils.rejectKeys;
 import java.util.Arrays;
 import org.apache.commons.lang3.Validate;
 
@@ -53,6 +52,9 @@ public class RequestParser {
   
   /**
    * Parses query.
+   * <p>
+   * Parameters are passed to the verb without copying; <code>verb</code> 
+   * argument itself is ignored by the verb argument schema.
    * @param params query parameters
    * @return an instance of the request
    * @throws BadVerbException if parsing fails
@@ -62,25 +64,21 @@ public class RequestParser {
     Validate.notNull(params, "Missing parameters");
     switch (getVerb(params)) {
       case GetRecord:
-        return GetRecordRequest.create(reduceParams(params));
+        return GetRecordRequest.create(params);
       case Identify:
-        return IdentifyRequest.create(reduceParams(params));
+        return IdentifyRequest.create(params);
       case ListIdentifiers:
-        return ListIdentifiersRequest.create(reduceParams(params));
+        return ListIdentifiersRequest.create(params);
       case ListMetadataFormats:
-        return ListMetadataFormatsRequest.create(reduceParams(params));
+        return ListMetadataFormatsRequest.create(params);
       case ListRecords:
-        return ListRecordsRequest.create(reduceParams(params));
+        return ListRecordsRequest.create(params);
       case ListSets:
-        return ListSetsRequest.create(reduceParams(params));
+        return ListSetsRequest.create(params);
     }
     throw new BadVerbException(String.format("Missing verb."));
   }
   
-  private Map<String,String[]> reduceParams(Map<String,String[]> params) {
-    return rejectKeys(params, "verb");
-  }
-  
   private Verb getVerb(Map<String,String[]> params) throws BadVerbException {
     String[] values = params.get("verb");
     if (values==null || values.length==0) {
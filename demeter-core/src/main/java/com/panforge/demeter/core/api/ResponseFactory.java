@@ -16,9 +16,9 @@
 package com.panforge.demeter.core.api;
 
 import com.panforge.demeter.core.api.Config.Compression;
+import com.panforge.demeter.core.api.Config.OutputProfile;
 import com.panforge.demeter.core.model.ErrorInfo;
-import com.panforge.demeter.core.utils.builder.DocBuilder;
-import com.panforge.demeter.core.utils.builder.DocNode;
+import com.panforge.demeter.core.utils.builder.DocWriter;
 import com.panforge.demeter.core.model.ResumptionToken;
 import com.panforge.demeter.core.model.Verb;
 import com.panforge.demeter.core.model.request.Request;
@@ -32,18 +32,28 @@ import com.panforge.demeter.core.model.response.ListSetsResponse;
 import com.panforge.demeter.core.model.response.elements.Record;
 import com.panforge.demeter.core.model.response.Response;
 import com.panforge.demeter.core.utils.QueryUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.Document;
 
 /**
  * Response factory.
  * <p>
- * Converts response object into the corresponding XML response.
+ * Converts response object into the corresponding XML response. Each response
+ * can be either streamed into an output stream ({@code writeXxx} methods) or
+ * created as a string ({@code createXxx} methods).
  */
 public class ResponseFactory {
 
@@ -66,15 +76,35 @@ public class ResponseFactory {
    * @return response response
    */
   public String createErrorResponse(OffsetDateTime responseDate, Map<String, String[]> reqParams, ErrorInfo [] errors) {
-    Verb verb = Arrays.stream(reqParams.get("verb")).map(s->Verb.parse(s)).filter(v->v!=null).findFirst().orElse(null);
-    reqParams = QueryUtils.rejectKeys(reqParams, "verb");
-    return new DocBuilder().begin()
-            .child("responseDate").value(responseDate.format(DateTimeFormatter.ISO_DATE_TIME)).done()
-            .child("request").attr("verb", ()->verb!=null? verb.name(): null, ()->verb!=null).forEach(reqParams != null ? QueryUtils.paramsToList(reqParams).stream() : null, (n, e) -> n.attr(e[0], e[1])).value(CTX.config.baseURL).done()
-            .forEach(Arrays.stream(errors!=null? errors: new ErrorInfo[0]), (nd,error)->{
-              nd.child("error", () -> error != null).attr("code", error != null ? error.errorCode.name() : "").value(error != null ? error.message : "").done();
-            })
-            .end();
+    return toString(out -> writeErrorResponse(responseDate, reqParams, errors, out));
+  }
+
+  /**
+   * Writes error response.
+   * @param responseDate response date
+   * @param reqParams request parameters
+   * @param errors errors
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeErrorResponse(OffsetDateTime responseDate, Map<String, String[]> reqParams, ErrorInfo [] errors, OutputStream out) throws IOException {
+    String [] verbs = reqParams != null ? reqParams.get("verb") : null;
+    Verb verb = verbs != null ? Arrays.stream(verbs).map(s->Verb.parse(s)).filter(v->v!=null).findFirst().orElse(null) : null;
+    Map<String, String> attributes = new LinkedHashMap<>();
+    if (verb != null) {
+      attributes.put("verb", verb.name());
+    }
+    if (reqParams != null) {
+      QueryUtils.paramsToList(QueryUtils.rejectKeys(reqParams, "verb")).forEach(e -> attributes.put(e[0], StringUtils.defaultIfBlank(e[1], "")));
+    }
+    write(out, writer -> {
+      writer
+            .element("responseDate", responseDate.format(DateTimeFormatter.ISO_DATE_TIME))
+            .child("request").forEach(attributes.entrySet().stream(), (w, e) -> w.attr(e.getKey(), e.getValue())).value(CTX.config.baseURL).done()
+            .forEach(Arrays.stream(errors!=null? errors: new ErrorInfo[0]).filter(error -> error != null), (w, error) -> {
+              w.child("error").attr("code", error.errorCode.name()).value(error.message).done();
+            });
+    });
   }
 
   /**
@@ -84,27 +114,24 @@ public class ResponseFactory {
    * @return GetRecord XML string
    */
   public String createGetRecordResponse(GetRecordResponse response) {
-    Record record = response.record;
-    Header header = record.header;
+    return toString(out -> writeGetRecordResponse(response, out));
+  }
 
-    return createHeader(response, response.parameters)
+  /**
+   * Writes GetRecord response.
+   *
+   * @param response GetRecord response object
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeGetRecordResponse(GetRecordResponse response, OutputStream out) throws IOException {
+    write(out, writer -> {
+      writeHeader(writer, response);
+      writer
             .child("GetRecord")
-            .child("record")
-            .child("header")
-            .attr("status", "deleted", () -> header.deleted)
-            .child("identifier").value(header.identifier.toASCIIString()).done()
-            .child("datestamp").value(header.datestamp.format(DateTimeFormatter.ISO_DATE)).done()
-            .forEach(Stream.of(header.set != null ? header.set : new String[]{}), (hnd, set) -> {
-              hnd.child("setSpec").value(set).done();
-            })
-            .done()
-            .child("metadata", () -> record.metadata != null && record.metadata.getFirstChild() != null).addDocument(record.metadata).done()
-            .forEach(Stream.of(record.about != null ? record.about : new Document[]{}), (hnd, about) -> {
-              hnd.child("about").addDocument(about).done();
-            })
-            .done()
-            .done()
-            .end();
+            .child("record", response.record, this::writeRecord)
+            .done();
+    });
   }
 
   /**
@@ -114,29 +141,56 @@ public class ResponseFactory {
    * @return ListRecords XML string
    */
   public String createListRecordsResponse(ListRecordsResponse response) {
-    return createHeader(response, response.parameters)
+    return toString(out -> writeListRecordsResponse(response, out));
+  }
+
+  /**
+   * Writes ListRecords response.
+   *
+   * @param response ListRecords response object
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeListRecordsResponse(ListRecordsResponse response, OutputStream out) throws IOException {
+    writeListRecordsResponse(response, Stream.of(response.records != null ? response.records : new Record[]{}), out);
+  }
+
+  /**
+   * Writes ListRecords response with records streamed from the supplied source.
+   * <p>
+   * Records are written one by one as they are produced by the stream; records
+   * held by the response object itself are ignored.
+   *
+   * @param response ListRecords response object
+   * @param records stream of records
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeListRecordsResponse(ListRecordsResponse response, Stream<Record> records, OutputStream out) throws IOException {
+    writeListRecordsResponse(response, records, () -> response.resumptionToken, out);
+  }
+
+  /**
+   * Writes ListRecords response with records streamed from the supplied source.
+   * <p>
+   * Resumption token is requested once all the records have been written, thus
+   * it may depend on how many of them have been consumed.
+   *
+   * @param response ListRecords response object
+   * @param records stream of records
+   * @param resumptionToken supplier of the resumption token
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeListRecordsResponse(ListRecordsResponse response, Stream<Record> records, Supplier<ResumptionToken> resumptionToken, OutputStream out) throws IOException {
+    write(out, writer -> {
+      writeHeader(writer, response);
+      writer
             .child("ListRecords")
-            .forEach(Stream.of(response.records != null ? response.records : new Record[]{}), (nd, record) -> {
-              Header header = record.header;
-              nd.child("record")
-                      .child("header")
-                      .attr("status", "deleted", () -> header.deleted)
-                      .child("identifier").value(header.identifier.toASCIIString()).done()
-                      .child("datestamp").value(header.datestamp.format(DateTimeFormatter.ISO_DATE)).done()
-                      .forEach(Stream.of(header.set != null ? header.set : new String[]{}), (hnd, set) -> {
-                        hnd.child("setSpec").value(set).done();
-                      })
-                      .done()
-                      .child("metadata", () -> record.metadata != null && record.metadata.getFirstChild() != null).addDocument(record.metadata).done()
-                      .forEach(Stream.of(record.about != null ? record.about : new Document[]{}), (hnd, about) -> {
-                        hnd.child("about").addDocument(about).done();
-                      })
-                      .done()
-                      .done()
-                      .done();
-            })
-            .child(response.resumptionToken, (nd, resumptionToken) -> appendResumptionToken(nd, resumptionToken, response.getParameter("resumptionToken") == null))
-            .end();
+            .forEach(records, (w, record) -> w.child("record", record, this::writeRecord))
+            .child("resumptionToken", resumptionToken.get(), (w, token) -> writeResumptionToken(w, token, response.getParameter("resumptionToken") == null))
+            .done();
+    });
   }
 
   /**
@@ -146,21 +200,56 @@ public class ResponseFactory {
    * @return ListIdentifiers XML string
    */
   public String createListIdentifiersResponse(ListIdentifiersResponse response) {
-    return createHeader(response, response.parameters)
+    return toString(out -> writeListIdentifiersResponse(response, out));
+  }
+
+  /**
+   * Writes ListIdentifiers response.
+   *
+   * @param response ListIdentifiers response object
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeListIdentifiersResponse(ListIdentifiersResponse response, OutputStream out) throws IOException {
+    writeListIdentifiersResponse(response, Stream.of(response.headers != null ? response.headers : new Header[]{}), out);
+  }
+
+  /**
+   * Writes ListIdentifiers response with headers streamed from the supplied source.
+   * <p>
+   * Headers are written one by one as they are produced by the stream; headers
+   * held by the response object itself are ignored.
+   *
+   * @param response ListIdentifiers response object
+   * @param headers stream of headers
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeListIdentifiersResponse(ListIdentifiersResponse response, Stream<Header> headers, OutputStream out) throws IOException {
+    writeListIdentifiersResponse(response, headers, () -> response.resumptionToken, out);
+  }
+
+  /**
+   * Writes ListIdentifiers response with headers streamed from the supplied source.
+   * <p>
+   * Resumption token is requested once all the headers have been written, thus
+   * it may depend on how many of them have been consumed.
+   *
+   * @param response ListIdentifiers response object
+   * @param headers stream of headers
+   * @param resumptionToken supplier of the resumption token
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeListIdentifiersResponse(ListIdentifiersResponse response, Stream<Header> headers, Supplier<ResumptionToken> resumptionToken, OutputStream out) throws IOException {
+    write(out, writer -> {
+      writeHeader(writer, response);
+      writer
             .child("ListIdentifiers")
-            .forEach(Stream.of(response.headers != null ? response.headers : new Header[]{}), (nd, header) -> {
-              nd.child("header")
-                      .attr("status", "deleted", () -> header.deleted)
-                      .child("identifier").value(header.identifier.toASCIIString()).done()
-                      .child("datestamp").value(header.datestamp.format(DateTimeFormatter.ISO_DATE)).done()
-                      .forEach(Stream.of(header.set != null ? header.set : new String[]{}), (hnd, set) -> {
-                        hnd.child("setSpec").value(set).done();
-                      })
-                      .done()
-                      .done();
-            })
-            .child(response.resumptionToken, (nd, resumptionToken) -> appendResumptionToken(nd, resumptionToken, response.getParameter("resumptionToken") == null))
-            .end();
+            .forEach(headers, (w, header) -> w.child("header", header, this::writeRecordHeader))
+            .child("resumptionToken", resumptionToken.get(), (w, token) -> writeResumptionToken(w, token, response.getParameter("resumptionToken") == null))
+            .done();
+    });
   }
 
   /**
@@ -170,22 +259,32 @@ public class ResponseFactory {
    * @return Identify XML string
    */
   public String createIdentifyResponse(IdentifyResponse response) {
-    return createHeader(response, response.parameters)
+    return toString(out -> writeIdentifyResponse(response, out));
+  }
+
+  /**
+   * Writes Identify response.
+   *
+   * @param response Identify response object
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeIdentifyResponse(IdentifyResponse response, OutputStream out) throws IOException {
+    write(out, writer -> {
+      writeHeader(writer, response);
+      writer
             .child("Identify")
-            .child("repositoryName").value(response.repositoryName).done()
-            .child("baseURL").value(response.baseURL).done()
-            .child("protocolVersion").value(response.protocolVersion).done()
-            .forEach(Stream.of(response.adminEmail != null ? response.adminEmail : new String[]{}), (nd, v) -> {
-              nd.child("adminEmail").value(v).done();
-            })
-            .child("earliestDatestamp").value((response.earliestDatestamp != null ? response.earliestDatestamp : OffsetDateTime.now()).format(DateTimeFormatter.ISO_DATE)).done()
-            .child("deletedRecord").value(response.deletedRecord != null ? response.deletedRecord.name().toLowerCase() : "").done()
-            .child("granularity").value(response.granularity).done()
-            .forEach(Stream.of(response.compression != null ? response.compression : new Compression[]{}), (nd, v) -> {
-              nd.child("compression").value(v.name()).done();
-            })
-            .forEach(Stream.of(response.descriptions != null ? response.descriptions : new Document[]{}).filter(doc->doc!=null), (nd, doc) -> nd.child("description").addDocument(doc))
-            .end();
+            .element("repositoryName", response.repositoryName)
+            .element("baseURL", response.baseURL)
+            .element("protocolVersion", response.protocolVersion)
+            .forEach(Stream.of(response.adminEmail != null ? response.adminEmail : new String[]{}), (w, v) -> w.element("adminEmail", v))
+            .element("earliestDatestamp", (response.earliestDatestamp != null ? response.earliestDatestamp : OffsetDateTime.now()).format(DateTimeFormatter.ISO_DATE))
+            .element("deletedRecord", response.deletedRecord != null ? response.deletedRecord.name().toLowerCase() : "")
+            .element("granularity", response.granularity)
+            .forEach(Stream.of(response.compression != null ? response.compression : new Compression[]{}), (w, v) -> w.element("compression", v.encoding))
+            .forEach(Stream.of(response.descriptions != null ? response.descriptions : new Document[]{}).filter(doc->doc!=null), (w, doc) -> w.child("description").addDocument(doc).done())
+            .done();
+    });
   }
 
   /**
@@ -195,20 +294,35 @@ public class ResponseFactory {
    * @return ListSets XML string
    */
   public String createListSetsResponse(ListSetsResponse response) {
-    return createHeader(response, response.parameters)
-            .child("ListSets", () -> response.listSets != null).forEach(Stream.of(response.listSets), (node, set) -> {
+    return toString(out -> writeListSetsResponse(response, out));
+  }
+
+  /**
+   * Writes ListSets response.
+   *
+   * @param response ListSets response object
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeListSetsResponse(ListSetsResponse response, OutputStream out) throws IOException {
+    write(out, writer -> {
+      writeHeader(writer, response);
+      writer
+            .child("ListSets", response.listSets, (node, sets) -> {
               node
-                .child("set")
-                .child("setSpec").value(set.setSpec).done()
-                .child("setName").value(set.setName).done()
-                .forEach(Stream.of(set.descriptions != null ? set.descriptions : new Document[]{}).filter(doc->doc!=null), (nd, doc) -> {
-                  nd.child("setDescription").addDocument(doc).done();
+                .forEach(Stream.of(sets), (w, set) -> {
+                  w
+                    .child("set")
+                    .element("setSpec", set.setSpec)
+                    .element("setName", set.setName)
+                    .forEach(Stream.of(set.descriptions != null ? set.descriptions : new Document[]{}).filter(doc->doc!=null), (nd, doc) -> {
+                      nd.child("setDescription").addDocument(doc).done();
+                    })
+                    .done();
                 })
-                .done();
-            })
-            .child(response.resumptionToken, (nd, resumptionToken) -> appendResumptionToken(nd, resumptionToken, response.getParameter("resumptionToken") == null))
-            .done()
-            .end();
+                .child("resumptionToken", response.resumptionToken, (w, resumptionToken) -> writeResumptionToken(w, resumptionToken, response.getParameter("resumptionToken") == null));
+            });
+    });
   }
 
   /**
@@ -218,29 +332,100 @@ public class ResponseFactory {
    * @return ListMetadataFormats XML string
    */
   public String createListMetadataFormatsResponse(ListMetadataFormatsResponse response) {
-    return createHeader(response, response.parameters)
-            .child("ListMetadataFormats", () -> response.metadataFormats != null).forEach(Stream.of(response.metadataFormats), (node, fmt) -> {
-              node
-                .child("metadataFormat")
-                .child("metadataPrefix").value(fmt.metadataPrefix).done()
-                .child("schema").value(fmt.schema).done()
-                .child("metadataNamespace").value(fmt.metadataNamespace).done()
-                .done();
-            }).done()
-            .end();
+    return toString(out -> writeListMetadataFormatsResponse(response, out));
+  }
+
+  /**
+   * Writes ListMetadataFormats response.
+   *
+   * @param response ListMetadataFormats response object
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void writeListMetadataFormatsResponse(ListMetadataFormatsResponse response, OutputStream out) throws IOException {
+    write(out, writer -> {
+      writeHeader(writer, response);
+      writer
+            .child("ListMetadataFormats", response.metadataFormats, (node, formats) -> {
+              node.forEach(Stream.of(formats), (w, fmt) -> {
+                w
+                  .child("metadataFormat")
+                  .element("metadataPrefix", fmt.metadataPrefix)
+                  .element("schema", fmt.schema)
+                  .element("metadataNamespace", fmt.metadataNamespace)
+                  .done();
+              });
+            });
+    });
   }
 
-  private DocNode createHeader(Response<? extends Request> response, Map<String, String[]> reqParams) {
-    return new DocBuilder().begin()
-            .child("responseDate").value(response.responseDate.format(DateTimeFormatter.ISO_DATE_TIME)).done()
-            .child("request").attr("verb", response.getParameter("verb")).forEach(reqParams != null ? reqParams.entrySet().stream() : new HashMap<String,String[]>().entrySet().stream(), (n, e) -> Arrays.stream(e.getValue()).forEach(val->n.attr(e.getKey(), val))).value(CTX.config.baseURL).done();
+  private void writeHeader(DocWriter writer, Response<? extends Request> response) {
+    Map<String, String> attributes = new LinkedHashMap<>();
+    String verb = response.getParameter("verb");
+    if (verb != null) {
+      attributes.put("verb", verb);
+    }
+    if (response.parameters != null) {
+      response.parameters.entrySet().stream()
+              .filter(e -> !e.getKey().equals("verb") && e.getValue() != null)
+              .forEach(e -> Arrays.stream(e.getValue()).forEach(val -> attributes.put(e.getKey(), StringUtils.defaultIfBlank(val, ""))));
+    }
+    writer
+            .element("responseDate", response.responseDate.format(DateTimeFormatter.ISO_DATE_TIME))
+            .child("request").forEach(attributes.entrySet().stream(), (w, e) -> w.attr(e.getKey(), e.getValue())).value(CTX.config.baseURL).done();
   }
 
-  private void appendResumptionToken(DocNode parent, ResumptionToken resumptionToken, boolean printValue) {
-    parent.child("resumptionToken", () -> resumptionToken != null)
-            .attr("expirationDate", () -> resumptionToken.expirationDate.format(DateTimeFormatter.ISO_DATE_TIME), () -> resumptionToken.expirationDate != null)
-            .attr("completeListSize", Long.toString(resumptionToken.completeListSize))
+  private void writeRecord(DocWriter writer, Record record) {
+    writer
+            .child("header", record.header, this::writeRecordHeader)
+            .child("metadata", record.metadataFragment, (w, fragment) -> w.addFragment(fragment.content, fragment.namespaces))
+            .child("metadata", record.metadataFragment == null && record.metadata != null && record.metadata.getFirstChild() != null ? record.metadata : null, DocWriter::addDocument)
+            .forEach(Stream.of(record.about != null ? record.about : new Document[]{}).filter(doc->doc!=null), (w, about) -> {
+              w.child("about").addDocument(about).done();
+            });
+  }
+
+  private void writeRecordHeader(DocWriter writer, Header header) {
+    writer
+            .attr("status", header.deleted ? "deleted" : null)
+            .element("identifier", header.identifier.toASCIIString())
+            .element("datestamp", header.datestamp.format(DateTimeFormatter.ISO_DATE))
+            .forEach(Stream.of(header.set != null ? header.set : new String[]{}), (w, set) -> w.element("setSpec", set));
+  }
+
+  private void writeResumptionToken(DocWriter writer, ResumptionToken resumptionToken, boolean printValue) {
+    writer
+            .attr("expirationDate", resumptionToken.expirationDate != null ? resumptionToken.expirationDate.format(DateTimeFormatter.ISO_DATE_TIME) : null)
+            .attr("completeListSize", resumptionToken.completeListSize >= 0 ? Long.toString(resumptionToken.completeListSize) : null)
             .attr("cursor", Long.toString(resumptionToken.cursor))
-            .value(printValue ? resumptionToken.value : null).done();
+            .value(printValue ? resumptionToken.value : null);
+  }
+
+  private void write(OutputStream out, Consumer<DocWriter> content) throws IOException {
+    try {
+      DocWriter writer = new DocWriter(out, CTX.config.outputProfile != OutputProfile.Compact);
+      content.accept(writer.begin());
+      writer.close();
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  private String toString(ResponseWriter responseWriter) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      responseWriter.write(out);
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Response writer.
+   */
+  @FunctionalInterface
+  private interface ResponseWriter {
+    void write(OutputStream out) throws IOException;
   }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.api;
+
+import com.panforge.demeter.core.utils.QueryUtils;
+import java.util.Arrays;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Response formats.
+ * <p>
+ * XML is the only format defined by the OAI-PMH protocol; JSON is a compact
+ * alternative meant for harvesters using {@link JsonResponseParser}.
+ */
+public enum ResponseFormat {
+  /** OAI-PMH XML */
+  Xml("application/xml"),
+  /** JSON */
+  Json("application/json");
+
+  /** content type */
+  public final String contentType;
+
+  private ResponseFormat(String contentType) {
+    this.contentType = contentType;
+  }
+
+  /**
+   * Parses response format.
+   * @param value string representation of response format
+   * @return response format
+   */
+  public static ResponseFormat parse(String value) {
+    final String sValue = value!=null? value.toLowerCase(): null;
+    return Arrays.stream(values()).filter((v) -> v.name().toLowerCase().equals(sValue)).findFirst().orElse(null);
+  }
+
+  /**
+   * Negotiates response format.
+   * <p>
+   * Explicit format parameter takes precedence over <i>Accept</i> header. JSON
+   * is selected only if explicitly accepted with quality not lower than XML.
+   * @param format value of the format parameter
+   * @param accept value of <i>Accept</i> header
+   * @return negotiated format (never <code>null</code>)
+   */
+  public static ResponseFormat negotiate(String format, String accept) {
+    if (!StringUtils.isBlank(format)) {
+      ResponseFormat parsed = parse(format.trim());
+      return parsed != null? parsed: Xml;
+    }
+    if (StringUtils.isBlank(accept)) {
+      return Xml;
+    }
+    Map<String, Double> qualities = QueryUtils.parseQualities(accept);
+    double json = qualities.getOrDefault(Json.contentType, 0.0);
+    double xml = Math.max(qualities.getOrDefault(Xml.contentType, 0.0), qualities.getOrDefault("text/xml", 0.0));
+    return json > 0.0 && json >= xml? Json: Xml;
+  }
+}
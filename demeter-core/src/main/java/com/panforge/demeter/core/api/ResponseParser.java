@@ -18,19 +18,45 @@ package com.panforge.demeter.core.api;
 import com.panforge.demeter.core.api.exception.BadVerbException;
 import com.panforge.demeter.core.model.request.Request;
 import com.panforge.demeter.core.model.response.Response;
-import com.panforge.demeter.core.utils.XmlUtils;
+import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFragment;
+import com.panforge.demeter.core.model.response.elements.Record;
+import com.panforge.demeter.core.utils.XmlParsers;
 import com.panforge.demeter.core.utils.parser.DocParser;
+import com.panforge.demeter.core.utils.parser.StreamParser;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
 /**
  * Response parser.
  * <p>
- * Converts XML response string into response object.
+ * Converts XML response string into response object. Response is read as a
+ * stream; only embedded XML documents (metadata, about, descriptions) are 
+ * parsed into DOM.
  */
 public class ResponseParser {
+  private final boolean lazyMetadata;
+
+  /**
+   * Creates instance of the parser.
+   * @param lazyMetadata <code>true</code> to keep record metadata as {@link MetadataFragment} and build DOM on demand only
+   */
+  public ResponseParser(boolean lazyMetadata) {
+    this.lazyMetadata = lazyMetadata;
+  }
+
+  /**
+   * Creates instance of the parser.
+   */
+  public ResponseParser() {
+    this(false);
+  }
 
   /**
    * Parses response.
@@ -42,9 +68,11 @@ public class ResponseParser {
    * @throws BadVerbException if parsing fails
    */
   public Response<? extends Request> parse(String xml) throws IOException, SAXException, BadVerbException {
-    Document doc = XmlUtils.parseToXml(xml);
-    DocParser docParser = new DocParser(doc);
-    return docParser.parse();
+    try {
+      return parse(XmlParsers.inputFactory().createXMLStreamReader(new StringReader(xml)), null, null);
+    } catch (XMLStreamException ex) {
+      throw new SAXException(ex.getMessage(), ex);
+    }
   }
 
   /**
@@ -57,8 +85,50 @@ public class ResponseParser {
    * @throws BadVerbException if parsing fails
    */
   public Response<? extends Request> parse(InputStream xmlStream) throws IOException, SAXException, BadVerbException {
-    Document doc = XmlUtils.parseToXml(xmlStream);
-    DocParser docParser = new DocParser(doc);
+    return parse(xmlStream, null, null);
+  }
+
+  /**
+   * Parses response.
+   * <p>
+   * Headers of ListIdentifiers response or records of ListRecords response 
+   * are passed to the consumer one by one as soon as they are read; they are
+   * not collected into the response object.
+   *
+   * @param xmlStream content stream
+   * @param headerConsumer ListIdentifiers header consumer or <code>null</code> to collect headers
+   * @param recordConsumer ListRecords record consumer or <code>null</code> to collect records
+   * @return response response object.
+   * @throws java.io.IOException if error reading response
+   * @throws org.xml.sax.SAXException if error parsing xml
+   * @throws BadVerbException if parsing fails
+   */
+  public Response<? extends Request> parse(InputStream xmlStream, Consumer<Header> headerConsumer, Consumer<Record> recordConsumer) throws IOException, SAXException, BadVerbException {
+    try {
+      return parse(XmlParsers.inputFactory().createXMLStreamReader(xmlStream), headerConsumer, recordConsumer);
+    } catch (XMLStreamException ex) {
+      throw new SAXException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Parses response.
+   *
+   * @param doc XML response document
+   * @return response response object.
+   * @throws BadVerbException if parsing fails
+   */
+  public Response<? extends Request> parse(Document doc) throws BadVerbException {
+    DocParser docParser = new DocParser(doc, lazyMetadata);
     return docParser.parse();
   }
+  
+  private Response<? extends Request> parse(XMLStreamReader reader, Consumer<Header> headerConsumer, Consumer<Record> recordConsumer) throws XMLStreamException, BadVerbException {
+    try {
+      StreamParser streamParser = new StreamParser(reader, lazyMetadata);
+      return streamParser.parse(headerConsumer, recordConsumer);
+    } finally {
+      reader.close();
+    }
+  }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.content;
+
+import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFormat;
+import com.panforge.demeter.core.model.response.elements.Record;
+import com.panforge.demeter.core.model.response.elements.Set;
+import java.net.URI;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous content provider.
+ * <p>
+ * Each method returns immediately; failures are reported by completing the 
+ * stage exceptionally with the same protocol exceptions as thrown by
+ * {@link ContentProvider}.
+ * @param <PC> page cursor type
+ */
+public interface AsyncContentProvider<PC extends PageCursor> {
+  
+  /**
+   * Lists metadata formats.
+   * @param identifier record identifier (optional)
+   * @return completion stage of iterable of metadata formats
+   */
+  CompletionStage<StreamingIterable<MetadataFormat>> listMetadataFormatsAsync(URI identifier);
+  
+  /**
+   * Lists sets.
+   * @param pageCursor page cursor
+   * @param pageSize page size
+   * @return completion stage of page of sets
+   */
+  CompletionStage<Page<Set, PC>> listSetsAsync(PC pageCursor, int pageSize);
+  
+  /**
+   * Lists headers.
+   * @param filter filter
+   * @param pageCursor page cursor
+   * @param pageSize page size
+   * @return completion stage of page of headers
+   */
+  CompletionStage<Page<Header, PC>> listHeadersAsync(Filter filter, PC pageCursor, int pageSize);
+  
+  /**
+   * Lists records.
+   * @param filter filter
+   * @param pageCursor page cursor
+   * @param pageSize page size
+   * @return completion stage of page of records
+   */
+  CompletionStage<Page<Record, PC>> listRecordsAsync(Filter filter, PC pageCursor, int pageSize);
+  
+  /**
+   * Reads record.
+   * @param identifier record identifier
+   * @param metadataPrefix metadata prefix
+   * @return completion stage of record
+   */
+  CompletionStage<Record> readRecordAsync(URI identifier, String metadataPrefix);
+  
+  /**
+   * Adapts blocking content provider.
+   * @param <PC> page cursor type
+   * @param provider blocking content provider
+   * @param executor executor to run blocking calls
+   * @return asynchronous content provider
+   */
+  static <PC extends PageCursor> AsyncContentProvider<PC> of(ContentProvider<PC> provider, Executor executor) {
+    return new BlockingContentProviderAdapter<>(provider, executor);
+  }
+}
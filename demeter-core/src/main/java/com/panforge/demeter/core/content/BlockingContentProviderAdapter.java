@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.content;
+
+import com.panforge.demeter.core.api.exception.ProtocolException;
+import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFormat;
+import com.panforge.demeter.core.model.response.elements.Record;
+import com.panforge.demeter.core.model.response.elements.Set;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Adapter running blocking content provider on an executor.
+ * @param <PC> page cursor type
+ */
+public class BlockingContentProviderAdapter<PC extends PageCursor> implements AsyncContentProvider<PC> {
+  protected final ContentProvider<PC> provider;
+  protected final Executor executor;
+
+  /**
+   * Creates instance of the adapter.
+   * @param provider blocking content provider
+   * @param executor executor to run blocking calls
+   */
+  public BlockingContentProviderAdapter(ContentProvider<PC> provider, Executor executor) {
+    Validate.notNull(provider, "Missing content provider");
+    Validate.notNull(executor, "Missing executor");
+    this.provider = provider;
+    this.executor = executor;
+  }
+
+  @Override
+  public CompletionStage<StreamingIterable<MetadataFormat>> listMetadataFormatsAsync(URI identifier) {
+    return supply(() -> provider.listMetadataFormats(identifier));
+  }
+
+  @Override
+  public CompletionStage<Page<Set, PC>> listSetsAsync(PC pageCursor, int pageSize) {
+    return supply(() -> provider.listSets(pageCursor, pageSize));
+  }
+
+  @Override
+  public CompletionStage<Page<Header, PC>> listHeadersAsync(Filter filter, PC pageCursor, int pageSize) {
+    return supply(() -> provider.listHeaders(filter, pageCursor, pageSize));
+  }
+
+  @Override
+  public CompletionStage<Page<Record, PC>> listRecordsAsync(Filter filter, PC pageCursor, int pageSize) {
+    return supply(() -> provider.listRecords(filter, pageCursor, pageSize));
+  }
+
+  @Override
+  public CompletionStage<Record> readRecordAsync(URI identifier, String metadataPrefix) {
+    return supply(() -> provider.readRecord(identifier, metadataPrefix));
+  }
+  
+  /**
+   * Runs blocking call on the executor.
+   * @param <T> type of the result
+   * @param call blocking call
+   * @return completion stage of the result
+   */
+  protected <T> CompletionStage<T> supply(Call<T> call) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          future.complete(call.call());
+        } catch (ProtocolException|RuntimeException ex) {
+          future.completeExceptionally(ex);
+        }
+      });
+    } catch (RuntimeException ex) {
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+  
+  /**
+   * Blocking call.
+   * @param <T> type of the result
+   */
+  @FunctionalInterface
+  protected interface Call<T> {
+    T call() throws ProtocolException;
+  }
+}
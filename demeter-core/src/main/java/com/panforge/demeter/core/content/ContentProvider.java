@@ -25,6 +25,15 @@ import com.panforge.demeter.core.model.response.elements.MetadataFormat;
 import com.panforge.demeter.core.model.response.elements.Record;
 import com.panforge.demeter.core.model.response.elements.Set;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 /**
  * Content provider.
@@ -62,6 +71,78 @@ public interface ContentProvider<PC extends PageCursor> {
    */
   Page<Header, PC> listHeaders(Filter filter, PC pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException;
   
+  /**
+   * Lists records.
+   * <p>
+   * Default implementation lists headers and reads records of each page in
+   * bulk; providers able to fetch headers together with metadata should
+   * override it. Deleted records come with header only.
+   * @param filter filter
+   * @param pageCursor page cursor
+   * @param pageSize page size
+   * @return page of records
+   * @throws CannotDisseminateFormatException if invalid metadata format
+   * @throws NoRecordsMatchException if no records
+   * @throws NoSetHierarchyException if set hierarchy not supported
+   */
+  default Page<Record, PC> listRecords(Filter filter, PC pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+    Page<Header, PC> headers = listHeaders(filter, pageCursor, pageSize);
+    List<Record> records;
+    int [] consumed;
+    try {
+      List<Header> page = StreamSupport.stream(headers.spliterator(), false).collect(Collectors.toList());
+      List<URI> identifiers = page.stream().filter(h -> !h.deleted).map(h -> h.identifier).collect(Collectors.toList());
+      Map<URI, Record> available = !identifiers.isEmpty()? readRecords(identifiers, filter.metadataPrefix): Collections.emptyMap();
+      records = new ArrayList<>(page.size());
+      // number of headers consumed up to each record; unavailable records are skipped
+      consumed = new int[page.size()];
+      for (int i = 0; i < page.size(); i++) {
+        Header h = page.get(i);
+        Record record = !h.deleted? available.get(h.identifier): new Record(h, null, null);
+        if (record!=null) {
+          records.add(record);
+          consumed[records.size()-1] = i + 1;
+        }
+      }
+    } catch (RuntimeException ex) {
+      headers.close();
+      throw ex;
+    }
+    
+    // total is taken from the headers lazily, thus headers stay open until the records are closed
+    return new Page<Record, PC>() {
+      @Override
+      public long total() {
+        return headers.total();
+      }
+
+      @Override
+      public TotalKind totalKind() {
+        return headers.totalKind();
+      }
+
+      @Override
+      public PC nextPageCursor() {
+        return headers.nextPageCursor();
+      }
+
+      @Override
+      public PC cursorAt(int count) {
+        return headers.cursorAt(consumed[count-1]);
+      }
+
+      @Override
+      public void close() {
+        headers.close();
+      }
+
+      @Override
+      public Iterator<Record> iterator() {
+        return records.iterator();
+      }
+    };
+  }
+  
   /**
    * Reads record.
    * @param identifier record identifier
@@ -71,4 +152,25 @@ public interface ContentProvider<PC extends PageCursor> {
    * @throws CannotDisseminateFormatException if record not available in a specified format
    */
   Record readRecord(URI identifier, String metadataPrefix) throws IdDoesNotExistException, CannotDisseminateFormatException;
+  
+  /**
+   * Reads records in bulk.
+   * <p>
+   * Default implementation reads records one by one; providers able to fetch
+   * many records at once should override it.
+   * @param identifiers record identifiers
+   * @param metadataPrefix metadata prefix
+   * @return map of records in the order of identifiers; records which do not exist or are not available in the specified format are absent
+   */
+  default Map<URI, Record> readRecords(Collection<URI> identifiers, String metadataPrefix) {
+    Map<URI, Record> records = new LinkedHashMap<>();
+    for (URI identifier: identifiers) {
+      try {
+        records.put(identifier, readRecord(identifier, metadataPrefix));
+      } catch (IdDoesNotExistException|CannotDisseminateFormatException ex) {
+        // not available; skipped
+      }
+    }
+    return records;
+  }
 }
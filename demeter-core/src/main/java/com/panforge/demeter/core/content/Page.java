@@ -18,6 +18,8 @@ package com.panforge.demeter.core.content;
 import java.io.Closeable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
 import java.util.stream.Stream;
 
 /**
@@ -31,16 +33,40 @@ public interface Page<T, PC> extends Closeable, StreamingIterable<T> {
   
   /**
    * Gets total number of elements.
+   * <p>
+   * May be computed lazily; callers ask for it only if needed and only if
+   * the kind of the total is not {@link TotalKind#Unknown}.
    * @return total number of elements
    */
   long total();
   
+  /**
+   * Gets kind of the total number of elements.
+   * @return kind of the total
+   */
+  default TotalKind totalKind() {
+    return TotalKind.Exact;
+  }
+  
   /**
    * Gets cursor to the next page.
    * @return cursor to the next page or <code>null</code> if no more pages.
    */
   PC nextPageCursor();
   
+  /**
+   * Gets cursor to the remainder of this page.
+   * <p>
+   * Allows to cut the page short: the cursor points right after the first
+   * <code>count</code> elements of this page. Pages unable to resume in the
+   * middle return <code>null</code> and are never cut.
+   * @param count number of elements already consumed
+   * @return cursor to the remainder of the page or <code>null</code> if not supported
+   */
+  default PC cursorAt(int count) {
+    return null;
+  }
+  
   static <T,PC> Page<T,PC> of(final List<T> content, long total, final PC nextPageCursor) {
     return new Page<T,PC>() {
       @Override
@@ -64,6 +90,43 @@ public interface Page<T, PC> extends Closeable, StreamingIterable<T> {
     };
   }
   
+  static <T,PC> Page<T,PC> of(final List<T> content, final LongSupplier total, final TotalKind totalKind, final PC nextPageCursor) {
+    return of(content, total, totalKind, nextPageCursor, count -> null);
+  }
+  
+  static <T,PC> Page<T,PC> of(final List<T> content, final LongSupplier total, final TotalKind totalKind, final PC nextPageCursor, final IntFunction<PC> cursorAt) {
+    return new Page<T,PC>() {
+      @Override
+      public long total() {
+        return total.getAsLong();
+      }
+
+      @Override
+      public TotalKind totalKind() {
+        return totalKind;
+      }
+
+      @Override
+      public PC nextPageCursor() {
+        return nextPageCursor;
+      }
+
+      @Override
+      public PC cursorAt(int count) {
+        return cursorAt.apply(count);
+      }
+
+      @Override
+      public void close() {
+      }
+
+      @Override
+      public Iterator<T> iterator() {
+        return content.iterator();
+      }
+    };
+  }
+  
   static <T,PC> Page<T,PC> of(final List<T> content) {
     return of(content, content.size(), null);
   }
@@ -94,4 +157,16 @@ public interface Page<T, PC> extends Closeable, StreamingIterable<T> {
   static <T,PC> Page<T,PC> of(final Stream<T> content, long total) {
     return of(content, total, null);
   }
+  
+  /**
+   * Kind of the total number of elements.
+   */
+  enum TotalKind {
+    /** exact number of elements */
+    Exact,
+    /** estimated number of elements */
+    Estimated,
+    /** number of elements unknown */
+    Unknown
+  }
 }
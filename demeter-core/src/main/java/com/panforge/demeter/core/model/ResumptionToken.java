@@ -32,7 +32,7 @@ public final class ResumptionToken {
    * Creates instance of the resumption token.
    * @param value value of the token
    * @param expirationDate expiration date
-   * @param completeListSize complete list size
+   * @param completeListSize complete list size or negative if unknown
    * @param cursor cursor position
    */
   public ResumptionToken(String value, OffsetDateTime expirationDate, long completeListSize, long cursor) {
@@ -27,6 +27,24 @@ import org.apache.commons.lang3.Validate;
  * GetRecord request.
  */
 public final class GetRecordRequest extends Request {
+  private static final ParamProcessor<GetRecordRequest> PARAMS = ParamProcessor
+          .<GetRecordRequest>with("identifier", (request, v) -> {
+            if (v==null) {
+              throw new BadArgumentException(String.format("Missing identifier"));
+            }
+            try {
+              request.identifier = URI.create(v);
+            } catch (IllegalArgumentException|NullPointerException ex) {
+              throw new BadArgumentException(String.format("Invalid identifier format: %s", v));
+            }
+          })
+          .with("metadataPrefix", (request, v) -> {
+            if (v==null) {
+              throw new BadArgumentException(String.format("Missing metadataPrefix"));
+            }
+            request.metadataPrefix = v;
+          })
+          .build();
   /** record identifier*/
   private URI identifier;
   /** metadata prefix */
@@ -76,24 +94,7 @@ public final class GetRecordRequest extends Request {
    */
   public static GetRecordRequest create(Map<String,String[]> params) throws BadArgumentException {
     GetRecordRequest request = new GetRecordRequest();
-    ParamProcessor
-            .with("identifier", v -> {
-              if (v==null) {
-                throw new BadArgumentException(String.format("Missing identifier"));
-              }
-              try {
-                request.identifier = URI.create(v);
-              } catch (IllegalArgumentException|NullPointerException ex) {
-                throw new BadArgumentException(String.format("Invalid identifier format: %s", v));
-              }
-            })
-            .with("metadataPrefix", v -> {
-              if (v==null) {
-                throw new BadArgumentException(String.format("Missing metadataPrefix"));
-              }
-              request.metadataPrefix = v;
-            })
-            .build().execute(params);
+    PARAMS.execute(request, params);
     return request;
   }
   
@@ -25,6 +25,7 @@ import java.util.Map;
  * Identify request.
  */
 public final class IdentifyRequest extends Request {
+  private static final ParamProcessor<IdentifyRequest> PARAMS = ParamProcessor.build();
 
   /**
    * Creates instance of the request.
@@ -40,8 +41,9 @@ public final class IdentifyRequest extends Request {
    * @throws BadArgumentException if creation fails
    */
   public static IdentifyRequest create(Map<String,String[]> params) throws BadArgumentException {
-    ParamProcessor.build().execute(params);
-    return new IdentifyRequest();
+    IdentifyRequest request = new IdentifyRequest();
+    PARAMS.execute(request, params);
+    return request;
   }
   
   @Override
@@ -30,6 +30,36 @@ import org.apache.commons.lang3.Validate;
  * ListIdentifiers request.
  */
 public final class ListIdentifiersRequest extends RequestWithToken {
+  private static final ParamProcessor<ListIdentifiersRequest> TOKEN_PARAMS = ParamProcessor
+          .<ListIdentifiersRequest>with("resumptionToken", (request, v) -> {
+            if (v != null) {
+              request.resumptionToken = v;
+            }
+          })
+          .build();
+  private static final ParamProcessor<ListIdentifiersRequest> PARAMS = ParamProcessor
+          .<ListIdentifiersRequest>with("from", (request, v) -> {
+            if (v != null) {
+              request.from = parseRequestTimestamp(v);
+            }
+          })
+          .with("until", (request, v) -> {
+            if (v != null) {
+              request.until = parseRequestTimestamp(v);
+            }
+          })
+          .with("metadataPrefix", (request, v) -> {
+            if (v == null) {
+              throw new BadArgumentException(String.format("Missing metadataPrefix"));
+            }
+            request.metadataPrefix = v;
+          })
+          .with("set", (request, v) -> {
+            if (v != null) {
+              request.set = v;
+            }
+          })
+          .build();
 
   /** starting date (optional) */
   private OffsetDateTime from;
@@ -130,38 +160,10 @@ public final class ListIdentifiersRequest extends RequestWithToken {
    */
   public static ListIdentifiersRequest create(Map<String, String[]> params) throws BadArgumentException {
     ListIdentifiersRequest request = new ListIdentifiersRequest();
-    if (params.containsKey("resumptionToken")) {
-      ParamProcessor
-              .with("resumptionToken", v -> {
-                if (v != null) {
-                  request.resumptionToken = v;
-                }
-              })
-              .build().execute(params);
+    if (ParamProcessor.contains(params, "resumptionToken")) {
+      TOKEN_PARAMS.execute(request, params);
     } else {
-      ParamProcessor
-              .with("from", v -> {
-                if (v != null) {
-                  request.from = parseRequestTimestamp(v);
-                }
-              })
-              .with("until", v -> {
-                if (v != null) {
-                  request.until = parseRequestTimestamp(v);
-                }
-              })
-              .with("metadataPrefix", v -> {
-                if (v == null) {
-                  throw new BadArgumentException(String.format("Missing metadataPrefix"));
-                }
-                request.metadataPrefix = v;
-              })
-              .with("set", v -> {
-                if (v != null) {
-                  request.set = v;
-                }
-              })
-              .build().execute(params);
+      PARAMS.execute(request, params);
     }
     return request;
   }
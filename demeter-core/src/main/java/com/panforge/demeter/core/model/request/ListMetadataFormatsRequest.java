@@ -26,6 +26,17 @@ import java.util.Map;
  * ListMetadataFormats request.
  */
 public final class ListMetadataFormatsRequest extends Request {
+  private static final ParamProcessor<ListMetadataFormatsRequest> PARAMS = ParamProcessor
+          .<ListMetadataFormatsRequest>with("identifier", (request, v) -> {
+            if (v!=null) {
+              try {
+                request.identifier = URI.create(v);
+              } catch (IllegalArgumentException|NullPointerException ex) {
+                throw new BadArgumentException(String.format("Invalid identifier format: %s", v));
+              }
+            }
+          })
+          .build();
 
   /** record identifier (optional) */
   private URI identifier;
@@ -62,17 +73,7 @@ public final class ListMetadataFormatsRequest extends Request {
    */
   public static ListMetadataFormatsRequest create(Map<String, String[]> params) throws BadArgumentException {
     ListMetadataFormatsRequest request = new ListMetadataFormatsRequest();
-    ParamProcessor
-            .with("identifier", v -> {
-              if (v!=null) {
-                try {
-                  request.identifier = URI.create(v);
-                } catch (IllegalArgumentException|NullPointerException ex) {
-                  throw new BadArgumentException(String.format("Invalid identifier format: %s", v));
-                }
-              }
-            })
-            .build().execute(params);
+    PARAMS.execute(request, params);
     return request;
   }
   
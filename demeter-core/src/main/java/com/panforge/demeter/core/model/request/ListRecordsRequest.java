@@ -30,6 +30,36 @@ import org.apache.commons.lang3.Validate;
  * ListRecords request.
  */
 public class ListRecordsRequest extends RequestWithToken {
+  private static final ParamProcessor<ListRecordsRequest> TOKEN_PARAMS = ParamProcessor
+          .<ListRecordsRequest>with("resumptionToken", (request, v) -> {
+            if (v != null) {
+              request.resumptionToken = v;
+            }
+          })
+          .build();
+  private static final ParamProcessor<ListRecordsRequest> PARAMS = ParamProcessor
+          .<ListRecordsRequest>with("from", (request, v) -> {
+            if (v != null) {
+              request.from = parseRequestTimestamp(v);
+            }
+          })
+          .with("until", (request, v) -> {
+            if (v != null) {
+              request.until = parseRequestTimestamp(v);
+            }
+          })
+          .with("metadataPrefix", (request, v) -> {
+            if (v == null) {
+              throw new BadArgumentException(String.format("Missing metadataPrefix"));
+            }
+            request.metadataPrefix = v;
+          })
+          .with("set", (request, v) -> {
+            if (v != null) {
+              request.set = v;
+            }
+          })
+          .build();
 
   /** starting date (optional) */
   private OffsetDateTime from;
@@ -130,38 +160,10 @@ public class ListRecordsRequest extends RequestWithToken {
    */
   public static ListRecordsRequest create(Map<String, String[]> params) throws BadArgumentException {
     ListRecordsRequest request = new ListRecordsRequest();
-    if (params.containsKey("resumptionToken")) {
-      ParamProcessor
-              .with("resumptionToken", v -> {
-                if (v != null) {
-                  request.resumptionToken = v;
-                }
-              })
-              .build().execute(params);
+    if (ParamProcessor.contains(params, "resumptionToken")) {
+      TOKEN_PARAMS.execute(request, params);
     } else {
-      ParamProcessor
-              .with("from", v -> {
-                if (v != null) {
-                  request.from = parseRequestTimestamp(v);
-                }
-              })
-              .with("until", v -> {
-                if (v != null) {
-                  request.until = parseRequestTimestamp(v);
-                }
-              })
-              .with("metadataPrefix", v -> {
-                if (v == null) {
-                  throw new BadArgumentException(String.format("Missing metadataPrefix"));
-                }
-                request.metadataPrefix = v;
-              })
-              .with("set", v -> {
-                if (v != null) {
-                  request.set = v;
-                }
-              })
-              .build().execute(params);
+      PARAMS.execute(request, params);
     }
     return request;
   }
@@ -26,6 +26,13 @@ import org.apache.commons.lang3.Validate;
  * ListSets request.
  */
 public final class ListSetsRequest extends RequestWithToken {
+  private static final ParamProcessor<ListSetsRequest> PARAMS = ParamProcessor
+          .<ListSetsRequest>with("resumptionToken", (request, v) -> {
+            if (v!=null) {
+              request.resumptionToken = v;
+            }
+          })
+          .build();
 
   /**
    * Creates instance of the request.
@@ -61,13 +68,7 @@ public final class ListSetsRequest extends RequestWithToken {
    */
   public static ListSetsRequest create(Map<String, String[]> params) throws BadArgumentException {
     ListSetsRequest request = new ListSetsRequest();
-    ParamProcessor
-            .with("resumptionToken", v -> {
-              if (v!=null) {
-                request.resumptionToken = v;
-              }
-            })
-            .build().execute(params);
+    PARAMS.execute(request, params);
     return request;
   }
 
@@ -18,6 +18,7 @@ package com.panforge.demeter.core.model.response;
 import com.panforge.demeter.core.api.Config;
 import com.panforge.demeter.core.model.request.IdentifyRequest;
 import java.time.OffsetDateTime;
+import java.util.Arrays;
 import java.util.Map;
 import org.w3c.dom.Document;
 
@@ -74,6 +75,8 @@ public final class IdentifyResponse extends Response<IdentifyRequest> {
   
   /**
    * Creates identify response form configuration.
+   * <p>
+   * Only compressions supported by the servers are advertised.
    * @param config the configuration
    * @param descriptions descriptions
    * @param responseDate response date
@@ -91,7 +94,7 @@ public final class IdentifyResponse extends Response<IdentifyRequest> {
             config.earliestDatestamp,
             config.deletedRecord,
             config.granularity,
-            config.compression,
+            config.compression != null? Arrays.stream(config.compression).filter(c -> c != null && c.supported).toArray(Config.Compression[]::new): null,
             descriptions
     );
     
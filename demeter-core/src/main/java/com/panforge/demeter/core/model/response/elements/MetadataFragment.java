@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.model.response.elements;
+
+import com.panforge.demeter.core.utils.XmlParsers;
+import com.panforge.demeter.core.utils.XmlUtils;
+import com.panforge.demeter.core.utils.namespace.NamespaceUtils;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Pre-serialized metadata fragment.
+ * <p>
+ * Holds metadata already rendered as UTF-8 encoded XML element (no XML 
+ * declaration, no byte order mark) which is copied verbatim into the response.
+ * Content is expected to be already sanitized. Namespaces used by the fragment 
+ * but not declared within it are provided separately and get declared on the 
+ * enclosing element.
+ */
+public final class MetadataFragment {
+  
+  /** content of the fragment */
+  public final byte [] content;
+  /** namespaces required by the fragment (prefix to namespace URI) */
+  public final Map<String, String> namespaces;
+
+  /**
+   * Creates instance of the fragment.
+   * @param content content of the fragment
+   * @param namespaces namespaces required by the fragment (optional)
+   */
+  public MetadataFragment(byte [] content, Map<String, String> namespaces) {
+    Validate.notNull(content, "Missing content");
+    this.content = content;
+    this.namespaces = namespaces != null? Collections.unmodifiableMap(namespaces): Collections.emptyMap();
+  }
+
+  /**
+   * Creates instance of the fragment.
+   * @param content content of the fragment
+   */
+  public MetadataFragment(byte [] content) {
+    this(content, null);
+  }
+  
+  /**
+   * Creates fragment from the buffer.
+   * <p>
+   * Backing array is used directly if the buffer spans all of it, otherwise 
+   * remaining bytes are copied.
+   * @param buffer buffer with UTF-8 encoded XML element
+   * @param namespaces namespaces required by the fragment (optional)
+   * @return fragment
+   */
+  public static MetadataFragment of(ByteBuffer buffer, Map<String, String> namespaces) {
+    Validate.notNull(buffer, "Missing buffer");
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+      return new MetadataFragment(buffer.array(), namespaces);
+    }
+    byte [] content = new byte[buffer.remaining()];
+    buffer.duplicate().get(content);
+    return new MetadataFragment(content, namespaces);
+  }
+  
+  /**
+   * Creates fragment from the document.
+   * <p>
+   * Copy of the document gets sanitized before being serialized; the document
+   * itself is left intact.
+   * @param doc document
+   * @return fragment or <code>null</code> if document is empty
+   */
+  public static MetadataFragment of(Document doc) {
+    if (doc == null || doc.getDocumentElement() == null) {
+      return null;
+    }
+    Node copy = doc.getDocumentElement().cloneNode(true);
+    NamespaceUtils.sanitize(copy);
+    return new MetadataFragment(XmlUtils.formatToBytes(copy));
+  }
+  
+  /**
+   * Parses fragment into a new document.
+   * @return document
+   * @throws IOException if error reading fragment
+   * @throws SAXException if error parsing fragment
+   */
+  public Document toDocument() throws IOException, SAXException {
+    if (namespaces.isEmpty()) {
+      return XmlParsers.builder().parse(new ByteArrayInputStream(content));
+    }
+    // namespaces declared outside of the fragment are provided by a wrapper element
+    StringBuilder wrapper = new StringBuilder("<wrapper");
+    namespaces.forEach((prefix, uri) -> {
+      wrapper
+              .append(StringUtils.isEmpty(prefix)? " xmlns": " xmlns:" + prefix)
+              .append("=\"")
+              .append(StringUtils.defaultString(uri).replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;"))
+              .append("\"");
+    });
+    wrapper.append(">");
+    InputStream stream = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+            new ByteArrayInputStream(wrapper.toString().getBytes(StandardCharsets.UTF_8)),
+            new ByteArrayInputStream(content),
+            new ByteArrayInputStream("</wrapper>".getBytes(StandardCharsets.UTF_8))
+    )));
+    Document wrapped = XmlParsers.builder().parse(stream);
+    Document doc = XmlUtils.newDocument();
+    for (Node node = wrapped.getDocumentElement().getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        doc.appendChild(doc.adoptNode(node));
+        break;
+      }
+    }
+    return doc;
+  }
+  
+}
@@ -15,8 +15,10 @@
  */
 package com.panforge.demeter.core.model.response.elements;
 
+import java.io.IOException;
 import org.apache.commons.lang3.Validate;
 import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
 /**
  * Record.
@@ -25,22 +27,61 @@ public final class Record {
   
   /** header */
   public final Header header;
-  /** metadata */
+  /** metadata; might be <code>null</code> if only {@link #metadataFragment} is provided (see {@link #getMetadata()}) */
   public final Document metadata;
+  /** pre-serialized metadata; takes precedence over {@link #metadata} */
+  public final MetadataFragment metadataFragment;
   /** about information */
   public final Document [] about;
+  
+  /** metadata document built from the fragment on demand */
+  private volatile Document parsedMetadata;
 
   /**
    * Creates instance of the record.
    * @param header header
    * @param metadata metadata
+   * @param metadataFragment pre-serialized metadata
    * @param about about information
    */
-  public Record(Header header, Document metadata, Document [] about) {
+  public Record(Header header, Document metadata, MetadataFragment metadataFragment, Document [] about) {
     Validate.notNull(header, "Missing header");
     this.header = header;
     this.metadata = metadata;
+    this.metadataFragment = metadataFragment;
     this.about = about;
   }
+
+  /**
+   * Creates instance of the record.
+   * @param header header
+   * @param metadata metadata
+   * @param about about information
+   */
+  public Record(Header header, Document metadata, Document [] about) {
+    this(header, metadata, null, about);
+  }
+  
+  /**
+   * Gets metadata document.
+   * <p>
+   * If record carries pre-serialized metadata only, the document is built from
+   * the fragment on the first call and reused afterwards. Records which are 
+   * only passed through (re-served, forwarded or stored) never pay for the DOM.
+   * @return metadata document or <code>null</code> if no metadata
+   * @throws IOException if error reading metadata
+   * @throws SAXException if error parsing metadata
+   */
+  public Document getMetadata() throws IOException, SAXException {
+    if (metadata != null || metadataFragment == null) {
+      return metadata;
+    }
+    Document doc = parsedMetadata;
+    if (doc == null) {
+      doc = metadataFragment.toDocument();
+      parsedMetadata = doc;
+    }
+    return doc;
+  }
   
 }
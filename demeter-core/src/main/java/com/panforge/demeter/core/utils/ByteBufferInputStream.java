@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Input stream reading from a byte buffer.
+ * <p>
+ * Used to feed memory-mapped files to the parsers without copying. Stream is 
+ * not thread safe.
+ */
+public class ByteBufferInputStream extends InputStream {
+  private final ByteBuffer buffer;
+
+  /**
+   * Creates instance of the stream.
+   * @param buffer buffer; read from its position up to its limit
+   */
+  public ByteBufferInputStream(ByteBuffer buffer) {
+    Validate.notNull(buffer, "Missing buffer");
+    this.buffer = buffer;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return buffer.hasRemaining()? buffer.get() & 0xFF: -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    int count = Math.min(len, buffer.remaining());
+    buffer.get(b, off, count);
+    return count;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+    buffer.position(buffer.position() + count);
+    return count;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return buffer.remaining();
+  }
+}
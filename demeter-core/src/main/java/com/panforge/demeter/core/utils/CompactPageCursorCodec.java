@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import com.panforge.demeter.core.content.PageCursorCodec;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static com.panforge.demeter.core.utils.VarintUtils.*;
+
+/**
+ * Compact page cursor codec.
+ * <p>
+ * Encodes cursor as a version byte, a bit mask of present fields and the 
+ * fields themselves: numbers as zig-zag varints, strings as length prefixed
+ * UTF-8. Opaque data being a Base64 string (like Cassandra paging state) is 
+ * stored as raw bytes. The result is Base64url encoded without padding.
+ */
+public class CompactPageCursorCodec implements PageCursorCodec<DefaultPageCursor> {
+  private final static Logger LOG = LoggerFactory.getLogger(CompactPageCursorCodec.class);
+  
+  private static final int VERSION = 1;
+  
+  private static final int CURSOR = 1;
+  private static final int DATA = 1 << 1;
+  private static final int DATA_BYTES = 1 << 2;
+  private static final int DATESTAMP = 1 << 3;
+  private static final int IDENTIFIER = 1 << 4;
+  private static final int FROM = 1 << 5;
+  private static final int UNTIL = 1 << 6;
+  private static final int METADATA_PREFIX = 1 << 7;
+  private static final int SET = 1 << 8;
+
+  @Override
+  public String toString(DefaultPageCursor pageCursor) {
+    byte[] dataBytes = pageCursor.data != null? base64Bytes(pageCursor.data): null;
+    int mask = (pageCursor.cursor != null? CURSOR: 0)
+            | (pageCursor.data != null? dataBytes != null? DATA_BYTES: DATA: 0)
+            | (pageCursor.datestamp != null? DATESTAMP: 0)
+            | (pageCursor.identifier != null? IDENTIFIER: 0)
+            | (pageCursor.from != null? FROM: 0)
+            | (pageCursor.until != null? UNTIL: 0)
+            | (pageCursor.metadataPrefix != null? METADATA_PREFIX: 0)
+            | (pageCursor.set != null? SET: 0);
+    
+    ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+    out.write(VERSION);
+    writeVarint(out, mask);
+    if (pageCursor.cursor != null) {
+      writeLong(out, pageCursor.cursor);
+    }
+    if (dataBytes != null) {
+      writeBytes(out, dataBytes);
+    } else if (pageCursor.data != null) {
+      writeString(out, pageCursor.data);
+    }
+    if (pageCursor.datestamp != null) {
+      writeLong(out, pageCursor.datestamp);
+    }
+    if (pageCursor.identifier != null) {
+      writeString(out, pageCursor.identifier);
+    }
+    if (pageCursor.from != null) {
+      writeLong(out, pageCursor.from);
+    }
+    if (pageCursor.until != null) {
+      writeLong(out, pageCursor.until);
+    }
+    if (pageCursor.metadataPrefix != null) {
+      writeString(out, pageCursor.metadataPrefix);
+    }
+    if (pageCursor.set != null) {
+      writeString(out, pageCursor.set);
+    }
+    
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+  }
+
+  @Override
+  public DefaultPageCursor fromString(String pageCursorStr) {
+    try {
+      ByteBuffer in = ByteBuffer.wrap(Base64.getUrlDecoder().decode(pageCursorStr));
+      if (in.get() != VERSION) {
+        LOG.debug(String.format("Unsupported page cursor version: %s", pageCursorStr));
+        return null;
+      }
+      int mask = (int) readVarint(in);
+      DefaultPageCursor pageCursor = new DefaultPageCursor();
+      if ((mask & CURSOR) != 0) {
+        pageCursor.cursor = readLong(in);
+      }
+      if ((mask & DATA_BYTES) != 0) {
+        pageCursor.data = Base64.getEncoder().encodeToString(readBytes(in));
+      }
+      if ((mask & DATA) != 0) {
+        pageCursor.data = readString(in);
+      }
+      if ((mask & DATESTAMP) != 0) {
+        pageCursor.datestamp = readLong(in);
+      }
+      if ((mask & IDENTIFIER) != 0) {
+        pageCursor.identifier = readString(in);
+      }
+      if ((mask & FROM) != 0) {
+        pageCursor.from = readLong(in);
+      }
+      if ((mask & UNTIL) != 0) {
+        pageCursor.until = readLong(in);
+      }
+      if ((mask & METADATA_PREFIX) != 0) {
+        pageCursor.metadataPrefix = readString(in);
+      }
+      if ((mask & SET) != 0) {
+        pageCursor.set = readString(in);
+      }
+      if (in.hasRemaining()) {
+        LOG.debug(String.format("Trailing bytes in page cursor: %s", pageCursorStr));
+        return null;
+      }
+      return pageCursor;
+    } catch (IllegalArgumentException|BufferUnderflowException|NullPointerException ex) {
+      LOG.debug(String.format("Error decoding page cursor: %s", pageCursorStr), ex);
+      return null;
+    }
+  }
+  
+  private static byte[] base64Bytes(String data) {
+    try {
+      byte[] bytes = Base64.getDecoder().decode(data);
+      // only canonical encoding can be restored exactly
+      return Base64.getEncoder().encodeToString(bytes).equals(data)? bytes: null;
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import com.panforge.demeter.core.api.Config.Compression;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Compressing output stream.
+ * <p>
+ * Buffers data until the threshold is reached; only then compression is
+ * applied. Smaller outputs are written as they are. Listener is notified just
+ * before the first compressed byte is written, so it can still set headers.
+ */
+public class CompressingOutputStream extends OutputStream {
+  private static final int BUFFER_SIZE = 8192;
+  
+  private final OutputStream out;
+  private final Compression compression;
+  private final Consumer<Compression> listener;
+  private final byte [] buffer;
+  private int count;
+  private OutputStream target;
+
+  /**
+   * Creates instance of the stream.
+   * @param out underlying output stream
+   * @param compression compression to apply
+   * @param threshold minimal number of bytes to apply compression
+   * @param listener compression listener
+   */
+  public CompressingOutputStream(OutputStream out, Compression compression, int threshold, Consumer<Compression> listener) {
+    Validate.notNull(out, "Missing output stream");
+    this.out = out;
+    this.compression = compression;
+    this.listener = listener;
+    if (compression == Compression.Gzip || compression == Compression.Deflate) {
+      this.buffer = new byte[Math.max(threshold, 0)];
+    } else {
+      this.buffer = null;
+      this.target = out;
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (target == null && count < buffer.length) {
+      buffer[count++] = (byte) b;
+    } else {
+      start().write(b);
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (target == null && count + len <= buffer.length) {
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    } else {
+      start().write(b, off, len);
+    }
+  }
+
+  /**
+   * Flushes the stream. Has no effect while data is still being buffered.
+   * @throws IOException if flushing fails
+   */
+  @Override
+  public void flush() throws IOException {
+    if (target != null) {
+      target.flush();
+    }
+  }
+  
+  /**
+   * Finishes writing compressed data without closing the underlying stream.
+   * @throws IOException if writing fails
+   */
+  public void finish() throws IOException {
+    if (target == null) {
+      target = out;
+      out.write(buffer, 0, count);
+    } else if (target != out) {
+      // releases deflater while the underlying stream stays open
+      target.close();
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    finish();
+    out.close();
+  }
+  
+  private OutputStream start() throws IOException {
+    if (target == null) {
+      if (listener != null) {
+        listener.accept(compression);
+      }
+      OutputStream shielded = new ShieldedOutputStream(out);
+      target = compression == Compression.Gzip? new GZIPOutputStream(shielded, BUFFER_SIZE): new DeflaterOutputStream(shielded);
+      target.write(buffer, 0, count);
+    }
+    return target;
+  }
+  
+  /**
+   * Stream which doesn't close the underlying stream.
+   */
+  private static class ShieldedOutputStream extends FilterOutputStream {
+
+    public ShieldedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.flush();
+    }
+  }
+}
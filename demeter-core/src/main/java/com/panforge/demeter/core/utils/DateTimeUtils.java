@@ -16,27 +16,37 @@
 package com.panforge.demeter.core.utils;
 
 import com.panforge.demeter.core.api.exception.BadArgumentException;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
+import java.text.ParsePosition;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 
 /**
  * Date and time utilities.
+ * <p>
+ * Timestamps in either of OAI-PMH granularities (<code>YYYY-MM-DD</code> or
+ * <code>YYYY-MM-DDThh:mm:ssZ</code>) are parsed by hand; any other ISO-style
+ * date or date+time with optional offset is parsed without resolving, thus 
+ * no exception is thrown unless the timestamp is invalid.
  */
 public class DateTimeUtils {
 
-  private static final DateTimeFormatter ISO_DATE_ZONE = new DateTimeFormatterBuilder()
-          .append(DateTimeFormatter.ISO_OFFSET_DATE)
-          .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
-          .parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0)
+  private static final DateTimeFormatter ISO_DATE_TIME_OPTIONAL = new DateTimeFormatterBuilder()
+          .parseCaseInsensitive()
+          .append(DateTimeFormatter.ISO_LOCAL_DATE)
+          .optionalStart()
+          .appendLiteral('T')
+          .append(DateTimeFormatter.ISO_LOCAL_TIME)
+          .optionalEnd()
+          .optionalStart()
+          .appendOffsetId()
+          .optionalEnd()
           .toFormatter();
 
   /**
@@ -47,11 +57,11 @@ public class DateTimeUtils {
    * @throws BadArgumentException if parsing fails
    */
   public static OffsetDateTime parseRequestTimestamp(String timestamp) throws BadArgumentException {
-    try {
-      return parseTimestamp(timestamp);
-    } catch (DateTimeParseException ex) {
-      throw new BadArgumentException(String.format("Invalid timestamp: '%s'", StringUtils.trimToEmpty(timestamp)), ex);
+    OffsetDateTime dateTime = tryParseTimestamp(timestamp);
+    if (dateTime==null) {
+      throw new BadArgumentException(String.format("Invalid timestamp: '%s'", StringUtils.trimToEmpty(timestamp)));
     }
+    return dateTime;
   }
 
   /**
@@ -63,29 +73,119 @@ public class DateTimeUtils {
    */
   public static OffsetDateTime parseTimestamp(String timestamp) throws DateTimeParseException {
     Validate.notEmpty(timestamp, "Missing time stamp");
-    DateTimeFormatter fmt = new DateTimeFormatterBuilder()
-            .append(DateTimeFormatter.ISO_OFFSET_DATE)
-            .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
-            .parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0)
-            .toFormatter();
-    try {
-      return OffsetDateTime.parse(timestamp);
-    } catch (DateTimeParseException e1) {
-      try {
-        return OffsetDateTime.parse(timestamp, ISO_DATE_ZONE);
-      } catch (DateTimeParseException e2) {
-        try {
-          return OffsetDateTime.parse(timestamp, fmt);
-        } catch (DateTimeParseException e3) {
-          try {
-            LocalDateTime localDateTime = LocalDateTime.parse(timestamp);
-            return OffsetDateTime.of(localDateTime, ZoneOffset.UTC);
-          } catch (DateTimeParseException e4) {
-            LocalDate localDate = LocalDate.parse(timestamp);
-            return OffsetDateTime.of(LocalDateTime.of(localDate, LocalTime.MIDNIGHT), ZoneOffset.UTC);
-          }
+    OffsetDateTime dateTime = tryParseTimestamp(timestamp);
+    if (dateTime==null) {
+      throw new DateTimeParseException(String.format("Invalid timestamp: '%s'", timestamp), timestamp, 0);
+    }
+    return dateTime;
+  }
+
+  /**
+   * Parses ISO-style time/timestamp into date+time.
+   * <p>
+   * Date without offset is assumed to be UTC; time missing in the timestamp
+   * is assumed to be midnight.
+   *
+   * @param timestamp timestamp
+   * @return date+time or <code>null</code> if not a valid timestamp
+   */
+  public static OffsetDateTime tryParseTimestamp(String timestamp) {
+    if (timestamp==null) {
+      return null;
+    }
+    switch (timestamp.length()) {
+      case 10:
+        if (timestamp.charAt(4)=='-' && timestamp.charAt(7)=='-') {
+          return toDateTime(digits(timestamp, 0, 4), digits(timestamp, 5, 2), digits(timestamp, 8, 2), 0, 0, 0);
         }
+        break;
+      case 20:
+        if (timestamp.charAt(4)=='-' && timestamp.charAt(7)=='-' && timestamp.charAt(10)=='T' 
+                && timestamp.charAt(13)==':' && timestamp.charAt(16)==':' && timestamp.charAt(19)=='Z') {
+          return toDateTime(digits(timestamp, 0, 4), digits(timestamp, 5, 2), digits(timestamp, 8, 2), 
+                  digits(timestamp, 11, 2), digits(timestamp, 14, 2), digits(timestamp, 17, 2));
+        }
+        break;
+    }
+    return parseAny(timestamp);
+  }
+  
+  private static OffsetDateTime parseAny(String timestamp) {
+    ParsePosition position = new ParsePosition(0);
+    TemporalAccessor parsed = ISO_DATE_TIME_OPTIONAL.parseUnresolved(timestamp, position);
+    if (parsed==null || position.getIndex()!=timestamp.length()) {
+      return null;
+    }
+    long year = parsed.getLong(ChronoField.YEAR);
+    if (!ChronoField.YEAR.range().isValidValue(year)) {
+      return null;
+    }
+    OffsetDateTime dateTime = toDateTime((int)year, 
+            (int)parsed.getLong(ChronoField.MONTH_OF_YEAR), 
+            (int)parsed.getLong(ChronoField.DAY_OF_MONTH), 
+            (int)field(parsed, ChronoField.HOUR_OF_DAY), 
+            (int)field(parsed, ChronoField.MINUTE_OF_HOUR), 
+            (int)field(parsed, ChronoField.SECOND_OF_MINUTE));
+    if (dateTime==null) {
+      return null;
+    }
+    long nanos = field(parsed, ChronoField.NANO_OF_SECOND);
+    if (nanos > 0) {
+      dateTime = dateTime.withNano((int)nanos);
+    }
+    long offset = field(parsed, ChronoField.OFFSET_SECONDS);
+    if (offset != 0) {
+      if (Math.abs(offset) > 18 * 3600) {
+        return null;
+      }
+      dateTime = dateTime.withOffsetSameLocal(ZoneOffset.ofTotalSeconds((int)offset));
+    }
+    return dateTime;
+  }
+  
+  private static long field(TemporalAccessor parsed, ChronoField field) {
+    return parsed.isSupported(field)? parsed.getLong(field): 0;
+  }
+  
+  /**
+   * Creates UTC date+time if all fields are within range.
+   * @return date+time or <code>null</code> if any field is invalid
+   */
+  private static OffsetDateTime toDateTime(int year, int month, int day, int hour, int minute, int second) {
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) 
+            || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return null;
+    }
+    return OffsetDateTime.of(year, month, day, hour, minute, second, 0, ZoneOffset.UTC);
+  }
+  
+  private static int lengthOfMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0? 29: 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+  
+  /**
+   * Reads decimal number.
+   * @return number or -1 if not all characters are digits
+   */
+  private static int digits(String text, int start, int length) {
+    int value = 0;
+    for (int i = start; i < start + length; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
       }
+      value = value * 10 + (c - '0');
     }
+    return value;
   }
 }
@@ -15,23 +15,103 @@
  */
 package com.panforge.demeter.core.utils;
 
+import com.panforge.demeter.core.content.Filter;
 import com.panforge.demeter.core.content.PageCursor;
+import java.net.URI;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 
 /**
  * Default page cursor.
+ * <p>
+ * Besides position it may carry a key of the last element of the page 
+ * (datestamp and identifier), so the provider can seek directly to the next 
+ * page, and the filter of the list, which is not repeated by resumed requests.
  */
 public class DefaultPageCursor implements PageCursor {
   
   public String data;
   public Long cursor;
+  /** datestamp of the last element of the page (epoch milliseconds) */
+  public Long datestamp;
+  /** identifier of the last element of the page */
+  public String identifier;
+  /** filter 'from' (epoch milliseconds) */
+  public Long from;
+  /** filter 'until' (epoch milliseconds) */
+  public Long until;
+  /** filter metadata prefix */
+  public String metadataPrefix;
+  /** filter set */
+  public String set;
+
+  /**
+   * Creates keyset page cursor.
+   * @param filter filter of the list
+   * @param datestamp datestamp of the last element of the page
+   * @param identifier identifier of the last element of the page
+   * @param cursor position of the next page
+   * @return page cursor
+   */
+  public static DefaultPageCursor keyset(Filter filter, OffsetDateTime datestamp, URI identifier, long cursor) {
+    DefaultPageCursor pageCursor = new DefaultPageCursor().filter(filter);
+    pageCursor.datestamp = datestamp.toInstant().toEpochMilli();
+    pageCursor.identifier = identifier.toString();
+    pageCursor.cursor = cursor;
+    return pageCursor;
+  }
 
   @Override
   public long cursor() {
     return cursor!=null? cursor: 0;
   }
   
+  /**
+   * Checks if this is a keyset cursor.
+   * @return <code>true</code> if cursor carries key of the last element
+   */
+  public boolean keyset() {
+    return datestamp!=null && identifier!=null;
+  }
+  
+  /**
+   * Stores filter.
+   * @param filter filter or <code>null</code>
+   * @return this instance
+   */
+  public DefaultPageCursor filter(Filter filter) {
+    if (filter!=null) {
+      from = filter.from!=null? filter.from.toInstant().toEpochMilli(): null;
+      until = filter.until!=null? filter.until.toInstant().toEpochMilli(): null;
+      metadataPrefix = filter.metadataPrefix;
+      set = filter.set;
+    }
+    return this;
+  }
+  
+  /**
+   * Restores filter.
+   * @return filter
+   */
+  public Filter toFilter() {
+    return new Filter(toTimestamp(from), toTimestamp(until), metadataPrefix, set);
+  }
+  
+  /**
+   * Restores datestamp of the last element of the page.
+   * @return datestamp or <code>null</code>
+   */
+  public OffsetDateTime toDatestamp() {
+    return toTimestamp(datestamp);
+  }
+  
   @Override
   public String toString() {
-    return String.format("DefaultPageCursor = data: %s, cursor: %s", data, cursor);
+    return String.format("DefaultPageCursor = data: %s, cursor: %s, datestamp: %s, identifier: %s", data, cursor, datestamp, identifier);
+  }
+  
+  private static OffsetDateTime toTimestamp(Long millis) {
+    return millis!=null? OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC): null;
   }
 }
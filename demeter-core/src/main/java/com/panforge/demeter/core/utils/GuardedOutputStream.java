@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Guarded output stream.
+ * <p>
+ * Lets one thread write while another one may abort writing at any time. 
+ * Once aborted, no more data reaches the underlying stream; writes fail with 
+ * {@link IOException} instead. Abort waits for the write in progress, so after
+ * it returns the underlying stream is no longer used by the writer and may be
+ * closed safely.
+ */
+public class GuardedOutputStream extends FilterOutputStream {
+  private boolean aborted;
+
+  /**
+   * Creates instance of the stream.
+   * @param out underlying output stream
+   */
+  public GuardedOutputStream(OutputStream out) {
+    super(out);
+  }
+  
+  /**
+   * Aborts writing.
+   * @return <code>true</code> if aborted by this call
+   */
+  public synchronized boolean abort() {
+    if (aborted) {
+      return false;
+    }
+    aborted = true;
+    return true;
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    check();
+    out.write(b);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    check();
+    out.write(b, off, len);
+  }
+
+  @Override
+  public synchronized void flush() throws IOException {
+    check();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // underlying stream is closed by its owner
+    flush();
+  }
+  
+  private void check() throws IOException {
+    if (aborted) {
+      throw new IOException("Writing aborted");
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Offline entity resolver.
+ * <p>
+ * Resolves external DTD's and entities in-process: known ones are read from 
+ * the local catalog (see {@link SchemaCatalog#locate(java.lang.String)}), any 
+ * other resolution is blocked by substituting an empty entity, thus parsers 
+ * never reach out to the network. Resolver is thread safe and counts both 
+ * resolved and blocked resolutions.
+ */
+public class OfflineEntityResolver implements EntityResolver, XMLResolver {
+  private static final Logger LOG = LoggerFactory.getLogger(OfflineEntityResolver.class);
+  private static final byte [] EMPTY = new byte[0];
+  
+  private final SchemaCatalog catalog;
+  private final LongAdder resolved = new LongAdder();
+  private final LongAdder blocked = new LongAdder();
+
+  /**
+   * Creates instance of the resolver.
+   * @param catalog local catalog
+   */
+  public OfflineEntityResolver(SchemaCatalog catalog) {
+    Validate.notNull(catalog, "Missing catalog");
+    this.catalog = catalog;
+  }
+
+  @Override
+  public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+    InputSource source = new InputSource(open(publicId, systemId, null));
+    source.setPublicId(publicId);
+    source.setSystemId(systemId);
+    return source;
+  }
+
+  @Override
+  public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) throws XMLStreamException {
+    try {
+      return open(publicID, systemID, baseURI);
+    } catch (IOException ex) {
+      throw new XMLStreamException(String.format("Error resolving entity: %s", systemID), ex);
+    }
+  }
+  
+  /**
+   * Gets number of resolutions served from the local catalog.
+   * @return number of resolutions
+   */
+  public long getResolvedCount() {
+    return resolved.sum();
+  }
+  
+  /**
+   * Gets number of blocked resolutions.
+   * @return number of blocked resolutions
+   */
+  public long getBlockedCount() {
+    return blocked.sum();
+  }
+  
+  private InputStream open(String publicId, String systemId, String baseURI) throws IOException {
+    String id = systemId;
+    if (id != null && baseURI != null) {
+      try {
+        id = URI.create(baseURI).resolve(id).toString();
+      } catch (IllegalArgumentException ex) {
+        // keep unresolved
+      }
+    }
+    URL local = catalog.locate(id);
+    if (local != null) {
+      resolved.increment();
+      return local.openStream();
+    }
+    blocked.increment();
+    LOG.debug(String.format("Blocked resolution of entity: %s (%s)", systemId, publicId));
+    return new ByteArrayInputStream(EMPTY);
+  }
+}
@@ -21,95 +21,147 @@ import com.panforge.demeter.core.api.exception.BadArgumentException;
 import com.panforge.demeter.core.api.exception.ProtocolException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.Validate;
 
 /**
  * Parameters processor.
+ * <p>
+ * Processor is an immutable schema of arguments accepted by a single verb. It
+ * is built once and reused for every request; parameters are validated and 
+ * applied to the target in a single pass. Argument names are case insensitive.
+ * The <code>verb</code> argument is always accepted and ignored.
+ * @param <T> type of the target
  */
-public class ParamProcessor {
-  private Map<String, Setter> ACTORS = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+public final class ParamProcessor<T> {
+  private static final String VERB = "verb";
+  private static final int MAX_ARGUMENTS = Integer.SIZE;
+  
+  private final String [] names;
+  private final List<Setter<T>> setters;
   
   /**
    * Creates instance of the builder.
+   * @param <T> type of the target
    * @param name name of the parameter
    * @param setter setter of the parameter
    * @return the builder
    */
-  public static ParamProcessor.Builder with(String name, Setter setter) {
-    Validate.notEmpty(name, "Missing name");
-    Validate.notNull(setter, "Missing setter");
-    return new Builder(name, setter);
+  public static <T> ParamProcessor.Builder<T> with(String name, Setter<T> setter) {
+    return new Builder<T>().with(name, setter);
   }
   
   /**
-   * Builds the parameter processor.
+   * Builds the parameter processor accepting no arguments.
+   * @param <T> type of the target
    * @return the parameter processor
    */
-  public static ParamProcessor build() {
-    return new ParamProcessor();
+  public static <T> ParamProcessor<T> build() {
+    return new Builder<T>().build();
+  }
+  
+  /**
+   * Checks if parameter is present (case insensitive).
+   * @param params parameters
+   * @param name parameter name
+   * @return <code>true</code> if parameter is present
+   */
+  public static boolean contains(Map<String, String[]> params, String name) {
+    for (String key: params.keySet()) {
+      if (name.equalsIgnoreCase(key)) {
+        return true;
+      }
+    }
+    return false;
   }
   
   /**
    * Hidden constructor.
    */
-  private ParamProcessor() {
-    
+  private ParamProcessor(List<String> names, List<Setter<T>> setters) {
+    this.names = names.toArray(new String[names.size()]);
+    this.setters = Collections.unmodifiableList(new ArrayList<>(setters));
   }
   
   /**
    * Executes processor.
+   * @param target target of the parameters
    * @param params input parameters
    * @throws BadArgumentException if error processing request
    */
-  public void execute(Map<String, String[]> params) throws BadArgumentException {
+  public void execute(T target, Map<String, String[]> params) throws BadArgumentException {
     Validate.notNull(params, "Missing parameters");
-    List<ErrorInfo> errorInfos = new ArrayList<>();
+    List<ErrorInfo> errorInfos = null;
+    int applied = 0;
     
     for (Map.Entry<String, String[]> param: params.entrySet()) {
-      Setter op = ACTORS.remove(param.getKey());
-      if (op==null) {
-        errorInfos.add(new ErrorInfo(ErrorCode.badArgument, 
-                String.format("Unrecognized argument: %s", Arrays.stream(param.getValue()).map(v -> String.format("%s=%s", param.getKey(), v)).collect(Collectors.joining(", ")))));
-      } else if (param.getValue()==null || param.getValue().length!=1) {
-        errorInfos.add(new ErrorInfo(ErrorCode.badArgument, 
-                String.format("Only single value allowed for argument: %s", Arrays.stream(param.getValue()).map(v -> String.format("%s=%s", param.getKey(), v)).collect(Collectors.joining(", ")))));
+      String key = param.getKey();
+      String [] values = param.getValue();
+      int idx = indexOf(key);
+      if (idx < 0) {
+        if (!VERB.equalsIgnoreCase(key)) {
+          errorInfos = error(errorInfos, "Unrecognized argument: %s", key, values);
+        }
+      } else if ((applied & (1 << idx)) != 0 || values==null || values.length!=1) {
+        errorInfos = error(errorInfos, "Only single value allowed for argument: %s", key, values);
+        applied |= 1 << idx;
       } else {
-        String value = param.getValue()[0];
+        applied |= 1 << idx;
         try {
-          op.set(value);
+          setters.get(idx).set(target, values[0]);
         } catch (ProtocolException ex) {
-          errorInfos.addAll(Arrays.asList(ex.infos));
+          errorInfos = error(errorInfos, ex.infos);
         }
       }
     }
     
-    for (Map.Entry<String, Setter> actor: ACTORS.entrySet()) {
-      String[] values = params.get(actor.getKey());
-      if (values!=null && values.length!=1) {
-          errorInfos.add(new ErrorInfo(ErrorCode.badArgument, 
-                String.format("Only single value allowed for argument: %s", Arrays.stream(values).map(v -> String.format("%s=%s", actor.getKey(), v)).collect(Collectors.joining(", ")))));
-      }
-      try {
-        actor.getValue().set(values!=null? values[0]: null);
-      } catch (ProtocolException ex) {
-        errorInfos.addAll(Arrays.asList(ex.infos));
+    for (int idx=0; idx<setters.size(); idx++) {
+      if ((applied & (1 << idx)) == 0) {
+        try {
+          setters.get(idx).set(target, null);
+        } catch (ProtocolException ex) {
+          errorInfos = error(errorInfos, ex.infos);
+        }
       }
     }
     
-    if (!errorInfos.isEmpty()) {
+    if (errorInfos!=null) {
       throw new BadArgumentException(errorInfos.toArray(new ErrorInfo[errorInfos.size()]));
     }
   }
+  
+  private int indexOf(String key) {
+    for (int idx=0; idx<names.length; idx++) {
+      if (names[idx].equalsIgnoreCase(key)) {
+        return idx;
+      }
+    }
+    return -1;
+  }
+  
+  private static List<ErrorInfo> error(List<ErrorInfo> errorInfos, String format, String key, String [] values) {
+    String args = values!=null? Arrays.stream(values).map(v -> String.format("%s=%s", key, v)).collect(Collectors.joining(", ")): key;
+    return error(errorInfos, new ErrorInfo(ErrorCode.badArgument, String.format(format, args)));
+  }
+  
+  private static List<ErrorInfo> error(List<ErrorInfo> errorInfos, ErrorInfo...infos) {
+    if (errorInfos==null) {
+      errorInfos = new ArrayList<>();
+    }
+    errorInfos.addAll(Arrays.asList(infos));
+    return errorInfos;
+  }
 
   /**
    * Processor builder.
+   * @param <T> type of the target
    */
-  public static class Builder {
-    private ParamProcessor processor = new ParamProcessor();
+  public static class Builder<T> {
+    private final List<String> names = new ArrayList<>();
+    private final List<Setter<T>> setters = new ArrayList<>();
     
     /** 
      * Non-argument constructor 
@@ -117,23 +169,19 @@ public class ParamProcessor {
     Builder() {
     }
     
-    /**
-     * Constructor with initial parameter setter.
-     * @param name parameter name
-     * @param setter value setter
-     */
-    Builder(String name, Setter setter) {
-      processor.ACTORS.put(name, setter);
-    }
-    
     /**
      * Adds another parameter setter.
      * @param name parameter name
      * @param setter value setter
      * @return the builder
      */
-    public Builder with(String name, Setter setter) {
-      processor.ACTORS.put(name, setter);
+    public Builder<T> with(String name, Setter<T> setter) {
+      Validate.notEmpty(name, "Missing name");
+      Validate.notNull(setter, "Missing setter");
+      Validate.isTrue(names.stream().noneMatch(name::equalsIgnoreCase), "Duplicated name: %s", name);
+      Validate.isTrue(names.size() < MAX_ARGUMENTS, "Too many arguments");
+      names.add(name);
+      setters.add(setter);
       return this;
     }
     
@@ -141,20 +189,23 @@ public class ParamProcessor {
      * Builds parameter processor.
      * @return parameter processor
      */
-    public ParamProcessor build() {
-      return processor;
+    public ParamProcessor<T> build() {
+      return new ParamProcessor<>(names, setters);
     }
   }
   
   /**
    * Value setter.
+   * @param <T> type of the target
    */
-  public static interface Setter {
+  @FunctionalInterface
+  public static interface Setter<T> {
     /**
      * Sets value from parameters.
-     * @param value value
+     * @param target target of the parameter
+     * @param value value or <code>null</code> if parameter not present
      * @throws BadArgumentException if error setting parameter
      */
-    void set(String value) throws BadArgumentException;
+    void set(T target, String value) throws BadArgumentException;
   }
 }
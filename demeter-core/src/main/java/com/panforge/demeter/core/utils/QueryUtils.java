@@ -15,8 +15,10 @@
  */
 package com.panforge.demeter.core.utils;
 
-import java.util.ArrayList;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -31,24 +33,34 @@ public class QueryUtils {
   
   /**
    * Converts query string into map of parameters.<p>
-   * Resulting map associates possible multiple values into a single key.
+   * Resulting map associates possible multiple values into a single key. Keys
+   * and values are percent-decoded (UTF-8); malformed escapes are kept as is.
    * @param query query string
    * @return map of parameters
    */
   public static Map<String,String[]> queryToParams(String query) {
     Validate.notNull(query, "Missing query");
-    return Arrays.stream(query.split("&"))
-            .map(param -> parseParam(param))
-            .filter(kvp -> kvp!=null && kvp.length==2)
-            .collect(()->new TreeMap<>(String.CASE_INSENSITIVE_ORDER), (m, kvp) -> {
-              ArrayList<String> combined = new ArrayList<>();
-              String[] values = m.get(kvp[0]);
-              if (values!=null) {
-                combined.addAll(Arrays.asList(values));
-              }
-              combined.add(kvp[1]);
-              m.put(kvp[0], combined.toArray(new String[combined.size()]));
-            }, Map::putAll);
+    Map<String,String[]> params = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    int start = 0;
+    while (start <= query.length()) {
+      int end = query.indexOf('&', start);
+      if (end < 0) {
+        end = query.length();
+      }
+      String[] kvp = parseParam(query.substring(start, end));
+      if (kvp!=null) {
+        String[] values = params.get(kvp[0]);
+        if (values==null) {
+          values = new String[] { kvp[1] };
+        } else {
+          values = Arrays.copyOf(values, values.length + 1);
+          values[values.length - 1] = kvp[1];
+        }
+        params.put(kvp[0], values);
+      }
+      start = end + 1;
+    }
+    return params;
   }
   
   /**
@@ -100,15 +112,58 @@ public class QueryUtils {
     }
     int eqIdx = param.indexOf("=");
     if (eqIdx < 0) {
-      return new String[] {param, ""};
+      return new String[] {decode(param), ""};
     } else if (eqIdx > 0) {
       String key = param.substring(0, eqIdx);
       if (key.trim().isEmpty()) {
         return null;
       }
       String value = param.substring(eqIdx+1);
-      return new String[] {key, value};
+      return new String[] {decode(key), decode(value)};
     }
     return null;
   }
+  
+  private static String decode(String text) {
+    if (text.indexOf('%') < 0 && text.indexOf('+') < 0) {
+      return text;
+    }
+    try {
+      return URLDecoder.decode(text, StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException ex) {
+      return text;
+    }
+  }
+  
+  /**
+   * Parses quality values of an HTTP header like Accept or Accept-Encoding.
+   * <p>
+   * Names are lower cased; missing quality is 1, malformed quality is 0. If a
+   * name repeats, the highest quality wins.
+   * @param header header value (optional)
+   * @return map of names to qualities
+   */
+  public static Map<String, Double> parseQualities(String header) {
+    Map<String, Double> qualities = new HashMap<>();
+    if (header == null) {
+      return qualities;
+    }
+    for (String item: header.toLowerCase().split(",")) {
+      String [] parts = item.split(";");
+      String name = parts[0].trim();
+      double quality = 1.0;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(param.substring(2).trim());
+          } catch (NumberFormatException ex) {
+            quality = 0.0;
+          }
+        }
+      }
+      qualities.merge(name, quality, Math::max);
+    }
+    return qualities;
+  }
 }
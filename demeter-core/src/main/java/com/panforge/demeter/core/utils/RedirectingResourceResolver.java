@@ -58,7 +58,7 @@ public class RedirectingResourceResolver implements LSResourceResolver {
     return null;
   }
 
-  private final static class Input implements LSInput {
+  final static class Input implements LSInput {
     private Reader characterStream;
     private InputStream byteStream;
     private String stringData;
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import com.panforge.demeter.core.utils.namespace.Namespace;
+import com.panforge.demeter.core.utils.namespace.Namespaces;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+
+/**
+ * Schema catalog.
+ * <p>
+ * Maps schema URL's onto local copies: first onto the optional local folder,
+ * then onto the schemas bundled on the class path, using the same layout for
+ * both: <code>&lt;host&gt;/&lt;path&gt;</code>, for example
+ * <code>www.openarchives.org/OAI/2.0/oai_dc.xsd</code>. Namespaces are mapped
+ * onto schema URL's by <code>well-known-namespaces.json</code>.
+ * <p>
+ * Compiled schemas are cached per set of namespaces and located schemas per
+ * catalog path; schemas not found in the catalog are not cached, thus the
+ * caches are bounded by the content of the catalog. Catalog is thread safe;
+ * in offline mode schemas are never fetched from the network.
+ */
+public class SchemaCatalog implements LSResourceResolver {
+  private static final Logger LOG = LoggerFactory.getLogger(SchemaCatalog.class);
+  
+  /** class path folder of the bundled schemas */
+  public static final String BUNDLED_SCHEMAS = "schemas/";
+  
+  private static final SchemaCatalog OFFLINE = new SchemaCatalog(null, false);
+  
+  private final File folder;
+  private final boolean online;
+  private final RedirectingResourceResolver redirectingResolver = new RedirectingResourceResolver();
+  private final Map<String, URL> locations = new ConcurrentHashMap<>();
+  private final Map<SortedSet<String>, Schema> schemas = new ConcurrentHashMap<>();
+
+  /**
+   * Creates instance of the catalog.
+   * @param folder local folder with schemas or <code>null</code> if bundled schemas only
+   * @param online <code>true</code> to fetch schemas not found in the catalog from the network
+   */
+  public SchemaCatalog(File folder, boolean online) {
+    this.folder = folder;
+    this.online = online;
+  }
+  
+  /**
+   * Gets offline catalog of the bundled schemas.
+   * @return catalog
+   */
+  public static SchemaCatalog offline() {
+    return OFFLINE;
+  }
+  
+  /**
+   * Locates local copy of the schema.
+   * @param systemId schema URL
+   * @return URL of the local copy or <code>null</code> if not in the catalog
+   */
+  public URL locate(String systemId) {
+    String path = pathOf(systemId);
+    if (path == null) {
+      return null;
+    }
+    URL url = locations.get(path);
+    if (url == null) {
+      url = find(path);
+      if (url != null) {
+        locations.putIfAbsent(path, url);
+      }
+    }
+    return url;
+  }
+  
+  /**
+   * Checks if schema for the namespace is available.
+   * @param namespace namespace URI
+   * @return <code>true</code> if schema is available
+   */
+  public boolean isAvailable(String namespace) {
+    String schema = schemaOf(namespace);
+    return schema != null && (online || locate(schema) != null);
+  }
+  
+  /**
+   * Gets compiled schema for the namespaces.
+   * <p>
+   * Namespaces without available schema are ignored.
+   * @param namespaces namespace URI's
+   * @return schema or <code>null</code> if no schema available for any of the namespaces
+   * @throws SAXException if error compiling schema
+   * @throws IOException if error reading schema
+   */
+  public Schema getSchema(Collection<String> namespaces) throws SAXException, IOException {
+    SortedSet<String> key = new TreeSet<>();
+    for (String namespace: namespaces) {
+      if (isAvailable(namespace)) {
+        key.add(namespace);
+      }
+    }
+    if (key.isEmpty()) {
+      return null;
+    }
+    Schema schema = schemas.get(key);
+    if (schema == null) {
+      schema = compile(key);
+      Schema existing = schemas.putIfAbsent(Collections.unmodifiableSortedSet(key), schema);
+      if (existing != null) {
+        schema = existing;
+      }
+    }
+    return schema;
+  }
+
+  @Override
+  public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+    String schemaId = systemId != null? systemId: schemaOf(namespaceURI);
+    if (schemaId == null) {
+      return null;
+    }
+    if (baseURI != null) {
+      try {
+        schemaId = URI.create(baseURI).resolve(schemaId).toString();
+      } catch (IllegalArgumentException ex) {
+        // keep unresolved
+      }
+    }
+    URL local = locate(schemaId);
+    if (local != null) {
+      try {
+        RedirectingResourceResolver.Input input = new RedirectingResourceResolver.Input();
+        input.setByteStream(local.openStream());
+        input.setSystemId(schemaId);
+        input.setPublicId(publicId);
+        return input;
+      } catch (IOException ex) {
+        LOG.debug(String.format("Error reading schema: %s", local), ex);
+      }
+    }
+    if (online) {
+      return redirectingResolver.resolveResource(type, namespaceURI, publicId, systemId, baseURI);
+    }
+    LOG.debug(String.format("Schema not in the catalog: %s", schemaId));
+    return null;
+  }
+  
+  private Schema compile(SortedSet<String> namespaces) throws SAXException, IOException {
+    SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+    factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+    factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, online? "all": "");
+    factory.setResourceResolver(this);
+    
+    List<InputStream> streams = new ArrayList<>();
+    try {
+      List<Source> sources = new ArrayList<>();
+      for (String namespace: namespaces) {
+        String schema = schemaOf(namespace);
+        URL local = locate(schema);
+        if (local != null) {
+          InputStream stream = local.openStream();
+          streams.add(stream);
+          sources.add(new StreamSource(stream, schema));
+        } else {
+          sources.add(new StreamSource(schema));
+        }
+      }
+      LOG.debug(String.format("Compiling schema for: %s", namespaces));
+      return factory.newSchema(sources.toArray(new Source[sources.size()]));
+    } finally {
+      for (InputStream stream: streams) {
+        stream.close();
+      }
+    }
+  }
+  
+  private URL find(String path) {
+    if (folder != null) {
+      File file = new File(folder, path);
+      if (file.isFile()) {
+        try {
+          return file.toURI().toURL();
+        } catch (MalformedURLException ex) {
+          LOG.debug(String.format("Invalid schema file: %s", file), ex);
+        }
+      }
+    }
+    return SchemaCatalog.class.getClassLoader().getResource(BUNDLED_SCHEMAS + path);
+  }
+  
+  private static String pathOf(String systemId) {
+    if (systemId == null) {
+      return null;
+    }
+    URI uri;
+    try {
+      uri = URI.create(systemId).normalize();
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+    if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+      return null;
+    }
+    if (uri.getHost() == null || uri.getPath() == null || uri.getPath().contains("..")) {
+      return null;
+    }
+    return uri.getHost().toLowerCase() + uri.getPath();
+  }
+  
+  private static String schemaOf(String namespace) {
+    Namespace ns = namespace != null? Namespaces.NSMAP.get(namespace): null;
+    return ns != null && namespace.equals(ns.namespace) && !StringUtils.isBlank(ns.schema)? ns.schema: null;
+  }
+}
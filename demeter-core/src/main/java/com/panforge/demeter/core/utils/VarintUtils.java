@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Varint utilities.
+ * <p>
+ * Unsigned numbers are written as base 128 varints, signed numbers as zig-zag
+ * varints, bytes and strings (UTF-8) as length prefixed. Reading malformed
+ * input throws either {@link IllegalArgumentException} or 
+ * {@link BufferUnderflowException}.
+ */
+public class VarintUtils {
+  
+  /**
+   * Writes unsigned varint.
+   * @param out output
+   * @param value value
+   */
+  public static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+  
+  /**
+   * Reads unsigned varint.
+   * @param in input
+   * @return value
+   */
+  public static long readVarint(ByteBuffer in) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+  
+  /**
+   * Writes signed number as zig-zag varint.
+   * @param out output
+   * @param value value
+   */
+  public static void writeLong(ByteArrayOutputStream out, long value) {
+    writeVarint(out, (value << 1) ^ (value >> 63));
+  }
+  
+  /**
+   * Reads signed number written as zig-zag varint.
+   * @param in input
+   * @return value
+   */
+  public static long readLong(ByteBuffer in) {
+    long value = readVarint(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+  
+  /**
+   * Writes length prefixed bytes.
+   * @param out output
+   * @param bytes bytes
+   */
+  public static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+    writeVarint(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+  
+  /**
+   * Reads length prefixed bytes.
+   * @param in input
+   * @return bytes
+   */
+  public static byte[] readBytes(ByteBuffer in) {
+    long length = readVarint(in);
+    if (length < 0 || length > in.remaining()) {
+      throw new IllegalArgumentException("Invalid length");
+    }
+    byte[] bytes = new byte[(int) length];
+    in.get(bytes);
+    return bytes;
+  }
+  
+  /**
+   * Writes length prefixed string.
+   * @param out output
+   * @param value string
+   */
+  public static void writeString(ByteArrayOutputStream out, String value) {
+    writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+  }
+  
+  /**
+   * Reads length prefixed string.
+   * @param in input
+   * @return string
+   */
+  public static String readString(ByteBuffer in) {
+    return new String(readBytes(in), StandardCharsets.UTF_8);
+  }
+}
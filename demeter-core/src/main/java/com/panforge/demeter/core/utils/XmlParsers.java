@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.FactoryConfigurationError;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Thread-safe access to XML parsers.
+ * <p>
+ * Neither {@link DocumentBuilder}, {@link XPath} nor {@link XMLInputFactory} 
+ * are thread safe. Each thread gets its own, reusable instance instead, thus the 
+ * number of parsers is bounded by the number of threads.
+ * <p>
+ * All parsers share a hardened profile: secure processing, no XInclude and no
+ * network access; external DTD's and entities go through the 
+ * {@link OfflineEntityResolver}.
+ */
+public final class XmlParsers {
+  private static final OfflineEntityResolver ENTITY_RESOLVER = new OfflineEntityResolver(SchemaCatalog.offline());
+  private static final ThreadLocal<DocumentBuilder> BUILDERS = ThreadLocal.withInitial(XmlParsers::newBuilder);
+  private static final ThreadLocal<XPathFactory> XPATH_FACTORIES = ThreadLocal.withInitial(XPathFactory::newInstance);
+  private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+  private static final ThreadLocal<XMLInputFactory> INPUT_FACTORIES = ThreadLocal.withInitial(XmlParsers::newInputFactory);
+  
+  private XmlParsers() {}
+  
+  /**
+   * Gets namespace aware document builder confined to the current thread.
+   * <p>
+   * Builder must not be shared with other threads.
+   * @return document builder
+   */
+  public static DocumentBuilder builder() {
+    DocumentBuilder builder = BUILDERS.get();
+    builder.reset();
+    // reset restores the default entity resolver
+    builder.setEntityResolver(ENTITY_RESOLVER);
+    return builder;
+  }
+  
+  /**
+   * Gets entity resolver shared by all the parsers.
+   * <p>
+   * Use it to read counters of resolved and blocked external entities.
+   * @return entity resolver
+   */
+  public static OfflineEntityResolver entityResolver() {
+    return ENTITY_RESOLVER;
+  }
+  
+  /**
+   * Gets namespace aware StAX input factory confined to the current thread.
+   * <p>
+   * Factory must not be shared with other threads; readers created by the 
+   * factory might be handed over.
+   * @return input factory
+   */
+  public static XMLInputFactory inputFactory() {
+    return INPUT_FACTORIES.get();
+  }
+  
+  /**
+   * Creates per-thread XPath with the given namespace context.
+   * <p>
+   * Call {@link ThreadLocal#get()} each time XPath is needed; never cache the
+   * returned XPath in a field shared between threads.
+   * @param namespaceContext namespace context (must be thread safe for reading)
+   * @return per-thread XPath
+   */
+  public static ThreadLocal<XPath> xpath(NamespaceContext namespaceContext) {
+    return ThreadLocal.withInitial(() -> {
+      XPath xpath = XPATH_FACTORIES.get().newXPath();
+      xpath.setNamespaceContext(namespaceContext);
+      return xpath;
+    });
+  }
+  
+  private static XMLInputFactory newInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+    factory.setXMLResolver(ENTITY_RESOLVER);
+    // keep CDATA sections as such the same way document builder does
+    if (factory.isPropertySupported(REPORT_CDATA)) {
+      factory.setProperty(REPORT_CDATA, true);
+    }
+    return factory;
+  }
+  
+  private static DocumentBuilder newBuilder() {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setXIncludeAware(false);
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+      return factory.newDocumentBuilder();
+    } catch (ParserConfigurationException ex) {
+      throw new FactoryConfigurationError(ex);
+    }
+  }
+}
@@ -16,49 +16,48 @@
 package com.panforge.demeter.core.utils;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.FactoryConfigurationError;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 /**
  * XML utilities.
  */
 public class XmlUtils {
-  private static final DocumentBuilder builder;
-  static {
-    try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
-      builder = factory.newDocumentBuilder();
-    } catch (ParserConfigurationException ex) {
-      throw new FactoryConfigurationError(ex);
-    }
-  }
+  // transformers are not thread safe, thus each thread gets its own, reusable copy
+  private static final ThreadLocal<Transformer> INDENTED = ThreadLocal.withInitial(() -> newTransformer(true, false));
+  private static final ThreadLocal<Transformer> COMPACT = ThreadLocal.withInitial(() -> newTransformer(false, false));
+  private static final ThreadLocal<Transformer> FRAGMENT = ThreadLocal.withInitial(() -> newTransformer(false, true));
+  
+  /** size of the file (in bytes) above which file is memory-mapped rather than read */
+  public static final long MAPPING_THRESHOLD = 256 * 1024;
   
   /**
    * Creates new document.
    * @return document
    */
   public static Document newDocument() {
-    return builder.newDocument();
+    return XmlParsers.builder().newDocument();
   }
   
   /**
@@ -84,8 +83,37 @@ public class XmlUtils {
    * @throws SAXException if error parsing document
    */
   public static Document parseToXml(File file) throws IOException, SAXException {
-    try (InputStream xmlStream = new FileInputStream(file)) {
-      return parseToXml(xmlStream);
+    return parseToXml(file.toPath());
+  }
+  
+  /**
+   * Parses file containing xml into a document.
+   * <p>
+   * File is read through a {@link FileChannel}: small files with a single bulk 
+   * read, files of {@link #MAPPING_THRESHOLD} bytes or more are memory-mapped. 
+   * UTF-8 BOM is skipped on the buffer; UTF-16/32 BOMs are left for the parser
+   * to detect encoding.
+   * @param path XML file path
+   * @return document
+   * @throws IOException if error reading document
+   * @throws SAXException if error parsing document
+   */
+  public static Document parseToXml(Path path) throws IOException, SAXException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size >= MAPPING_THRESHOLD) {
+        ByteBuffer buffer = skipBOM(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        return XmlParsers.builder().parse(new ByteBufferInputStream(buffer));
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int)size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          break;
+        }
+      }
+      buffer.flip();
+      skipBOM(buffer);
+      return XmlParsers.builder().parse(new ByteArrayInputStream(buffer.array(), buffer.position(), buffer.remaining()));
     }
   }
 
@@ -98,7 +126,7 @@ public class XmlUtils {
    */
   public static Document parseToXml(InputStream xmlStream) throws IOException, SAXException {
     try (InputStream data = new UnicodeBOMInputStream(xmlStream)) {
-      return builder.parse(data);
+      return XmlParsers.builder().parse(data);
     }
   }
   
@@ -108,20 +136,22 @@ public class XmlUtils {
    * @return string representation of the document
    */
   public static String formatToString(Document document) {
+    return formatToString(document, true);
+  }
+  
+  /**
+   * Formats document to string.
+   * @param document document
+   * @param indent <code>true</code> to indent output
+   * @return string representation of the document
+   */
+  public static String formatToString(Document document, boolean indent) {
     try {
       XmlTraverser traverser = new XmlTraverser();
       
       traverser.traverse(document);
       
-      TransformerFactory factory = TransformerFactory.newInstance();
-      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
-            
-      Transformer transformer = factory.newTransformer();
-      transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-      transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+      Transformer transformer = indent? INDENTED.get(): COMPACT.get();
       Writer out = new StringWriter();
       transformer.transform(new DOMSource(document), new StreamResult(out));
       
@@ -134,4 +164,52 @@ public class XmlUtils {
       throw new TransformerFactoryConfigurationError(ex);
     }
   }
+
+  /**
+   * Formats node as a fragment.
+   * <p>
+   * Produces UTF-8 encoded XML without XML declaration and indentation.
+   * @param node node
+   * @return fragment bytes
+   */
+  public static byte[] formatToBytes(Node node) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      FRAGMENT.get().transform(new DOMSource(node), new StreamResult(out));
+      
+      return out.toByteArray();
+    } catch (TransformerException ex) {
+      throw new TransformerFactoryConfigurationError(ex);
+    }
+  }
+  
+  private static ByteBuffer skipBOM(ByteBuffer buffer) {
+    int pos = buffer.position();
+    if (buffer.remaining() >= 3 && buffer.get(pos) == (byte)0xEF && buffer.get(pos+1) == (byte)0xBB && buffer.get(pos+2) == (byte)0xBF) {
+      buffer.position(pos + 3);
+    }
+    return buffer;
+  }
+  
+  private static Transformer newTransformer(boolean indent, boolean omitDeclaration) {
+    try {
+      TransformerFactory factory = TransformerFactory.newInstance();
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+            
+      Transformer transformer = factory.newTransformer();
+      transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+      transformer.setOutputProperty(OutputKeys.INDENT, indent? "yes": "no");
+      if (indent) {
+        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+      }
+      if (omitDeclaration) {
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      }
+      return transformer;
+    } catch (TransformerConfigurationException ex) {
+      throw new TransformerFactoryConfigurationError(ex);
+    }
+  }
 }
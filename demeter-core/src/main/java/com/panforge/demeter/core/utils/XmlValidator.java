@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import com.panforge.demeter.core.utils.namespace.NamespaceUtils;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+import org.apache.commons.lang3.Validate;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * XML validator.
+ * <p>
+ * Validates documents against the schemas of the namespaces they use, as 
+ * provided by the {@link SchemaCatalog}. Compiled schemas are shared; each 
+ * thread gets its own, reusable {@link Validator}.
+ */
+public class XmlValidator {
+  private final SchemaCatalog catalog;
+  private final ThreadLocal<Map<Schema, Validator>> validators = ThreadLocal.withInitial(IdentityHashMap::new);
+
+  /**
+   * Creates instance of the validator.
+   * @param catalog schema catalog
+   */
+  public XmlValidator(SchemaCatalog catalog) {
+    Validate.notNull(catalog, "Missing schema catalog");
+    this.catalog = catalog;
+  }
+
+  /**
+   * Creates instance of the validator using bundled schemas only.
+   */
+  public XmlValidator() {
+    this(SchemaCatalog.offline());
+  }
+  
+  /**
+   * Validates node.
+   * @param node node to validate (document or element)
+   * @return <code>true</code> if validated, <code>false</code> if no schema available
+   * @throws SAXException if node is invalid
+   * @throws IOException if error reading schema
+   */
+  public boolean validate(Node node) throws SAXException, IOException {
+    Validate.notNull(node, "Missing node");
+    Set<String> namespaces = new HashSet<>(NamespaceUtils.collectNamespaces(node).values());
+    Element root = node instanceof Document? ((Document)node).getDocumentElement(): node instanceof Element? (Element)node: null;
+    if (root != null && root.getNamespaceURI() != null) {
+      namespaces.add(root.getNamespaceURI());
+    }
+    
+    Schema schema = catalog.getSchema(namespaces);
+    if (schema == null) {
+      return false;
+    }
+    
+    Validator validator = validators.get().computeIfAbsent(schema, s -> {
+      Validator v = s.newValidator();
+      v.setResourceResolver(catalog);
+      return v;
+    });
+    validator.validate(new DOMSource(node));
+    return true;
+  }
+}
@@ -17,31 +17,45 @@ package com.panforge.demeter.core.utils.builder;
 
 import com.panforge.demeter.core.utils.XmlUtils;
 import com.panforge.demeter.core.utils.namespace.NamespaceUtils;
-import java.util.UUID;
 import java.util.function.BiConsumer;
 import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
-import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.Text;
 
 /**
  * Document node.
+ * <p>
+ * Each node keeps reference to its parent node, thus going back to the parent
+ * doesn't create any new objects. Children skipped due to unfulfilled condition
+ * are represented by a single, no-op node shared by all skipped children of
+ * the same parent.
  */
 public class DocNode {
   
   protected final Node element;
+  private final DocNode parentNode;
+  private PhonyNode phonyNode;
 
   /**
    * Creates document node.
    * @param element element
    */
   public DocNode(Node element) {
+    this(element, null);
+  }
+
+  /**
+   * Creates document node.
+   * @param element element
+   * @param parentNode parent node
+   */
+  DocNode(Node element, DocNode parentNode) {
     this.element = element;
+    this.parentNode = parentNode;
   }
 
   /**
@@ -49,7 +63,7 @@ public class DocNode {
    * @return parent node
    */
   public DocNode done() {
-    return new DocNode(parent());
+    return parentNode != null? parentNode: new DocNode(parent());
   }
 
   /**
@@ -58,7 +72,12 @@ public class DocNode {
    * @return child node
    */
   public DocNode child(String name) {
-    return child(name, DocBuilder.TRUE);
+    if (StringUtils.isBlank(name)) {
+      return skip();
+    }
+    Node child = doc().createElementNS("http://www.openarchives.org/OAI/2.0/", name);
+    element.appendChild(child);
+    return new DocNode(child, this);
   }
 
   /**
@@ -68,12 +87,7 @@ public class DocNode {
    * @return child node
    */
   public DocNode child(String name, BooleanSupplier cond) {
-    if (StringUtils.isBlank(name) || !cond.getAsBoolean()) {
-      return new PhonyNode(doc(), element, doc().createElement("N" + UUID.randomUUID().toString().replaceAll("[^\\p{Alnum}]", "")));
-    }
-    Node child = doc().createElementNS("http://www.openarchives.org/OAI/2.0/", name);
-    element.appendChild(child);
-    return new DocNode(child);
+    return cond.getAsBoolean()? child(name): skip();
   }
 
   /**
@@ -84,7 +98,11 @@ public class DocNode {
    * @return child node
    */
   public <T> DocNode child(T arg, BiConsumer<DocNode, T> contentSupplier) {
-    return child(arg, contentSupplier, DocBuilder.TRUE);
+    if (arg == null || contentSupplier == null) {
+      return skip();
+    }
+    contentSupplier.accept(this, arg);
+    return this;
   }
 
   /**
@@ -96,11 +114,7 @@ public class DocNode {
    * @return child node
    */
   public <T> DocNode child(T arg, BiConsumer<DocNode, T> contentSupplier, BooleanSupplier cond) {
-    if (arg == null || contentSupplier == null || !cond.getAsBoolean()) {
-      return new PhonyNode(doc(), element, doc().createElement("N" + UUID.randomUUID().toString().replaceAll("[^\\p{Alnum}]", "")));
-    }
-    contentSupplier.accept(this, arg);
-    return this;
+    return cond.getAsBoolean()? child(arg, contentSupplier): skip();
   }
 
   /**
@@ -109,7 +123,10 @@ public class DocNode {
    * @return current node
    */
   public DocNode value(String text) {
-    return value(() -> text);
+    if (text != null) {
+      element.appendChild(doc().createTextNode(text));
+    }
+    return this;
   }
 
   /**
@@ -118,14 +135,7 @@ public class DocNode {
    * @return current node
    */
   public DocNode value(Supplier<String> supplier) {
-    if (supplier != null) {
-      String value = supplier.get();
-      if (value != null) {
-        Text textNode = doc().createTextNode(value);
-        element.appendChild(textNode);
-      }
-    }
-    return this;
+    return supplier != null? value(supplier.get()): this;
   }
 
   /**
@@ -135,7 +145,10 @@ public class DocNode {
    * @return current node
    */
   public DocNode attr(String name, String value) {
-    return attr(name, value, DocBuilder.TRUE);
+    if (!StringUtils.isBlank(name)) {
+      ((Element) element).setAttribute(name, StringUtils.defaultIfBlank(value, ""));
+    }
+    return this;
   }
 
   /**
@@ -146,7 +159,7 @@ public class DocNode {
    * @return current node
    */
   public DocNode attr(String name, String value, BooleanSupplier cond) {
-    return attr(name, () -> value, cond);
+    return cond.getAsBoolean()? attr(name, value): this;
   }
 
   /**
@@ -156,7 +169,7 @@ public class DocNode {
    * @return current node
    */
   public DocNode attr(String name, Supplier<String> supplier) {
-    return attr(name, supplier, DocBuilder.TRUE);
+    return supplier != null? attr(name, supplier.get()): this;
   }
 
   /**
@@ -167,12 +180,7 @@ public class DocNode {
    * @return current node
    */
   public DocNode attr(String name, Supplier<String> supplier, BooleanSupplier cond) {
-    if (!StringUtils.isBlank(name) && cond.getAsBoolean() && supplier != null) {
-      Attr attrNode = doc().createAttribute(name);
-      attrNode.setValue(StringUtils.defaultIfBlank(supplier.get(), ""));
-      ((Element) element).setAttributeNode(attrNode);
-    }
-    return this;
+    return cond.getAsBoolean() && supplier != null? attr(name, supplier.get()): this;
   }
 
   /**
@@ -227,4 +235,15 @@ public class DocNode {
     return element.getParentNode();
   }
   
+  /**
+   * Gets no-op node standing for a skipped child of this node.
+   * @return no-op node
+   */
+  DocNode skip() {
+    if (phonyNode == null) {
+      phonyNode = new PhonyNode(this);
+    }
+    return phonyNode.reset();
+  }
+  
 }
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils.builder;
+
+import com.panforge.demeter.core.utils.namespace.NamespaceUtils;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * Streaming document writer.
+ * <p>
+ * Writes OAI-PMH document directly into the output stream without building
+ * DOM of the entire response. Any I/O error is reported as {@link UncheckedIOException}.
+ */
+public class DocWriter implements Closeable {
+  private static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+  private static final String XSI_NS = XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+  private static final String OAI_SCHEMA_LOCATION = "http://www.openarchives.org/OAI/2.0/ http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd";
+  private static final XMLOutputFactory FACTORY = XMLOutputFactory.newFactory();
+  private static final String INDENT = "  ";
+
+  private final OutputStream out;
+  private final XMLStreamWriter writer;
+  private final boolean indent;
+  private final NamespaceSupport namespaces = new NamespaceSupport();
+
+  private boolean [] nested = new boolean[32];
+  private int depth;
+
+  /**
+   * Creates instance of the writer.
+   * @param out output stream
+   * @param indent <code>true</code> to indent output
+   */
+  public DocWriter(OutputStream out, boolean indent) {
+    try {
+      this.out = out;
+      this.writer = FACTORY.createXMLStreamWriter(out, "UTF-8");
+      this.indent = indent;
+    } catch (XMLStreamException ex) {
+      throw wrap(ex);
+    }
+  }
+
+  /**
+   * Creates instance of the writer.
+   * @param out output stream
+   */
+  public DocWriter(OutputStream out) {
+    this(out, true);
+  }
+
+  /**
+   * Begins writing the document.
+   * @return this writer positioned at the root element
+   */
+  public DocWriter begin() {
+    try {
+      writer.writeStartDocument("UTF-8", "1.0");
+      startElement();
+      writer.writeStartElement("", "OAI-PMH", OAI_NS);
+      writer.writeDefaultNamespace(OAI_NS);
+      writer.writeNamespace("xsi", XSI_NS);
+      writer.writeAttribute("xsi", XSI_NS, "schemaLocation", OAI_SCHEMA_LOCATION);
+      namespaces.declarePrefix("", OAI_NS);
+      namespaces.declarePrefix("xsi", XSI_NS);
+      return this;
+    } catch (XMLStreamException ex) {
+      throw wrap(ex);
+    }
+  }
+
+  /**
+   * Starts named child.
+   * @param name name of the child
+   * @return this writer
+   */
+  public DocWriter child(String name) {
+    try {
+      startElement();
+      writer.writeStartElement(name);
+      return this;
+    } catch (XMLStreamException ex) {
+      throw wrap(ex);
+    }
+  }
+
+  /**
+   * Writes the entire element (start, content and end) if data is available.
+   * @param <T> type of the data
+   * @param name name of the child
+   * @param arg data
+   * @param contentSupplier content supplier
+   * @return this writer
+   */
+  public <T> DocWriter child(String name, T arg, BiConsumer<DocWriter, T> contentSupplier) {
+    if (arg != null) {
+      child(name);
+      contentSupplier.accept(this, arg);
+      done();
+    }
+    return this;
+  }
+
+  /**
+   * Adds attribute.
+   * @param name attribute name
+   * @param value attribute value; <code>null</code> skips the attribute
+   * @return this writer
+   */
+  public DocWriter attr(String name, String value) {
+    if (!StringUtils.isBlank(name) && value != null) {
+      try {
+        writer.writeAttribute(name, value);
+      } catch (XMLStreamException ex) {
+        throw wrap(ex);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Adds textual value.
+   * @param text the value; <code>null</code> skips the value
+   * @return this writer
+   */
+  public DocWriter value(String text) {
+    if (text != null) {
+      try {
+        writer.writeCharacters(text);
+      } catch (XMLStreamException ex) {
+        throw wrap(ex);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Writes simple element with textual value.
+   * @param name name of the element
+   * @param text value of the element
+   * @return this writer
+   */
+  public DocWriter element(String name, String text) {
+    return child(name).value(text).done();
+  }
+
+  /**
+   * Process stream of data.
+   * @param <T> type of data
+   * @param stream stream of data
+   * @param consumer single data information processing function
+   * @return this writer
+   */
+  public <T> DocWriter forEach(Stream<T> stream, BiConsumer<DocWriter, T> consumer) {
+    if (stream != null) {
+      stream.forEach(data -> consumer.accept(this, data));
+    }
+    return this;
+  }
+
+  /**
+   * Adds an entire document.
+   * @param doc document to add
+   * @return this writer
+   */
+  public DocWriter addDocument(Document doc) {
+    if (doc != null && doc.getDocumentElement() != null) {
+      Element docElement = doc.getDocumentElement();
+      NamespaceUtils.sanitize(docElement);
+      try {
+        writeElement(docElement);
+      } catch (XMLStreamException ex) {
+        throw wrap(ex);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Adds pre-serialized fragment.
+   * <p>
+   * Fragment is copied verbatim into the output. Namespaces required by the
+   * fragment are declared on the current element unless already in scope.
+   * @param content UTF-8 encoded XML fragment
+   * @param fragmentNamespaces namespaces required by the fragment (prefix to namespace URI)
+   * @return this writer
+   */
+  public DocWriter addFragment(byte [] content, Map<String, String> fragmentNamespaces) {
+    if (content != null && content.length > 0) {
+      try {
+        if (fragmentNamespaces != null) {
+          for (Map.Entry<String, String> ns : fragmentNamespaces.entrySet()) {
+            declare(StringUtils.defaultString(ns.getKey()), StringUtils.defaultString(ns.getValue()), false);
+          }
+        }
+        nested[depth - 1] = true;
+        if (indent) {
+          writeIndent();
+        } else {
+          writer.writeCharacters("");
+        }
+        writer.flush();
+        out.write(content);
+      } catch (XMLStreamException ex) {
+        throw wrap(ex);
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Indicates writing of the current element is complete.
+   * @return this writer
+   */
+  public DocWriter done() {
+    try {
+      endElement();
+      writer.writeEndElement();
+      return this;
+    } catch (XMLStreamException ex) {
+      throw wrap(ex);
+    }
+  }
+
+  /**
+   * Ends writing the document.
+   * <p>
+   * Closes all open elements and flushes the output. The underlying stream is left open.
+   */
+  @Override
+  public void close() {
+    try {
+      while (depth > 0) {
+        done();
+      }
+      writer.writeEndDocument();
+      writer.flush();
+      writer.close();
+    } catch (XMLStreamException ex) {
+      throw wrap(ex);
+    }
+  }
+
+  private void writeNode(Node node) throws XMLStreamException {
+    switch (node.getNodeType()) {
+      case Node.ELEMENT_NODE:
+        writeElement((Element) node);
+        break;
+      case Node.TEXT_NODE:
+        if (!indent || !StringUtils.isBlank(node.getNodeValue())) {
+          writer.writeCharacters(node.getNodeValue());
+        }
+        break;
+      case Node.CDATA_SECTION_NODE:
+        writer.writeCData(node.getNodeValue());
+        break;
+      case Node.COMMENT_NODE:
+        writer.writeComment(node.getNodeValue());
+        break;
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        writer.writeProcessingInstruction(node.getNodeName(), node.getNodeValue());
+        break;
+      case Node.ENTITY_REFERENCE_NODE:
+        writeChildren(node);
+        break;
+    }
+  }
+
+  private void writeChildren(Node node) throws XMLStreamException {
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      writeNode(child);
+    }
+  }
+
+  private void writeElement(Element element) throws XMLStreamException {
+    String namespace = element.getNamespaceURI();
+    String prefix = StringUtils.defaultString(element.getPrefix());
+    String localName = element.getLocalName() != null ? element.getLocalName() : element.getNodeName();
+
+    startElement();
+    if (namespace != null) {
+      writer.writeStartElement(prefix, localName, namespace);
+    } else {
+      writer.writeStartElement(element.getNodeName());
+    }
+
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Attr attr = (Attr) attributes.item(i);
+      String name = attr.getName();
+      if (name.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+        declare("", attr.getValue(), true);
+      } else if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":") && !StringUtils.isEmpty(attr.getValue())) {
+        declare(name.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1), attr.getValue(), true);
+      }
+    }
+
+    if (namespace != null || !element.getNodeName().contains(":")) {
+      declare(prefix, namespace != null ? namespace : "", false);
+    }
+
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Attr attr = (Attr) attributes.item(i);
+      String name = attr.getName();
+      if (name.equals(XMLConstants.XMLNS_ATTRIBUTE) || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+        continue;
+      }
+      String attrNamespace = attr.getNamespaceURI();
+      if (attrNamespace != null && attr.getPrefix() != null) {
+        declare(attr.getPrefix(), attrNamespace, false);
+        writer.writeAttribute(attr.getPrefix(), attrNamespace, attr.getLocalName(), attr.getValue());
+      } else {
+        writer.writeAttribute(attr.getLocalName() != null ? attr.getLocalName() : name, attr.getValue());
+      }
+    }
+
+    writeChildren(element);
+
+    endElement();
+    writer.writeEndElement();
+  }
+
+  private void declare(String prefix, String namespace, boolean explicit) throws XMLStreamException {
+    if (explicit || !namespace.equals(StringUtils.defaultString(namespaces.getURI(prefix)))) {
+      if (prefix.isEmpty()) {
+        writer.writeDefaultNamespace(namespace);
+      } else {
+        writer.writeNamespace(prefix, namespace);
+      }
+      namespaces.declarePrefix(prefix, namespace);
+    }
+  }
+
+  private void startElement() throws XMLStreamException {
+    if (indent) {
+      writeIndent();
+    }
+    if (depth > 0) {
+      nested[depth - 1] = true;
+    }
+    if (depth == nested.length) {
+      nested = Arrays.copyOf(nested, nested.length * 2);
+    }
+    nested[depth++] = false;
+    namespaces.pushContext();
+  }
+
+  private void endElement() throws XMLStreamException {
+    namespaces.popContext();
+    depth--;
+    if (indent && nested[depth]) {
+      writeIndent();
+    }
+  }
+
+  private void writeIndent() throws XMLStreamException {
+    writer.writeCharacters("\n");
+    for (int i = 0; i < depth; i++) {
+      writer.writeCharacters(INDENT);
+    }
+  }
+
+  private static UncheckedIOException wrap(XMLStreamException ex) {
+    return new UncheckedIOException(new IOException("Error writing document.", ex));
+  }
+}
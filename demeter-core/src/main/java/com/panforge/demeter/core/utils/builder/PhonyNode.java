@@ -15,26 +15,54 @@
  */
 package com.panforge.demeter.core.utils.builder;
 
-import java.util.UUID;
 import java.util.function.BiConsumer;
 import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 /**
  * Phony node.
+ * <p>
+ * Ignores everything until building of the skipped child (including all its
+ * own children) is complete; then returns to the real parent.
  */
 class PhonyNode extends DocNode {
   
-  final Document document;
-  final Node parent;
+  private final DocNode owner;
+  private int depth;
 
-  public PhonyNode(Document document, Node parent, Node element) {
-    super(element);
-    this.document = document;
-    this.parent = parent;
+  public PhonyNode(DocNode owner) {
+    super(owner.element, owner);
+    this.owner = owner;
+  }
+  
+  /**
+   * Starts new skipped child of the owner; anything abandoned before is forgotten.
+   * @return this node
+   */
+  PhonyNode reset() {
+    depth = 1;
+    return this;
+  }
+  
+  /**
+   * Enters skipped grandchild.
+   * @return this node
+   */
+  PhonyNode enter() {
+    depth++;
+    return this;
+  }
+
+  @Override
+  public DocNode done() {
+    return --depth > 0? this: owner;
+  }
+
+  @Override
+  DocNode skip() {
+    return enter();
   }
 
   @Override
@@ -64,22 +92,22 @@ class PhonyNode extends DocNode {
 
   @Override
   public <T> DocNode child(T arg, BiConsumer<DocNode, T> fun, BooleanSupplier cond) {
-    return new PhonyNode(doc(), element, doc().createElement("N" + UUID.randomUUID().toString().replaceAll("[^\\p{Alnum}]", "")));
+    return this;
   }
 
   @Override
   public <T> DocNode child(T arg, BiConsumer<DocNode, T> fun) {
-    return new PhonyNode(doc(), element, doc().createElement("N" + UUID.randomUUID().toString().replaceAll("[^\\p{Alnum}]", "")));
+    return this;
   }
 
   @Override
   public DocNode child(String name, BooleanSupplier cond) {
-    return new PhonyNode(doc(), element, doc().createElement("N" + UUID.randomUUID().toString().replaceAll("[^\\p{Alnum}]", "")));
+    return enter();
   }
 
   @Override
   public DocNode child(String name) {
-    return new PhonyNode(doc(), element, doc().createElement("N" + UUID.randomUUID().toString().replaceAll("[^\\p{Alnum}]", "")));
+    return enter();
   }
 
   @Override
@@ -96,15 +124,5 @@ class PhonyNode extends DocNode {
   public DocNode value(String text) {
     return this;
   }
-
-  @Override
-  protected Document doc() {
-    return document;
-  }
-
-  @Override
-  protected Node parent() {
-    return parent;
-  }
   
 }
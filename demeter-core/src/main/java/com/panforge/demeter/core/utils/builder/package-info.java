@@ -14,6 +14,11 @@
  * limitations under the License.
  */
 /**
- * Classes allowing for easy DOM document creation.
+ * Classes allowing for easy XML document creation.
+ * <p>
+ * {@link com.panforge.demeter.core.utils.builder.DocWriter} streams documents
+ * and is used by the response factories.
+ * {@link com.panforge.demeter.core.utils.builder.DocBuilder} builds DOM 
+ * documents; it is kept for API users and is not used to write responses.
  */
 package com.panforge.demeter.core.utils.builder;
@@ -15,11 +15,15 @@
  */
 package com.panforge.demeter.core.utils.namespace;
 
-import com.panforge.demeter.core.utils.nodeiter.NodeIterable;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
@@ -29,6 +33,7 @@ import org.w3c.dom.Node;
  * Namespace utility class.
  */
 public class NamespaceUtils {
+  private static final Map<SortedSet<String>, String> SCHEMA_LOCATIONS = new ConcurrentHashMap<>();
   
   /**
    * Sanitizes node (deep)
@@ -37,30 +42,42 @@ public class NamespaceUtils {
    * @param nd node to sanitize
    */
   public static void sanitize(Node nd) {
-    boolean defaultNamespaceValid = checkDefaultNamespaceUri(nd);
-    List<Node> nodesToRemove = NodeIterable.stream(nd.getChildNodes())
-            .filter(n->n.getNodeType()==Node.ELEMENT_NODE)
-            .filter(n->!(n.getNamespaceURI()!=null? Namespaces.NSMAP.containsKey(n.getNamespaceURI()): defaultNamespaceValid))
-            .collect(Collectors.toList());
-    
-    nodesToRemove.forEach(n->nd.removeChild(n));
-    
-    NodeIterable.stream(nd.getChildNodes())
-            .filter(n->n.getNodeType()==1)
-            .forEach(n->sanitize(n));
+    traverse(nd, true, null);
+  }
+  
+  /**
+   * Sanitizes node (deep) and collects namespaces of the remaining nodes.
+   * <p>
+   * Does the same as {@link #sanitize(org.w3c.dom.Node)} followed by
+   * {@link #collectNamespaces(org.w3c.dom.Node)} within a single pass.
+   * @param nd node to sanitize
+   * @return map of namespace prefixes to namespace URI's.
+   */
+  public static Map<String, String> sanitizeAndCollect(Node nd) {
+    HashMap<String, String> ndUris = new HashMap<>();
+    traverse(nd, true, ndUris);
+    return ndUris;
   }
 
   /**
    * Generates schema location.
+   * <p>
+   * Schema locations are memoized for each distinct set of legitimate namespaces.
    * @param uris namespace URI's
    * @return schema location
    */
   public static String generateSchemaLocation(Collection<String> uris) {
-    return uris.stream()
+    SortedSet<String> key = new TreeSet<>();
+    for (String uri: uris) {
+      Namespace ns = uri != null? Namespaces.NSMAP.get(uri): null;
+      if (ns != null && !StringUtils.isBlank(ns.namespace) && !StringUtils.isBlank(ns.schema)) {
+        key.add(uri);
+      }
+    }
+    return SCHEMA_LOCATIONS.computeIfAbsent(Collections.unmodifiableSortedSet(key), k -> k.stream()
             .map(uri -> Namespaces.NSMAP.get(uri))
-            .filter(ns -> ns != null && !StringUtils.isBlank(ns.namespace) && !StringUtils.isBlank(ns.schema))
             .map(Namespace::toSchemaLocation)
-            .collect(Collectors.joining(" "));
+            .collect(Collectors.joining(" ")));
   }
 
   /**
@@ -78,10 +95,9 @@ public class NamespaceUtils {
    * @return map of namespace prefixes to namespace URI's.
    */
   public static Map<String, String> collectNamespaces(Stream<Node> nodes) {
-    return nodes
-            .flatMap(nd -> collectNamespaces(nd).entrySet().stream())
-            .distinct()
-            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    HashMap<String, String> ndUris = new HashMap<>();
+    nodes.forEach(nd -> traverse(nd, false, ndUris));
+    return ndUris;
   }
 
   /**
@@ -91,16 +107,44 @@ public class NamespaceUtils {
    */
   public static Map<String, String> collectNamespaces(Node nd) {
     HashMap<String, String> ndUris = new HashMap<>();
-
-    if (!StringUtils.isBlank(nd.getPrefix()) && !StringUtils.isBlank(nd.getNamespaceURI())) {
-      ndUris.put(nd.getPrefix(), nd.getNamespaceURI());
-    }
-
-    NodeIterable.stream(nd.getChildNodes()).forEach(chNd -> ndUris.putAll(collectNamespaces(chNd)));
-
+    traverse(nd, false, ndUris);
     return ndUris;
   }
   
+  /**
+   * Traverses node (deep) iteratively.
+   * @param root root node
+   * @param sanitize <code>true</code> to remove elements not within legitimate namespace
+   * @param ndUris map of namespaces to collect into or <code>null</code> if no collecting
+   */
+  private static void traverse(Node root, boolean sanitize, Map<String, String> ndUris) {
+    Deque<Node> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      Node nd = stack.pop();
+      
+      if (ndUris != null && !StringUtils.isBlank(nd.getPrefix()) && !StringUtils.isBlank(nd.getNamespaceURI())) {
+        ndUris.put(nd.getPrefix(), nd.getNamespaceURI());
+      }
+      
+      boolean defaultNamespaceValid = sanitize && nd.getNodeType() == Node.ELEMENT_NODE && checkDefaultNamespaceUri(nd);
+      Node child = nd.getFirstChild();
+      while (child != null) {
+        Node next = child.getNextSibling();
+        if (child.getNodeType() == Node.ELEMENT_NODE) {
+          if (sanitize && !(child.getNamespaceURI()!=null? Namespaces.NSMAP.containsKey(child.getNamespaceURI()): defaultNamespaceValid)) {
+            nd.removeChild(child);
+          } else {
+            stack.push(child);
+          }
+        } else if (ndUris != null && child.hasChildNodes()) {
+          stack.push(child);
+        }
+        child = next;
+      }
+    }
+  }
+  
   private static boolean checkDefaultNamespaceUri(Node nd) {
     boolean defaultNamespaceValid = false;
     Node defaultNamespaceNode = nd.getAttributes().getNamedItem("xmlns");
@@ -24,69 +24,71 @@ import com.panforge.demeter.core.api.exception.BadVerbException;
 import com.panforge.demeter.core.model.request.Request;
 import com.panforge.demeter.core.model.response.Response;
 import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFragment;
 import com.panforge.demeter.core.model.response.elements.Record;
 import com.panforge.demeter.core.utils.DateTimeUtils;
-import com.panforge.demeter.core.utils.nodeiter.NodeIterable;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.nodes;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.stream;
+import com.panforge.demeter.core.utils.XmlParsers;
+import com.panforge.demeter.core.utils.XmlUtils;
 import java.net.URI;
 import java.time.OffsetDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * Document parser.
+ * <p>
+ * Navigates directly through child elements of the document; no XPath is 
+ * evaluated while parsing.
  */
 public class DocParser {
-  private final static Map<Verb, Function<Document, DocParser>> PARSERS = new TreeMap<>((v1, v2) -> v1.name().compareToIgnoreCase(v2.name()));
+  private final static Map<Verb, BiFunction<Document, Boolean, DocParser>> PARSERS = new TreeMap<>((v1, v2) -> v1.name().compareToIgnoreCase(v2.name()));
   
-  protected final static XPathFactory XPATH_FACTORY = XPathFactory.newInstance();
-  protected final static XPath XPATH = XPATH_FACTORY.newXPath();
-  protected final static DocumentBuilder BUILDER;
+  private final static String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+  private final static ThreadLocal<XPath> XPATH = XmlParsers.xpath(new SimpleNamespaceContext().add("oai", OAI_NS));
+  private final static ThreadLocal<Map<String, XPathExpression>> EXPRESSIONS = ThreadLocal.withInitial(HashMap::new);
   
   static {
-    PARSERS.put(Verb.Identify, IdentifyParser::new);
-    PARSERS.put(Verb.ListMetadataFormats, ListMetadataFormatsParser::new);
-    PARSERS.put(Verb.ListSets, ListSetsParser::new);
-    PARSERS.put(Verb.ListIdentifiers, ListIdentifiersParser::new);
+    PARSERS.put(Verb.Identify, (doc, lazy) -> new IdentifyParser(doc));
+    PARSERS.put(Verb.ListMetadataFormats, (doc, lazy) -> new ListMetadataFormatsParser(doc));
+    PARSERS.put(Verb.ListSets, (doc, lazy) -> new ListSetsParser(doc));
+    PARSERS.put(Verb.ListIdentifiers, (doc, lazy) -> new ListIdentifiersParser(doc));
     PARSERS.put(Verb.ListRecords, ListRecordsParser::new);
     PARSERS.put(Verb.GetRecord, GetRecordParser::new);
-    
-    try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
-      BUILDER = factory.newDocumentBuilder();
-      XPATH.setNamespaceContext(new SimpleNamespaceContext().add("oai", "http://www.openarchives.org/OAI/2.0/"));
-    } catch (ParserConfigurationException ex) {
-      throw new RuntimeException("Error creating document builder.", ex);
-    }
   }
   
   protected final Document doc;
+  protected final boolean lazyMetadata;
 
   /**
    * Creates instance of the parser.
    * @param doc the document
+   * @param lazyMetadata <code>true</code> to keep record metadata as {@link MetadataFragment} and build DOM on demand only
    */
-  public DocParser(Document doc) {
+  public DocParser(Document doc, boolean lazyMetadata) {
     this.doc = doc;
+    this.lazyMetadata = lazyMetadata;
+  }
+
+  /**
+   * Creates instance of the parser.
+   * @param doc the document
+   */
+  public DocParser(Document doc) {
+    this(doc, false);
   }
   
   /**
@@ -95,7 +97,7 @@ public class DocParser {
    * @throws BadVerbException if parsing fails
    */
   public Response<? extends Request> parse() throws BadVerbException {
-    DocParser parser = PARSERS.get(readVerb(doc)).apply(doc);
+    DocParser parser = PARSERS.get(readVerb(doc)).apply(doc, lazyMetadata);
     return parser.parse();
   }
   
@@ -105,8 +107,7 @@ public class DocParser {
    * @return the 'from' property
    */
   protected String readFromAsString(Document doc) {
-    String text = StringUtils.trimToNull((String)evaluate("//oai:OAI-PMH/oai:request/@from", doc, XPathConstants.STRING));
-    return text;
+    return readRequestAttribute(doc, "from");
   }
   
   /**
@@ -116,7 +117,7 @@ public class DocParser {
    */
   protected OffsetDateTime readFrom(Document doc) {
     String text = readFromAsString(doc);
-    return text!=null? OffsetDateTime.parse(text, DateTimeFormatter.ISO_DATE_TIME): null;
+    return text!=null? DateTimeUtils.parseTimestamp(text): null;
   }
   
   /**
@@ -125,8 +126,7 @@ public class DocParser {
    * @return the 'until' property
    */
   protected String readUntilAsString(Document doc) {
-    String text = StringUtils.trimToNull((String)evaluate("//oai:OAI-PMH/oai:request/@until", doc, XPathConstants.STRING));
-    return text;
+    return readRequestAttribute(doc, "until");
   }
   
   /**
@@ -136,7 +136,7 @@ public class DocParser {
    */
   protected OffsetDateTime readUntil(Document doc) {
     String text = readUntilAsString(doc);
-    return text!=null? OffsetDateTime.parse(text, DateTimeFormatter.ISO_DATE_TIME): null;
+    return text!=null? DateTimeUtils.parseTimestamp(text): null;
   }
 
   /**
@@ -145,8 +145,7 @@ public class DocParser {
    * @return the 'set' property
    */
   protected String readSet(Document doc) {
-    String set = StringUtils.trimToNull((String)evaluate("//oai:OAI-PMH/oai:request/@set", doc, XPathConstants.STRING));
-    return set;
+    return readRequestAttribute(doc, "set");
   }
 
   /**
@@ -155,8 +154,7 @@ public class DocParser {
    * @return the 'metadataPrefix' property
    */
   protected String readMetadataPrefix(Document doc) {
-    String metadataPrefix = StringUtils.trimToNull((String)evaluate("//oai:OAI-PMH/oai:request/@metadataPrefix", doc, XPathConstants.STRING));
-    return metadataPrefix;
+    return readRequestAttribute(doc, "metadataPrefix");
   }
 
   /**
@@ -165,8 +163,7 @@ public class DocParser {
    * @return the identifier
    */
   protected String readIdentifierAsString(Document doc) {
-    String sIdentifier = StringUtils.trimToNull((String)evaluate("//oai:OAI-PMH/oai:request/@identifier", doc, XPathConstants.STRING));
-    return sIdentifier;
+    return readRequestAttribute(doc, "identifier");
   }
   
   /**
@@ -185,14 +182,14 @@ public class DocParser {
    * @return the 'error' information
    */
   protected ErrorInfo [] readErrors(Document doc) {
-    NodeList ndErrors = (NodeList)evaluate("//oai:OAI-PMH/oai:error", doc, XPathConstants.NODESET);
-    if (ndErrors == null || ndErrors.getLength()==0) {
+    List<Element> ndErrors = children(root(doc), "error");
+    if (ndErrors.isEmpty()) {
       return null;
     }
     ArrayList<ErrorInfo> infos = new ArrayList<>();
-    NodeIterable.stream(ndErrors).forEach(nd->{
-      ErrorCode code = ErrorCode.parse((String)evaluate("@code", nd, XPathConstants.STRING));
-      String message = (String)evaluate(".", nd, XPathConstants.STRING);
+    ndErrors.forEach(nd->{
+      ErrorCode code = ErrorCode.parse(nd.getAttribute("code"));
+      String message = nd.getTextContent();
       ErrorInfo info = new ErrorInfo(code, message);
       infos.add(info);
     });
@@ -205,8 +202,8 @@ public class DocParser {
    * @return the 'responseDate' property
    */
   protected OffsetDateTime readResponseDate(Document doc) {
-    String text = StringUtils.trimToNull((String)evaluate("//oai:OAI-PMH/oai:responseDate", doc, XPathConstants.STRING));
-    return text!=null? OffsetDateTime.parse(text, DateTimeFormatter.ISO_DATE_TIME): null;
+    String text = StringUtils.trimToNull(text(child(root(doc), "responseDate")));
+    return text!=null? DateTimeUtils.parseTimestamp(text): null;
   }
   
   /**
@@ -216,16 +213,23 @@ public class DocParser {
    * @return the 'resumptionToken' property
    */
   protected ResumptionToken readResponseResumptionToken(Document doc) {
-    Node ndResumptionToken = (Node)evaluate("//oai:resumptionToken", doc, XPathConstants.NODE);
+    Element ndResumptionToken = null;
+    for (Element content: children(root(doc), null)) {
+      ndResumptionToken = child(content, "resumptionToken");
+      if (ndResumptionToken!=null) {
+        break;
+      }
+    }
     if (ndResumptionToken==null) {
       return null;
     }
 
+    String expirationDate = ndResumptionToken.getAttribute("expirationDate");
     ResumptionToken resumptionToken = new ResumptionToken(
-      (String)evaluate(".", ndResumptionToken, XPathConstants.STRING),
-      !StringUtils.isBlank((String)evaluate("@expirationDate", ndResumptionToken, XPathConstants.STRING))? DateTimeUtils.parseTimestamp((String)evaluate("@expirationDate", ndResumptionToken, XPathConstants.STRING)): null,
-      NumberUtils.toLong((String)evaluate("@completeListSize", ndResumptionToken, XPathConstants.STRING), 0),
-      NumberUtils.toLong((String)evaluate("@cursor", ndResumptionToken, XPathConstants.STRING), 0)
+      ndResumptionToken.getTextContent(),
+      !StringUtils.isBlank(expirationDate)? DateTimeUtils.parseTimestamp(expirationDate): null,
+      NumberUtils.toLong(ndResumptionToken.getAttribute("completeListSize"), -1),
+      NumberUtils.toLong(ndResumptionToken.getAttribute("cursor"), 0)
     );
 
     return resumptionToken;
@@ -238,8 +242,7 @@ public class DocParser {
    * @return the 'resumptionToken' property
    */
   protected String readRequestResumptionToken(Document doc) {
-    String resumptionToken = StringUtils.trimToNull((String)evaluate("//oai:OAI-PMH/oai:request/@resumptionToken", doc, XPathConstants.STRING));
-    return resumptionToken;
+    return readRequestAttribute(doc, "resumptionToken");
   }
   
   /**
@@ -249,7 +252,8 @@ public class DocParser {
    * @throws BadVerbException if reading verb fails
    */
   protected final Verb readVerb(Document doc) throws BadVerbException {
-    String sVerb = (String)evaluate("//oai:OAI-PMH/oai:request/@verb", doc, XPathConstants.STRING);
+    Element request = child(root(doc), "request");
+    String sVerb = request!=null? request.getAttribute("verb"): "";
     Verb verb = Verb.parse(sVerb);
     if (verb==null)
       throw new BadVerbException(String.format("Error reading verb: '%s'", StringUtils.trimToEmpty(sVerb)));
@@ -258,6 +262,8 @@ public class DocParser {
   
   /**
    * Safely evaluates XPath expressions.
+   * <p>
+   * Expressions are compiled once per thread.
    * @param expression XPath expression
    * @param item item to evaluate
    * @param returnType return type
@@ -265,7 +271,13 @@ public class DocParser {
    */
   protected final Object evaluate(String expression, Object item, QName returnType) {
     try {
-      return XPATH.evaluate(expression, item, returnType);
+      Map<String, XPathExpression> expressions = EXPRESSIONS.get();
+      XPathExpression compiled = expressions.get(expression);
+      if (compiled==null) {
+        compiled = XPATH.get().compile(expression);
+        expressions.put(expression, compiled);
+      }
+      return compiled.evaluate(item, returnType);
     } catch (XPathExpressionException ex) {
       throw new RuntimeException(String.format("Invalid XPath expression: '%s'", expression), ex);
     }
@@ -277,32 +289,34 @@ public class DocParser {
    * @return the record
    */
   protected Record readRecord(Node node) {
-    Header header = readHeader((Node)evaluate("oai:header", node, XPathConstants.NODE));
+    Header header = readHeader(child(node, "header"));
 
     Document metadata = null;
-    Node ndMetadata = (Node)evaluate("oai:metadata", node, XPathConstants.NODE);
-    if (ndMetadata!=null) {
-      Node metadataDocumentNode = stream(ndMetadata.getChildNodes()).filter(n->n.getNodeType()==1).findFirst().orElse(null);
-      if (metadataDocumentNode!=null) {
-        metadata = BUILDER.newDocument();
+    MetadataFragment metadataFragment = null;
+    Node metadataDocumentNode = firstElement(child(node, "metadata"));
+    if (metadataDocumentNode!=null) {
+      if (lazyMetadata) {
+        // serialized, so the response document can be released as soon as parsed
+        metadataFragment = new MetadataFragment(XmlUtils.formatToBytes(metadataDocumentNode));
+      } else {
+        metadata = XmlUtils.newDocument();
         Node adopted = metadata.adoptNode(metadataDocumentNode);
         metadata.appendChild(adopted);
       }
     }
 
     List<Document> about = new ArrayList<>();
-    NodeList ndAbout = (NodeList)evaluate("oai:about", node, XPathConstants.NODESET);
-    NodeIterable.stream(ndAbout).forEach(nd->{
-      Node aboutDocumentNode = stream(nd.getChildNodes()).filter(n->n.getNodeType()==1).findFirst().orElse(null);
+    children(node, "about").forEach(nd->{
+      Node aboutDocumentNode = firstElement(nd);
       if (aboutDocumentNode!=null) {
-        Document aboutDoc = BUILDER.newDocument();
+        Document aboutDoc = XmlUtils.newDocument();
         Node adopted = aboutDoc.adoptNode(aboutDocumentNode);
         aboutDoc.appendChild(adopted);
         about.add(aboutDoc);
       }
     });
 
-    return new Record(header, metadata, about.toArray(new Document[about.size()]));
+    return new Record(header, metadata, metadataFragment, about.toArray(new Document[about.size()]));
   }
 
   /**
@@ -312,18 +326,88 @@ public class DocParser {
    */
   protected Header readHeader(Node node) {
       return new Header(
-              URI.create((String) evaluate("oai:identifier", node, XPathConstants.STRING)),
-              DateTimeUtils.parseTimestamp((String) evaluate("oai:datestamp", node, XPathConstants.STRING)),
-              parseSet((NodeList) evaluate("oai:setSpec", node, XPathConstants.NODESET)),
-              "deleted".equalsIgnoreCase((String)evaluate("@status", node, XPathConstants.STRING))
+              URI.create(text(child(node, "identifier"))),
+              DateTimeUtils.parseTimestamp(text(child(node, "datestamp"))),
+              children(node, "setSpec").stream().map(Node::getTextContent).toArray(String[]::new),
+              node instanceof Element && "deleted".equalsIgnoreCase(((Element)node).getAttribute("status"))
       );
   }
-
-  private String[] parseSet(NodeList nodeSet) {
-    ArrayList<String> sets = new ArrayList<>();
-    for (Node node : nodes(nodeSet)) {
-      sets.add(node.getTextContent());
+  
+  /**
+   * Gets document element if it is OAI-PMH element.
+   * @param doc the document
+   * @return document element or <code>null</code>
+   */
+  protected static Element root(Document doc) {
+    Element root = doc.getDocumentElement();
+    return root!=null && OAI_NS.equals(root.getNamespaceURI()) && "OAI-PMH".equals(root.getLocalName())? root: null;
+  }
+  
+  /**
+   * Finds first OAI-PMH child element of the given name.
+   * @param parent parent node or <code>null</code>
+   * @param localName local name
+   * @return child element or <code>null</code> if not found
+   */
+  protected static Element child(Node parent, String localName) {
+    for (Node nd = parent!=null? parent.getFirstChild(): null; nd!=null; nd = nd.getNextSibling()) {
+      if (isOaiElement(nd, localName)) {
+        return (Element)nd;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Lists all OAI-PMH child elements of the given name.
+   * @param parent parent node or <code>null</code>
+   * @param localName local name or <code>null</code> for any name
+   * @return list of child elements
+   */
+  protected static List<Element> children(Node parent, String localName) {
+    if (parent==null) {
+      return Collections.emptyList();
+    }
+    ArrayList<Element> children = new ArrayList<>();
+    for (Node nd = parent.getFirstChild(); nd!=null; nd = nd.getNextSibling()) {
+      if (isOaiElement(nd, localName)) {
+        children.add((Element)nd);
+      }
+    }
+    return children;
+  }
+  
+  /**
+   * Finds first child element regardless of the namespace.
+   * @param parent parent node or <code>null</code>
+   * @return child element or <code>null</code> if not found
+   */
+  protected static Element firstElement(Node parent) {
+    for (Node nd = parent!=null? parent.getFirstChild(): null; nd!=null; nd = nd.getNextSibling()) {
+      if (nd.getNodeType()==Node.ELEMENT_NODE) {
+        return (Element)nd;
+      }
     }
-    return sets.toArray(new String[sets.size()]);
+    return null;
+  }
+  
+  /**
+   * Gets text content of the node.
+   * @param node the node or <code>null</code>
+   * @return text content or empty string if no node
+   */
+  protected static String text(Node node) {
+    return node!=null? node.getTextContent(): "";
+  }
+  
+  private static boolean isOaiElement(Node nd, String localName) {
+    return nd.getNodeType()==Node.ELEMENT_NODE 
+            && OAI_NS.equals(nd.getNamespaceURI()) 
+            && (localName==null || localName.equals(nd.getLocalName()));
+  }
+  
+  private String readRequestAttribute(Document doc, String name) {
+    Element request = child(root(doc), "request");
+    return request!=null? StringUtils.trimToNull(request.getAttribute(name)): null;
   }
 }
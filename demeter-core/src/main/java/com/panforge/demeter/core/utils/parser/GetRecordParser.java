@@ -24,10 +24,9 @@ import com.panforge.demeter.core.model.response.Response;
 import com.panforge.demeter.core.model.response.elements.Record;
 import java.util.HashMap;
 import java.util.Map;
-import javax.xml.xpath.XPathConstants;
 import org.apache.commons.lang3.ArrayUtils;
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
+import org.w3c.dom.Element;
 
 /**
  * GetRecord request parser.
@@ -37,9 +36,10 @@ class GetRecordParser extends DocParser {
   /**
    * Creates instance of the parser.
    * @param doc the document
+   * @param lazyMetadata <code>true</code> to keep record metadata as fragment
    */
-  public GetRecordParser(Document doc) {
-    super(doc);
+  public GetRecordParser(Document doc, boolean lazyMetadata) {
+    super(doc, lazyMetadata);
   }
 
   @Override
@@ -49,7 +49,7 @@ class GetRecordParser extends DocParser {
       return new ErrorResponse(extractRequest(), readResponseDate(doc), errors);
     }
     
-    Node ndRecord = (Node)evaluate("//oai:OAI-PMH/oai:GetRecord/oai:record", doc, XPathConstants.NODE);
+    Element ndRecord = child(child(root(doc), "GetRecord"), "record");
     if (ndRecord!=null) {
       Record record = readRecord(ndRecord);
       return new GetRecordResponse(extractRequest(), readResponseDate(doc), record);
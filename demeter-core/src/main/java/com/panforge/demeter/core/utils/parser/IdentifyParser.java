@@ -15,28 +15,26 @@
  */
 package com.panforge.demeter.core.utils.parser;
 
+import com.panforge.demeter.core.utils.XmlUtils;
 import com.panforge.demeter.core.api.Config.Deletion;
 import com.panforge.demeter.core.api.Config.Compression;
 import com.panforge.demeter.core.model.ErrorInfo;
 import com.panforge.demeter.core.model.Verb;
-import com.panforge.demeter.core.model.request.IdentifyRequest;
 import com.panforge.demeter.core.model.request.Request;
 import com.panforge.demeter.core.model.response.ErrorResponse;
 import com.panforge.demeter.core.model.response.IdentifyResponse;
 import com.panforge.demeter.core.model.response.Response;
 import static com.panforge.demeter.core.utils.DateTimeUtils.parseTimestamp;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.nodes;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.stream;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import javax.xml.xpath.XPathConstants;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * Identify request parser.
@@ -58,48 +56,32 @@ class IdentifyParser extends DocParser {
       return new ErrorResponse(extractRequest(), readResponseDate(doc), errors);
     }
     
-    IdentifyRequest request = new IdentifyRequest();
+    Element identify = child(root(doc), "Identify");
 
-    String repositoryName = (String) evaluate("//oai:OAI-PMH/oai:Identify/oai:repositoryName", doc, XPathConstants.STRING);
-    String baseURL = (String) evaluate("//oai:OAI-PMH/oai:Identify/oai:baseURL", doc, XPathConstants.STRING);
-    String protocolVersion = (String) evaluate("//oai:OAI-PMH/oai:Identify/oai:protocolVersion", doc, XPathConstants.STRING);
-    String[] edminEmails = readAdminEmails();
-    OffsetDateTime earliestDatestamp = !StringUtils.isBlank((String)evaluate("//oai:OAI-PMH/oai:Identify/oai:earliestDatestamp", doc, XPathConstants.STRING))? parseTimestamp((String) evaluate("//oai:OAI-PMH/oai:Identify/oai:earliestDatestamp", doc, XPathConstants.STRING)): null;
-    Deletion deletedRecord = Deletion.parse((String) evaluate("//oai:OAI-PMH/oai:Identify/oai:deletedRecord", doc, XPathConstants.STRING));
-    String granularity = (String) evaluate("//oai:OAI-PMH/oai:Identify/oai:granularity", doc, XPathConstants.STRING);
-    Compression [] compression = readCompression();
+    String repositoryName = text(child(identify, "repositoryName"));
+    String baseURL = text(child(identify, "baseURL"));
+    String protocolVersion = text(child(identify, "protocolVersion"));
+    String[] edminEmails = children(identify, "adminEmail").stream().map(Node::getTextContent).toArray(String[]::new);
+    String sEarliestDatestamp = text(child(identify, "earliestDatestamp"));
+    OffsetDateTime earliestDatestamp = !StringUtils.isBlank(sEarliestDatestamp)? parseTimestamp(sEarliestDatestamp): null;
+    Deletion deletedRecord = Deletion.parse(text(child(identify, "deletedRecord")));
+    String granularity = text(child(identify, "granularity"));
+    Compression [] compression = children(identify, "compression").stream().map(nd -> Compression.parse(nd.getTextContent())).toArray(Compression[]::new);
 
-    Document[] descriptions = readDescriptions((NodeList) evaluate("//oai:OAI-PMH/oai:Identify/oai:description", doc, XPathConstants.NODESET));
+    Document[] descriptions = readDescriptions(children(identify, "description"));
 
     return new IdentifyResponse(extractRequest(), readResponseDate(doc), repositoryName, baseURL, protocolVersion, edminEmails, earliestDatestamp, deletedRecord, granularity, compression, descriptions);
   }
 
-  private Compression [] readCompression() {
-    ArrayList<Compression> compression = new ArrayList<>();
-    for (Node node : nodes((NodeList) evaluate("//oai:OAI-PMH/oai:Identify/oai:compression", doc, XPathConstants.NODESET))) {
-      Compression c = Compression.parse(node.getTextContent());
-      compression.add(c);
-    }
-    return compression.toArray(new Compression[compression.size()]);
-  }
-  
-  private String[] readAdminEmails() {
-    ArrayList<String> adminEmails = new ArrayList<>();
-    for (Node node : nodes((NodeList) evaluate("//oai:OAI-PMH/oai:Identify/oai:adminEmail", doc, XPathConstants.NODESET))) {
-      adminEmails.add(node.getTextContent());
-    }
-    return adminEmails.toArray(new String[adminEmails.size()]);
-  }
-
-  private Document[] readDescriptions(NodeList nodeList) {
+  private Document[] readDescriptions(List<Element> nodeList) {
     ArrayList<Document> descriptions = new ArrayList<>();
-    for (Node node : nodes(nodeList)) {
-      Node descriptionNode = stream(node.getChildNodes()).filter(n -> n.getNodeType() == 1).findFirst().orElse(null);
+    for (Element node : nodeList) {
+      Node descriptionNode = firstElement(node);
       if (descriptionNode != null) {
-        Document descDoc = BUILDER.newDocument();
+        Document descDoc = XmlUtils.newDocument();
         Node adopted = descDoc.adoptNode(descriptionNode);
         descDoc.appendChild(adopted);
-        descriptions.add(doc);
+        descriptions.add(descDoc);
       }
     }
     return descriptions.toArray(new Document[descriptions.size()]);
@@ -23,15 +23,12 @@ import com.panforge.demeter.core.model.response.ErrorResponse;
 import com.panforge.demeter.core.model.response.elements.Header;
 import com.panforge.demeter.core.model.response.ListIdentifiersResponse;
 import com.panforge.demeter.core.model.response.Response;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.nodes;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import javax.xml.xpath.XPathConstants;
 import org.apache.commons.lang3.ArrayUtils;
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Element;
 
 /**
  * ListIdentifiers request parser.
@@ -54,7 +51,7 @@ class ListIdentifiersParser extends DocParser {
     }
     
     ArrayList<Header> headers = new ArrayList<>();
-    for (Node node : nodes((NodeList) evaluate("//oai:OAI-PMH/oai:ListIdentifiers/oai:header", doc, XPathConstants.NODESET))) {
+    for (Element node : children(child(root(doc), "ListIdentifiers"), "header")) {
       headers.add(readHeader(node));
     }
     ResumptionToken resumptionToken = readResponseResumptionToken(doc);
@@ -23,15 +23,13 @@ import com.panforge.demeter.core.model.response.ErrorResponse;
 import com.panforge.demeter.core.model.response.ListMetadataFormatsResponse;
 import com.panforge.demeter.core.model.response.Response;
 import com.panforge.demeter.core.model.response.elements.MetadataFormat;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.nodes;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import javax.xml.xpath.XPathConstants;
 import org.apache.commons.lang3.ArrayUtils;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * ListMetadataFormats request parser.
@@ -54,7 +52,7 @@ class ListMetadataFormatsParser extends DocParser {
     }
     
     ArrayList<MetadataFormat> formats = new ArrayList<>();
-    for (Node node : nodes((NodeList) evaluate("//oai:OAI-PMH/oai:ListMetadataFormats/oai:metadataFormat", doc, XPathConstants.NODESET))) {
+    for (Element node : children(child(root(doc), "ListMetadataFormats"), "metadataFormat")) {
       formats.add(readMetadataFormat(node));
     }
     
@@ -63,9 +61,9 @@ class ListMetadataFormatsParser extends DocParser {
   
   private MetadataFormat readMetadataFormat(Node node) {
     return new MetadataFormat(
-            (String) evaluate("oai:metadataPrefix", node, XPathConstants.STRING),
-            (String) evaluate("oai:schema", node, XPathConstants.STRING),
-            (String) evaluate("oai:metadataNamespace", node, XPathConstants.STRING)
+            text(child(node, "metadataPrefix")),
+            text(child(node, "schema")),
+            text(child(node, "metadataNamespace"))
     );
   }
   
@@ -23,15 +23,12 @@ import com.panforge.demeter.core.model.response.ErrorResponse;
 import com.panforge.demeter.core.model.response.ListRecordsResponse;
 import com.panforge.demeter.core.model.response.Response;
 import com.panforge.demeter.core.model.response.elements.Record;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.nodes;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import javax.xml.xpath.XPathConstants;
 import org.apache.commons.lang3.ArrayUtils;
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Element;
 
 /**
  * ListRecords request parser.
@@ -41,9 +38,10 @@ class ListRecordsParser extends DocParser {
   /**
    * Creates instance of the parser.
    * @param doc the document
+   * @param lazyMetadata <code>true</code> to keep record metadata as fragment
    */
-  public ListRecordsParser(Document doc) {
-    super(doc);
+  public ListRecordsParser(Document doc, boolean lazyMetadata) {
+    super(doc, lazyMetadata);
   }
 
   @Override
@@ -54,7 +52,7 @@ class ListRecordsParser extends DocParser {
     }
     
     ArrayList<Record> records = new ArrayList<>();
-    for (Node node : nodes((NodeList) evaluate("//oai:OAI-PMH/oai:ListRecords/oai:record", doc, XPathConstants.NODESET))) {
+    for (Element node : children(child(root(doc), "ListRecords"), "record")) {
       records.add(readRecord(node));
     }
     ResumptionToken resumptionToken = readResponseResumptionToken(doc);
@@ -15,6 +15,7 @@
  */
 package com.panforge.demeter.core.utils.parser;
 
+import com.panforge.demeter.core.utils.XmlUtils;
 import com.panforge.demeter.core.model.ErrorInfo;
 import com.panforge.demeter.core.model.ResumptionToken;
 import com.panforge.demeter.core.model.Verb;
@@ -23,19 +24,14 @@ import com.panforge.demeter.core.model.response.ErrorResponse;
 import com.panforge.demeter.core.model.response.ListSetsResponse;
 import com.panforge.demeter.core.model.response.Response;
 import com.panforge.demeter.core.model.response.elements.Set;
-import com.panforge.demeter.core.utils.nodeiter.NodeIterable;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.nodes;
-import static com.panforge.demeter.core.utils.nodeiter.NodeIterable.stream;
-import static com.panforge.demeter.core.utils.parser.DocParser.BUILDER;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import javax.xml.xpath.XPathConstants;
 import org.apache.commons.lang3.ArrayUtils;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * ListSets request parser.
@@ -58,7 +54,7 @@ class ListSetsParser extends DocParser {
     }
     
     ArrayList<Set> sets = new ArrayList<>();
-    for (Node node : nodes((NodeList)evaluate("//oai:OAI-PMH/oai:ListSets/oai:set", doc, XPathConstants.NODESET))) {
+    for (Element node : children(child(root(doc), "ListSets"), "set")) {
       sets.add(readSet(node));
     }
     ResumptionToken resumptionToken = readResponseResumptionToken(doc);
@@ -68,19 +64,18 @@ class ListSetsParser extends DocParser {
 
   private Set readSet(Node node) {
     return new Set(
-            (String) evaluate("oai:setSpec", node, XPathConstants.STRING),
-            (String) evaluate("oai:setName", node, XPathConstants.STRING),
+            text(child(node, "setSpec")),
+            text(child(node, "setName")),
             readSetDescriptions(node)
     );
   }
   
   private Document [] readSetDescriptions(Node root) {
     List<Document> setDescriptions = new ArrayList<>();
-    NodeList ndAbout = (NodeList)evaluate("oai:setDescription", root, XPathConstants.NODESET);
-    NodeIterable.stream(ndAbout).forEach(nd->{
-      Node setDescriptionNode = stream(nd.getChildNodes()).filter(n->n.getNodeType()==1).findFirst().orElse(null);
+    children(root, "setDescription").forEach(nd->{
+      Node setDescriptionNode = firstElement(nd);
       if (setDescriptionNode!=null) {
-        Document setDescriptionDoc = BUILDER.newDocument();
+        Document setDescriptionDoc = XmlUtils.newDocument();
         Node adopted = setDescriptionDoc.adoptNode(setDescriptionNode);
         setDescriptionDoc.appendChild(adopted);
         setDescriptions.add(setDescriptionDoc);
@@ -0,0 +1,598 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils.parser;
+
+import com.panforge.demeter.core.api.Config.Compression;
+import com.panforge.demeter.core.api.Config.Deletion;
+import com.panforge.demeter.core.api.exception.BadVerbException;
+import com.panforge.demeter.core.model.ErrorCode;
+import com.panforge.demeter.core.model.ErrorInfo;
+import com.panforge.demeter.core.model.ResumptionToken;
+import com.panforge.demeter.core.model.Verb;
+import com.panforge.demeter.core.model.request.Request;
+import com.panforge.demeter.core.model.response.ErrorResponse;
+import com.panforge.demeter.core.model.response.GetRecordResponse;
+import com.panforge.demeter.core.model.response.IdentifyResponse;
+import com.panforge.demeter.core.model.response.ListIdentifiersResponse;
+import com.panforge.demeter.core.model.response.ListMetadataFormatsResponse;
+import com.panforge.demeter.core.model.response.ListRecordsResponse;
+import com.panforge.demeter.core.model.response.ListSetsResponse;
+import com.panforge.demeter.core.model.response.Response;
+import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFormat;
+import com.panforge.demeter.core.model.response.elements.MetadataFragment;
+import com.panforge.demeter.core.model.response.elements.Record;
+import com.panforge.demeter.core.model.response.elements.Set;
+import com.panforge.demeter.core.utils.DateTimeUtils;
+import com.panforge.demeter.core.utils.XmlUtils;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * Streaming document parser.
+ * <p>
+ * Pulls response from {@link XMLStreamReader} one element at a time. Only 
+ * embedded documents (metadata, about, descriptions) are built as DOM; record
+ * metadata might be copied as raw bytes instead and parsed on demand. Headers
+ * and records can be handed over to consumers as soon as they are read, thus
+ * memory is bounded by a single record rather than by the entire page.
+ */
+public class StreamParser {
+  private static final XMLOutputFactory FRAGMENT_FACTORY = newFragmentFactory();
+  
+  private final XMLStreamReader reader;
+  private final boolean lazyMetadata;
+
+  /**
+   * Creates instance of the parser.
+   * @param reader stream reader positioned at the start of the document
+   * @param lazyMetadata <code>true</code> to keep record metadata as {@link MetadataFragment} and build DOM on demand only
+   */
+  public StreamParser(XMLStreamReader reader, boolean lazyMetadata) {
+    this.reader = reader;
+    this.lazyMetadata = lazyMetadata;
+  }
+
+  /**
+   * Creates instance of the parser.
+   * @param reader stream reader positioned at the start of the document
+   */
+  public StreamParser(XMLStreamReader reader) {
+    this(reader, false);
+  }
+  
+  /**
+   * Parses XML response stream.
+   * @return response as an object
+   * @throws XMLStreamException if error reading stream
+   * @throws BadVerbException if parsing fails
+   */
+  public Response<? extends Request> parse() throws XMLStreamException, BadVerbException {
+    return parse(null, null);
+  }
+  
+  /**
+   * Parses XML response stream.
+   * <p>
+   * If consumer is provided, each header of ListIdentifiers or each record of 
+   * ListRecords is passed to the consumer instead of being collected into the
+   * response; response contains no headers or records in that case.
+   * @param headerConsumer header consumer or <code>null</code>
+   * @param recordConsumer record consumer or <code>null</code>
+   * @return response as an object
+   * @throws XMLStreamException if error reading stream
+   * @throws BadVerbException if parsing fails
+   */
+  public Response<? extends Request> parse(Consumer<Header> headerConsumer, Consumer<Record> recordConsumer) throws XMLStreamException, BadVerbException {
+    // skip prolog (declaration, DOCTYPE, comments) up to the root element
+    while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+      if (reader.getEventType() == XMLStreamConstants.END_DOCUMENT) {
+        throw new XMLStreamException("Missing root element", reader.getLocation());
+      }
+    }
+    
+    OffsetDateTime responseDate = null;
+    Map<String, String[]> parameters = new HashMap<>();
+    List<ErrorInfo> errors = new ArrayList<>();
+    Content content = null;
+    String sVerb = null;
+    
+    while (nextChild()) {
+      switch (reader.getLocalName()) {
+        case "responseDate":
+          String text = StringUtils.trimToNull(readText());
+          responseDate = text!=null? DateTimeUtils.parseTimestamp(text): null;
+          break;
+        case "request":
+          sVerb = readRequest(parameters);
+          Verb requestVerb = Verb.parse(sVerb);
+          content = new Content(
+                  requestVerb==Verb.ListIdentifiers? headerConsumer: null, 
+                  requestVerb==Verb.ListRecords? recordConsumer: null
+          );
+          break;
+        case "error":
+          errors.add(new ErrorInfo(ErrorCode.parse(reader.getAttributeValue(null, "code")), readText()));
+          break;
+        default:
+          if (content!=null && reader.getLocalName().equalsIgnoreCase(sVerb)) {
+            readContent(content);
+          } else {
+            skipElement();
+          }
+      }
+    }
+    
+    if (!errors.isEmpty()) {
+      return new ErrorResponse(parameters, responseDate, errors.toArray(new ErrorInfo[errors.size()]));
+    }
+    
+    Verb verb = Verb.parse(sVerb);
+    if (verb==null) {
+      throw new BadVerbException(String.format("Error reading verb: '%s'", StringUtils.trimToEmpty(sVerb)));
+    }
+    
+    switch (verb) {
+      case Identify:
+        return new IdentifyResponse(parameters, responseDate, 
+                content.value("repositoryName"), 
+                content.value("baseURL"), 
+                content.value("protocolVersion"), 
+                content.adminEmail.toArray(new String[content.adminEmail.size()]), 
+                !StringUtils.isBlank(content.value("earliestDatestamp"))? DateTimeUtils.parseTimestamp(content.value("earliestDatestamp")): null, 
+                Deletion.parse(content.value("deletedRecord")), 
+                content.value("granularity"), 
+                content.compression.toArray(new Compression[content.compression.size()]), 
+                content.descriptions.toArray(new Document[content.descriptions.size()]));
+      case ListMetadataFormats:
+        return new ListMetadataFormatsResponse(parameters, responseDate, content.formats.toArray(new MetadataFormat[content.formats.size()]));
+      case ListSets:
+        return new ListSetsResponse(parameters, responseDate, content.sets.toArray(new Set[content.sets.size()]), content.resumptionToken);
+      case ListIdentifiers:
+        return new ListIdentifiersResponse(parameters, responseDate, content.headers.toArray(new Header[content.headers.size()]), content.resumptionToken);
+      case ListRecords:
+        return new ListRecordsResponse(parameters, responseDate, content.records.toArray(new Record[content.records.size()]), content.resumptionToken);
+      case GetRecord:
+        return !content.records.isEmpty()? new GetRecordResponse(parameters, responseDate, content.records.get(0)): null;
+      default:
+        throw new BadVerbException(String.format("Error reading verb: '%s'", sVerb));
+    }
+  }
+  
+  private String readRequest(Map<String, String[]> parameters) throws XMLStreamException {
+    for (int i=0; i<reader.getAttributeCount(); i++) {
+      String value = StringUtils.trimToNull(reader.getAttributeValue(i));
+      if (value!=null) {
+        parameters.put(reader.getAttributeLocalName(i), new String[] { value });
+      }
+    }
+    String sVerb = reader.getAttributeValue(null, "verb");
+    skipElement();
+    return sVerb;
+  }
+  
+  private void readContent(Content content) throws XMLStreamException {
+    while (nextChild()) {
+      String name = reader.getLocalName();
+      switch (name) {
+        case "adminEmail":
+          content.adminEmail.add(readText());
+          break;
+        case "compression":
+          content.compression.add(Compression.parse(readText()));
+          break;
+        case "description":
+          Document description = readEmbeddedDocument();
+          if (description!=null) {
+            content.descriptions.add(description);
+          }
+          break;
+        case "metadataFormat":
+          content.formats.add(readMetadataFormat());
+          break;
+        case "set":
+          content.sets.add(readSet());
+          break;
+        case "header":
+          content.add(readHeader());
+          break;
+        case "record":
+          content.add(readRecord());
+          break;
+        case "resumptionToken":
+          content.resumptionToken = readResumptionToken();
+          break;
+        default:
+          content.values.put(name, readText());
+      }
+    }
+  }
+  
+  private MetadataFormat readMetadataFormat() throws XMLStreamException {
+    Map<String, String> values = readValues();
+    return new MetadataFormat(
+            values.getOrDefault("metadataPrefix", ""),
+            values.getOrDefault("schema", ""),
+            values.getOrDefault("metadataNamespace", "")
+    );
+  }
+  
+  private Set readSet() throws XMLStreamException {
+    String setSpec = "";
+    String setName = "";
+    List<Document> descriptions = new ArrayList<>();
+    while (nextChild()) {
+      switch (reader.getLocalName()) {
+        case "setSpec":
+          setSpec = readText();
+          break;
+        case "setName":
+          setName = readText();
+          break;
+        case "setDescription":
+          Document description = readEmbeddedDocument();
+          if (description!=null) {
+            descriptions.add(description);
+          }
+          break;
+        default:
+          skipElement();
+      }
+    }
+    return new Set(setSpec, setName, descriptions.toArray(new Document[descriptions.size()]));
+  }
+  
+  private Record readRecord() throws XMLStreamException {
+    Header header = null;
+    Document metadata = null;
+    MetadataFragment metadataFragment = null;
+    List<Document> about = new ArrayList<>();
+    while (nextChild()) {
+      switch (reader.getLocalName()) {
+        case "header":
+          header = readHeader();
+          break;
+        case "metadata":
+          if (lazyMetadata) {
+            metadataFragment = readEmbeddedFragment();
+          } else {
+            metadata = readEmbeddedDocument();
+          }
+          break;
+        case "about":
+          Document aboutDoc = readEmbeddedDocument();
+          if (aboutDoc!=null) {
+            about.add(aboutDoc);
+          }
+          break;
+        default:
+          skipElement();
+      }
+    }
+    return new Record(header, metadata, metadataFragment, about.toArray(new Document[about.size()]));
+  }
+  
+  private Header readHeader() throws XMLStreamException {
+    boolean deleted = "deleted".equalsIgnoreCase(reader.getAttributeValue(null, "status"));
+    String identifier = "";
+    String datestamp = "";
+    List<String> sets = new ArrayList<>();
+    while (nextChild()) {
+      switch (reader.getLocalName()) {
+        case "identifier":
+          identifier = readText();
+          break;
+        case "datestamp":
+          datestamp = readText();
+          break;
+        case "setSpec":
+          sets.add(readText());
+          break;
+        default:
+          skipElement();
+      }
+    }
+    return new Header(URI.create(identifier), DateTimeUtils.parseTimestamp(datestamp), sets.toArray(new String[sets.size()]), deleted);
+  }
+  
+  private ResumptionToken readResumptionToken() throws XMLStreamException {
+    String expirationDate = reader.getAttributeValue(null, "expirationDate");
+    String completeListSize = reader.getAttributeValue(null, "completeListSize");
+    String cursor = reader.getAttributeValue(null, "cursor");
+    return new ResumptionToken(
+            readText(),
+            !StringUtils.isBlank(expirationDate)? DateTimeUtils.parseTimestamp(expirationDate): null,
+            NumberUtils.toLong(completeListSize, -1),
+            NumberUtils.toLong(cursor, 0)
+    );
+  }
+  
+  private Map<String, String> readValues() throws XMLStreamException {
+    Map<String, String> values = new HashMap<>();
+    while (nextChild()) {
+      values.put(reader.getLocalName(), readText());
+    }
+    return values;
+  }
+  
+  /**
+   * Advances to the next child element of the current element.
+   * @return <code>true</code> if positioned at the child element, <code>false</code> if at the end of the current element
+   * @throws XMLStreamException if error reading stream
+   */
+  private boolean nextChild() throws XMLStreamException {
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          return true;
+        case XMLStreamConstants.END_ELEMENT:
+          return false;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Reads text content of the current element (deep).
+   * @return text content
+   * @throws XMLStreamException if error reading stream
+   */
+  private String readText() throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          break;
+      }
+    }
+    return text.toString();
+  }
+  
+  private void skipElement() throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+      }
+    }
+  }
+  
+  /**
+   * Reads first child element of the current element as a document.
+   * @return document or <code>null</code> if no child element
+   * @throws XMLStreamException if error reading stream
+   */
+  private Document readEmbeddedDocument() throws XMLStreamException {
+    Document doc = null;
+    while (nextChild()) {
+      if (doc==null) {
+        doc = readDocument();
+      } else {
+        skipElement();
+      }
+    }
+    return doc;
+  }
+  
+  /**
+   * Reads first child element of the current element as a fragment.
+   * @return fragment or <code>null</code> if no child element
+   * @throws XMLStreamException if error reading stream
+   */
+  private MetadataFragment readEmbeddedFragment() throws XMLStreamException {
+    MetadataFragment fragment = null;
+    while (nextChild()) {
+      if (fragment==null) {
+        fragment = readFragment();
+      } else {
+        skipElement();
+      }
+    }
+    return fragment;
+  }
+  
+  /**
+   * Copies the current element as UTF-8 encoded bytes.
+   * <p>
+   * Writer repairs namespaces, thus the fragment is self-contained even if 
+   * namespaces are declared by the ancestors of the element.
+   * @return fragment
+   * @throws XMLStreamException if error reading stream
+   */
+  private MetadataFragment readFragment() throws XMLStreamException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XMLStreamWriter writer = FRAGMENT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+    int depth = 0;
+    do {
+      switch (reader.getEventType()) {
+        case XMLStreamConstants.START_ELEMENT:
+          writer.writeStartElement(StringUtils.defaultString(reader.getPrefix()), reader.getLocalName(), StringUtils.defaultString(reader.getNamespaceURI()));
+          for (int i=0; i<reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            if (StringUtils.isEmpty(prefix)) {
+              writer.writeDefaultNamespace(StringUtils.defaultString(reader.getNamespaceURI(i)));
+            } else {
+              writer.writeNamespace(prefix, StringUtils.defaultString(reader.getNamespaceURI(i)));
+            }
+          }
+          for (int i=0; i<reader.getAttributeCount(); i++) {
+            writer.writeAttribute(StringUtils.defaultString(reader.getAttributePrefix(i)), StringUtils.defaultString(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+          }
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          writer.writeEndElement();
+          depth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+          writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          break;
+        case XMLStreamConstants.CDATA:
+          writer.writeCData(reader.getText());
+          break;
+        case XMLStreamConstants.COMMENT:
+          writer.writeComment(reader.getText());
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+          break;
+      }
+    } while (depth > 0 && reader.next() != XMLStreamConstants.END_DOCUMENT);
+    writer.close();
+    return new MetadataFragment(out.toByteArray());
+  }
+  
+  /**
+   * Builds document of the current element.
+   * @return document
+   * @throws XMLStreamException if error reading stream
+   */
+  private Document readDocument() throws XMLStreamException {
+    Document doc = XmlUtils.newDocument();
+    Node parent = doc;
+    int depth = 0;
+    do {
+      switch (reader.getEventType()) {
+        case XMLStreamConstants.START_ELEMENT:
+          Element element = doc.createElementNS(StringUtils.trimToNull(reader.getNamespaceURI()), qname(reader.getPrefix(), reader.getLocalName()));
+          for (int i=0; i<reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, qname(XMLConstants.XMLNS_ATTRIBUTE, prefix), StringUtils.defaultString(reader.getNamespaceURI(i)));
+          }
+          for (int i=0; i<reader.getAttributeCount(); i++) {
+            element.setAttributeNS(StringUtils.trimToNull(reader.getAttributeNamespace(i)), qname(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+          }
+          parent.appendChild(element);
+          parent = element;
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          parent = parent.getParentNode();
+          depth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+          // text might be reported in chunks
+          Node last = parent.getLastChild();
+          if (last!=null && last.getNodeType()==Node.TEXT_NODE) {
+            ((Text)last).appendData(reader.getText());
+          } else {
+            parent.appendChild(doc.createTextNode(reader.getText()));
+          }
+          break;
+        case XMLStreamConstants.CDATA:
+          parent.appendChild(doc.createCDATASection(reader.getText()));
+          break;
+        case XMLStreamConstants.COMMENT:
+          parent.appendChild(doc.createComment(reader.getText()));
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          parent.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+          break;
+      }
+    } while (depth > 0 && reader.next() != XMLStreamConstants.END_DOCUMENT);
+    return doc;
+  }
+  
+  private static XMLOutputFactory newFragmentFactory() {
+    XMLOutputFactory factory = XMLOutputFactory.newFactory();
+    factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+    return factory;
+  }
+  
+  private static String qname(String prefix, String localName) {
+    if (StringUtils.isEmpty(localName)) {
+      return prefix;
+    }
+    return !StringUtils.isEmpty(prefix)? prefix + ":" + localName: localName;
+  }
+  
+  /**
+   * Response content.
+   */
+  private static class Content {
+    final Map<String, String> values = new HashMap<>();
+    final List<String> adminEmail = new ArrayList<>();
+    final List<Compression> compression = new ArrayList<>();
+    final List<Document> descriptions = new ArrayList<>();
+    final List<MetadataFormat> formats = new ArrayList<>();
+    final List<Set> sets = new ArrayList<>();
+    final List<Header> headers = new ArrayList<>();
+    final List<Record> records = new ArrayList<>();
+    final Consumer<Header> headerConsumer;
+    final Consumer<Record> recordConsumer;
+    ResumptionToken resumptionToken;
+
+    Content(Consumer<Header> headerConsumer, Consumer<Record> recordConsumer) {
+      this.headerConsumer = headerConsumer;
+      this.recordConsumer = recordConsumer;
+    }
+    
+    String value(String name) {
+      return values.getOrDefault(name, "");
+    }
+    
+    void add(Header header) {
+      if (headerConsumer!=null) {
+        headerConsumer.accept(header);
+      } else {
+        headers.add(header);
+      }
+    }
+    
+    void add(Record record) {
+      if (recordConsumer!=null) {
+        recordConsumer.accept(record);
+      } else {
+        records.add(record);
+      }
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.panforge.demeter.core.api.Config;
+import com.panforge.demeter.core.api.Context;
+import com.panforge.demeter.core.api.JsonResponseFactory;
+import com.panforge.demeter.core.api.JsonResponseParser;
+import com.panforge.demeter.core.model.ErrorCode;
+import com.panforge.demeter.core.model.ErrorInfo;
+import com.panforge.demeter.core.model.ResumptionToken;
+import com.panforge.demeter.core.model.request.IdentifyRequest;
+import com.panforge.demeter.core.model.request.ListRecordsRequest;
+import com.panforge.demeter.core.model.response.ErrorResponse;
+import com.panforge.demeter.core.model.response.IdentifyResponse;
+import com.panforge.demeter.core.model.response.ListRecordsResponse;
+import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFragment;
+import com.panforge.demeter.core.model.response.elements.Record;
+import com.panforge.demeter.core.utils.XmlParsers;
+import static com.panforge.demeter.core.DocumentSamples.*;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.w3c.dom.Document;
+
+/**
+ * JSON response parser unit test.
+ */
+public class JsonResponseParserTest {
+  private static Config config;
+  private static JsonResponseFactory f;
+  private static JsonResponseParser parser;
+  
+  @BeforeClass
+  public static void initClass() {
+    config = new Config();
+    config.repositoryName = "Sample";
+    config.baseURL = "http://localhost/oaipmh";
+    config.adminEmail = new String[] { "somebody@company.com", "anubody@company.com" };
+    config.deletedRecord = Config.Deletion.Persistent;
+    
+    f = new JsonResponseFactory(new Context(config));
+    parser = new JsonResponseParser();
+  }
+  
+  @Test
+  public void testListRecordsResponse() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai_dc", null, null, null);
+    
+    Header header = new Header(URI.create("oai:sample:1"), OffsetDateTime.now(), new String[] { "music" }, false);
+    Header deleted = new Header(URI.create("oai:sample:2"), OffsetDateTime.now(), null, true);
+    MetadataFragment fragment = new MetadataFragment("<dc:title>Title</dc:title>".getBytes(StandardCharsets.UTF_8), Collections.singletonMap("dc", "http://purl.org/dc/elements/1.1/"));
+    
+    Record [] records = new Record[] {
+      new Record(header, oai_dc(), new Document[]{rfc_1807()}),
+      new Record(header, null, fragment, null),
+      new Record(deleted, null, null)
+    };
+    ResumptionToken resumptionToken = new ResumptionToken("token", OffsetDateTime.now(), 300L, 0L);
+    ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), records, resumptionToken);
+    
+    ListRecordsResponse parsed = (ListRecordsResponse)parser.parse(f.createListRecordsResponse(response));
+    
+    assertNotNull("No parsed response", parsed);
+    assertEquals("Invalid verb", "ListRecords", parsed.getParameter("verb"));
+    assertEquals("Invalid number of records", 3, parsed.records.length);
+    assertEquals("Different header", header, parsed.records[0].header);
+    assertNotNull("No metadata", parsed.records[0].metadata);
+    assertEquals("No about", 1, parsed.records[0].about.length);
+    assertEquals("Invalid fragment metadata", "http://purl.org/dc/elements/1.1/", parsed.records[1].metadata.getDocumentElement().getNamespaceURI());
+    assertTrue("Not deleted", parsed.records[2].header.deleted);
+    assertNull("Metadata of deleted record", parsed.records[2].metadata);
+    assertEquals("Different resumption token", resumptionToken, parsed.resumptionToken);
+  }
+  
+  @Test
+  public void testMetadataNotModified() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai_dc", null, null, null);
+    
+    Header header = new Header(URI.create("oai:sample:1"), OffsetDateTime.now(), null, false);
+    Document metadata = XmlParsers.builder().parse(new ByteArrayInputStream((
+            "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:x=\"http://unknown.org/x/\">"
+                    + "<dc:title>Title</dc:title>"
+                    + "<x:unknown>Unknown</x:unknown>"
+                    + "</oai_dc:dc>").getBytes(StandardCharsets.UTF_8)));
+    
+    Record [] records = new Record[] { new Record(header, metadata, null) };
+    ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), records, null);
+    
+    ListRecordsResponse parsed = (ListRecordsResponse)parser.parse(f.createListRecordsResponse(response));
+    
+    assertEquals("Not sanitized", 0, parsed.records[0].metadata.getElementsByTagNameNS("http://unknown.org/x/", "unknown").getLength());
+    assertEquals("Metadata modified", 1, metadata.getElementsByTagNameNS("http://unknown.org/x/", "unknown").getLength());
+  }
+  
+  @Test(expected = JsonParseException.class)
+  public void testMissingIdentifier() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai_dc", null, null, null);
+    
+    Header header = new Header(URI.create("oai:sample:1"), OffsetDateTime.now(), null, true);
+    ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), new Record[] { new Record(header, null, null) }, null);
+    String json = f.createListRecordsResponse(response).replaceAll("\"identifier\"\\s*:\\s*\"[^\"]*\"\\s*,", "");
+    
+    parser.parse(json);
+  }
+  
+  @Test
+  public void testIdentifyResponse() throws Exception {
+    IdentifyRequest request = new IdentifyRequest();
+    IdentifyResponse response = IdentifyResponse.createFromConfig(request.getParameters(), OffsetDateTime.now(), config, new Document[]{ oai_identifier() });
+    
+    IdentifyResponse parsed = (IdentifyResponse)parser.parse(f.createIdentifyResponse(response));
+    
+    assertNotNull("No parsed response", parsed);
+    assertEquals("Different repositoryName", response.repositoryName, parsed.repositoryName);
+    assertEquals("Different baseURL", response.baseURL, parsed.baseURL);
+    assertArrayEquals("Different adminEmail", response.adminEmail, parsed.adminEmail);
+    assertArrayEquals("Different compression", response.compression, parsed.compression);
+    assertEquals("Different deletedRecord", response.deletedRecord, parsed.deletedRecord);
+    assertEquals("Different earliestDatestamp", parsed.earliestDatestamp.format(DateTimeFormatter.ISO_DATE), response.earliestDatestamp.format(DateTimeFormatter.ISO_DATE));
+    assertEquals("Invalid number of descriptions", 1, parsed.descriptions.length);
+  }
+  
+  @Test
+  public void testErrorResponse() throws Exception {
+    ErrorInfo [] errors = new ErrorInfo[] { new ErrorInfo(ErrorCode.badArgument, "Invalid argument") };
+    
+    ErrorResponse parsed = (ErrorResponse)parser.parse(f.createErrorResponse(OffsetDateTime.now(), null, errors));
+    
+    assertNotNull("No parsed response", parsed);
+    assertEquals("Invalid number of errors", 1, parsed.errors.length);
+    assertEquals("Invalid error code", ErrorCode.badArgument, parsed.errors[0].errorCode);
+  }
+}
@@ -146,4 +146,14 @@ public class RequestParserTest {
     assertEquals("Invalid result", Verb.ListSets, request.verb);
     assertEquals("Invalid resumptionToken", "token", request.getResumptionToken());
   }
+  
+  @Test(expected = ProtocolException.class)
+  public void testGetRecordExceptionDuplicatedArgument() throws ProtocolException {
+    p.parse("verb=GetRecord&identifier=urn:isbn:096139210x&metadataPrefix=pfx&METADATAPREFIX=pfx");
+  }
+  
+  @Test(expected = ProtocolException.class)
+  public void testGetRecordExceptionUnrecognizedArgument() throws ProtocolException {
+    p.parse("verb=GetRecord&identifier=urn:isbn:096139210x&metadataPrefix=pfx&set=a");
+  }
 }
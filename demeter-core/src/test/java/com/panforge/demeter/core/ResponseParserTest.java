@@ -34,13 +34,22 @@ import com.panforge.demeter.core.model.response.ListMetadataFormatsResponse;
 import com.panforge.demeter.core.model.response.ListRecordsResponse;
 import com.panforge.demeter.core.model.response.ListSetsResponse;
 import com.panforge.demeter.core.model.response.elements.MetadataFormat;
+import com.panforge.demeter.core.model.response.elements.MetadataFragment;
 import com.panforge.demeter.core.model.response.elements.Record;
 import com.panforge.demeter.core.model.response.elements.Set;
+import com.panforge.demeter.core.utils.XmlUtils;
 import static com.panforge.demeter.core.DocumentSamples.*;
+import java.io.ByteArrayInputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.parsers.ParserConfigurationException;
 import org.junit.Test;
 import org.junit.BeforeClass;
@@ -120,6 +129,110 @@ public class ResponseParserTest {
     assertTrue("No about", parsed.records[0].about.length > 0);
   }
   
+  @Test
+  public void testCreateListRecordsResponseWithFragment() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai", null, null, null);
+    
+    Header header = new Header(URI.create("identifier"), OffsetDateTime.now(), new String[] { "music" }, false);
+    
+    Record record = new Record(header, null, MetadataFragment.of(oai_dc()), null);
+    
+    ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), new Record[] { record }, null);
+    
+    String rsp = f.createListRecordsResponse(response);
+    
+    ListRecordsResponse parsed = (ListRecordsResponse)parser.parse(rsp);
+    assertNotNull("No parsed response", parsed);
+    assertNotNull("No records", parsed.records);
+    assertEquals("Invalid number of records", 1, parsed.records.length);
+    assertNotNull("No metadata", parsed.records[0].metadata);
+    assertEquals("Invalid metadata", oai_dc().getDocumentElement().getLocalName(), parsed.records[0].metadata.getDocumentElement().getLocalName());
+  }
+  
+  @Test
+  public void testStreamListRecordsResponse() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai", null, null, null);
+    Record [] records = new Record[20];
+    for (int i = 0; i < records.length; i++) {
+      Header header = new Header(URI.create("identifier-" + i), OffsetDateTime.now(), new String[] { "music" }, false);
+      records[i] = new Record(header, oai_dc(), new Document[]{rfc_1807()});
+    }
+    ResumptionToken resumptionToken = new ResumptionToken("token", OffsetDateTime.now(), 300L, 0L);
+    ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), records, resumptionToken);
+    String rsp = f.createListRecordsResponse(response);
+    
+    List<Record> streamed = new ArrayList<>();
+    ListRecordsResponse parsed = (ListRecordsResponse)parser.parse(new ByteArrayInputStream(rsp.getBytes(StandardCharsets.UTF_8)), null, streamed::add);
+    
+    assertNotNull("No parsed response", parsed);
+    assertEquals("Records collected", 0, parsed.records.length);
+    assertEquals("Invalid number of records", records.length, streamed.size());
+    assertEquals("Different header", records[records.length - 1].header, streamed.get(records.length - 1).header);
+    assertNotNull("No metadata", streamed.get(0).metadata);
+    assertEquals("Invalid metadata", oai_dc().getDocumentElement().getLocalName(), streamed.get(0).metadata.getDocumentElement().getLocalName());
+    assertEquals("Different resumption token", resumptionToken, parsed.resumptionToken);
+  }
+  
+  @Test
+  public void testLazyMetadata() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai", null, null, null);
+    Header header = new Header(URI.create("identifier"), OffsetDateTime.now(), new String[] { "music" }, false);
+    Record record = new Record(header, oai_dc(), new Document[]{rfc_1807()});
+    ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), new Record[] { record }, null);
+    String rsp = f.createListRecordsResponse(response);
+    
+    ResponseParser lazyParser = new ResponseParser(true);
+    Record streamed = ((ListRecordsResponse)lazyParser.parse(rsp)).records[0];
+    Record parsed = ((ListRecordsResponse)lazyParser.parse(XmlUtils.parseToXml(rsp))).records[0];
+    
+    for (Record lazy: new Record[] { streamed, parsed }) {
+      assertNull("Metadata built eagerly", lazy.metadata);
+      assertNotNull("No metadata fragment", lazy.metadataFragment);
+      Document metadata = lazy.getMetadata();
+      assertEquals("Invalid metadata", oai_dc().getDocumentElement().getLocalName(), metadata.getDocumentElement().getLocalName());
+      assertEquals("Invalid metadata namespace", oai_dc().getDocumentElement().getNamespaceURI(), metadata.getDocumentElement().getNamespaceURI());
+      assertSame("Metadata not reused", metadata, lazy.getMetadata());
+      
+      // fragment is served as is
+      String served = f.createListRecordsResponse(new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), new Record[] { lazy }, null));
+      Record reparsed = ((ListRecordsResponse)parser.parse(served)).records[0];
+      assertEquals("Invalid served metadata", oai_dc().getDocumentElement().getLocalName(), reparsed.metadata.getDocumentElement().getLocalName());
+    }
+  }
+  
+  @Test
+  public void testConcurrentParsing() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai", null, null, null);
+    Record [] records = new Record[20];
+    for (int i = 0; i < records.length; i++) {
+      Header header = new Header(URI.create("identifier-" + i), OffsetDateTime.now(), new String[] { "music" }, false);
+      records[i] = new Record(header, oai_dc(), new Document[]{rfc_1807()});
+    }
+    ResumptionToken resumptionToken = new ResumptionToken("token", OffsetDateTime.now(), 300L, 0L);
+    ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), records, resumptionToken);
+    String rsp = f.createListRecordsResponse(response);
+    
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < threads * 25; i++) {
+        results.add(executor.submit(() -> {
+          ListRecordsResponse parsed = (ListRecordsResponse)parser.parse(rsp);
+          return parsed.records.length == records.length
+                  && parsed.records[records.length - 1].header.identifier.equals(records[records.length - 1].header.identifier)
+                  && parsed.records[0].metadata != null
+                  && "token".equals(parsed.resumptionToken.value);
+        }));
+      }
+      for (Future<Boolean> result: results) {
+        assertTrue("Invalid response parsed concurrently", result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
   @Test
   public void testIdentifyResponse() throws Exception {
     IdentifyRequest request = new IdentifyRequest();
@@ -165,6 +278,31 @@ public class ResponseParserTest {
     assertEquals("Different resumption token", resumptionToken, parsed.resumptionToken);
   }
   
+  @Test
+  public void testParseListRecordsDocument() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai", null, null, null);
+    
+    Header header = new Header(URI.create("identifier"), OffsetDateTime.now(), new String[] { "music", "art" }, true);
+    
+    Record record = new Record(header, oai_dc(), new Document[]{rfc_1807()});
+    
+    ResumptionToken resumptionToken = new ResumptionToken("token", OffsetDateTime.now(), 300L, 0L);
+    
+    ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), new Record[] { record }, resumptionToken);
+    
+    String rsp = f.createListRecordsResponse(response);
+    
+    ListRecordsResponse parsed = (ListRecordsResponse)parser.parse(XmlUtils.parseToXml(rsp));
+    assertNotNull("No parsed response", parsed);
+    assertEquals("Invalid number of records", 1, parsed.records.length);
+    assertEquals("Different header", header, parsed.records[0].header);
+    assertNotNull("No metadata", parsed.records[0].metadata);
+    assertEquals("Invalid metadata", oai_dc().getDocumentElement().getLocalName(), parsed.records[0].metadata.getDocumentElement().getLocalName());
+    assertEquals("Invalid number of about", 1, parsed.records[0].about.length);
+    assertEquals("Different resumption token", resumptionToken, parsed.resumptionToken);
+    assertEquals("Different metadata prefix", "oai", parsed.getParameter("metadataPrefix"));
+  }
+  
   @Test
   public void testCreateListMetadataFormatsResponse() throws Exception {
     ListMetadataFormatsRequest request = new ListMetadataFormatsRequest(null);
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import com.panforge.demeter.core.content.Filter;
+import java.net.URI;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Piotr Andzel
+ */
+public class CompactPageCursorCodecTest {
+  private final CompactPageCursorCodec codec = new CompactPageCursorCodec();
+  
+  public CompactPageCursorCodecTest() {
+  }
+
+  @Test
+  public void testKeysetRoundTrip() {
+    OffsetDateTime from = OffsetDateTime.of(2019, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    OffsetDateTime datestamp = OffsetDateTime.of(2019, 6, 15, 12, 30, 0, 0, ZoneOffset.UTC);
+    Filter filter = new Filter(from, null, "oai_dc", "main");
+    DefaultPageCursor pageCursor = DefaultPageCursor.keyset(filter, datestamp, URI.create("urn:uuid:a4f7e2b0-0e1c-4a4b-9d5e-7c1f00000001"), 12345);
+    
+    String encoded = codec.toString(pageCursor);
+    assertTrue("Not Base64url", encoded.matches("[A-Za-z0-9_-]+"));
+    assertTrue("Not compact", encoded.length() < new DefaultPageCursorCodec().toString(pageCursor).length());
+    
+    DefaultPageCursor decoded = codec.fromString(encoded);
+    assertNotNull("Not decoded", decoded);
+    assertTrue("Not a keyset cursor", decoded.keyset());
+    assertEquals("Invalid cursor", 12345, decoded.cursor());
+    assertEquals("Invalid identifier", pageCursor.identifier, decoded.identifier);
+    assertTrue("Invalid datestamp", datestamp.isEqual(decoded.toDatestamp()));
+    
+    Filter decodedFilter = decoded.toFilter();
+    assertTrue("Invalid from", from.isEqual(decodedFilter.from));
+    assertNull("Invalid until", decodedFilter.until);
+    assertEquals("Invalid metadata prefix", "oai_dc", decodedFilter.metadataPrefix);
+    assertEquals("Invalid set", "main", decodedFilter.set);
+  }
+
+  @Test
+  public void testDataRoundTrip() {
+    DefaultPageCursor pageCursor = new DefaultPageCursor();
+    pageCursor.data = Base64.getEncoder().encodeToString(new byte[]{0, 1, 2, -1, -2, 127, 64, 32, 16, 8});
+    pageCursor.cursor = -7L;
+    DefaultPageCursor decoded = codec.fromString(codec.toString(pageCursor));
+    assertEquals("Invalid data", pageCursor.data, decoded.data);
+    assertEquals("Invalid cursor", -7, decoded.cursor());
+    assertFalse("Not a keyset cursor", decoded.keyset());
+    
+    pageCursor.data = "not base64 at all!";
+    decoded = codec.fromString(codec.toString(pageCursor));
+    assertEquals("Invalid opaque data", pageCursor.data, decoded.data);
+  }
+
+  @Test
+  public void testInvalidInput() {
+    assertNull("Decoded garbage", codec.fromString("%%%"));
+    assertNull("Decoded empty", codec.fromString(""));
+    String encoded = codec.toString(DefaultPageCursor.keyset(new Filter(null, null, "oai_dc", null), OffsetDateTime.now(), URI.create("urn:a"), 10));
+    assertNull("Decoded truncated", codec.fromString(encoded.substring(0, encoded.length() - 2)));
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import com.panforge.demeter.core.api.Config.Compression;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compressing output stream test.
+ */
+public class CompressingOutputStreamTest {
+  private static final Compression [] AVAILABLE = new Compression[]{Compression.Gzip, Compression.Deflate};
+  
+  @Test
+  public void testNegotiate() {
+    assertEquals("Invalid compression", Compression.Identity, Compression.negotiate(null, AVAILABLE));
+    assertEquals("Invalid compression", Compression.Gzip, Compression.negotiate("gzip, deflate", AVAILABLE));
+    assertEquals("Invalid compression", Compression.Deflate, Compression.negotiate("gzip;q=0.5, deflate", AVAILABLE));
+    assertEquals("Invalid compression", Compression.Gzip, Compression.negotiate("x-gzip", AVAILABLE));
+    assertEquals("Invalid compression", Compression.Gzip, Compression.negotiate("*", AVAILABLE));
+    assertEquals("Invalid compression", Compression.Identity, Compression.negotiate("gzip;q=0, deflate;q=0", AVAILABLE));
+    assertEquals("Invalid compression", Compression.Identity, Compression.negotiate("compress, br", Compression.values()));
+  }
+  
+  @Test
+  public void testCompressAboveThreshold() throws IOException {
+    String data = StringUtils.repeat("<record>data</record>", 1000);
+    for (Compression compression: AVAILABLE) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      AtomicReference<Compression> applied = new AtomicReference<>();
+      CompressingOutputStream stream = new CompressingOutputStream(out, compression, 1024, applied::set);
+      stream.write(data.getBytes(StandardCharsets.UTF_8));
+      stream.flush();
+      stream.finish();
+      
+      assertEquals("Compression not applied", compression, applied.get());
+      assertTrue("Data not compressed", out.size() < data.length() / 10);
+      InputStream in = new ByteArrayInputStream(out.toByteArray());
+      in = compression == Compression.Gzip? new GZIPInputStream(in): new InflaterInputStream(in);
+      assertEquals("Invalid decompressed data", data, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+  
+  @Test
+  public void testSkipBelowThreshold() throws IOException {
+    String data = "<small/>";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    AtomicReference<Compression> applied = new AtomicReference<>();
+    CompressingOutputStream stream = new CompressingOutputStream(out, Compression.Gzip, 1024, applied::set);
+    stream.write(data.getBytes(StandardCharsets.UTF_8));
+    stream.flush();
+    assertEquals("Data written before finish", 0, out.size());
+    stream.finish();
+    
+    assertNull("Compression applied", applied.get());
+    assertEquals("Invalid data", data, out.toString(StandardCharsets.UTF_8));
+  }
+}
@@ -16,6 +16,7 @@
 package com.panforge.demeter.core.utils;
 
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -36,6 +37,29 @@ public class DateTimeUtilsTest {
     assertEquals("Wrong timestamp", now, parsedTimestamp);
   }
 
+  @Test
+  public void testParseOaiTimestamp() throws Exception {
+    assertEquals("Wrong day", OffsetDateTime.of(2019, 2, 28, 0, 0, 0, 0, ZoneOffset.UTC), DateTimeUtils.parseTimestamp("2019-02-28"));
+    assertEquals("Wrong seconds", OffsetDateTime.of(2019, 2, 28, 13, 5, 9, 0, ZoneOffset.UTC), DateTimeUtils.parseTimestamp("2019-02-28T13:05:09Z"));
+    assertEquals("Wrong leap day", OffsetDateTime.of(2020, 2, 29, 0, 0, 0, 0, ZoneOffset.UTC), DateTimeUtils.parseTimestamp("2020-02-29"));
+  }
+
+  @Test
+  public void testParseIsoTimestamp() throws Exception {
+    assertEquals("Wrong local date time", OffsetDateTime.of(2019, 2, 28, 13, 5, 0, 0, ZoneOffset.UTC), DateTimeUtils.parseTimestamp("2019-02-28T13:05"));
+    assertEquals("Wrong offset date", OffsetDateTime.of(2019, 2, 28, 0, 0, 0, 0, ZoneOffset.ofHours(2)), DateTimeUtils.parseTimestamp("2019-02-28+02:00"));
+    assertEquals("Wrong fraction", OffsetDateTime.of(2019, 2, 28, 13, 5, 9, 500_000_000, ZoneOffset.ofHours(-5)), DateTimeUtils.parseTimestamp("2019-02-28T13:05:09.5-05:00"));
+  }
+
+  @Test
+  public void testTryParseInvalidTimestamp() throws Exception {
+    assertNull("Invalid day accepted", DateTimeUtils.tryParseTimestamp("2019-02-29"));
+    assertNull("Invalid hour accepted", DateTimeUtils.tryParseTimestamp("2019-02-28T24:00:00Z"));
+    assertNull("Invalid characters accepted", DateTimeUtils.tryParseTimestamp("2019-0a-28"));
+    assertNull("Trailing characters accepted", DateTimeUtils.tryParseTimestamp("2019-02-28Tx"));
+    assertNull("Empty timestamp accepted", DateTimeUtils.tryParseTimestamp(""));
+  }
+
   @Test(expected = Exception.class)
   public void testParseTimestampException() throws Exception {
     DateTimeUtils.parseRequestTimestamp("");
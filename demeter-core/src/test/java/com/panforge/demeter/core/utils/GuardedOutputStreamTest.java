@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Guarded output stream test.
+ */
+public class GuardedOutputStreamTest {
+  
+  @Test
+  public void testAbort() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GuardedOutputStream stream = new GuardedOutputStream(out);
+    stream.write("data".getBytes(StandardCharsets.UTF_8));
+    
+    assertTrue("Not aborted", stream.abort());
+    assertFalse("Aborted twice", stream.abort());
+    try {
+      stream.write('x');
+      fail("Written after abort");
+    } catch (IOException ex) {
+      // expected
+    }
+    assertEquals("Invalid content", "data", out.toString("UTF-8"));
+  }
+}
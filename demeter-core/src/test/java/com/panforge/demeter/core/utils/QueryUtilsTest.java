@@ -56,4 +56,23 @@ public class QueryUtilsTest {
     assertEquals("Invalid number of parameters", 1, params.size());
   }
   
+  @Test
+  public void testQueryToParamsDecoding() {
+    Map<String, String[]> params = QueryUtils.queryToParams("identifier=urn%3Aa%2Bb&set=a+b&bad=%zz");
+    
+    assertEquals("Invalid identifier", "urn:a+b", params.get("identifier")[0]);
+    assertEquals("Invalid set", "a b", params.get("set")[0]);
+    assertEquals("Invalid malformed value", "%zz", params.get("bad")[0]);
+  }
+  
+  @Test
+  public void testParseQualities() {
+    Map<String, Double> qualities = QueryUtils.parseQualities("Application/JSON;q=0.5, text/xml, gzip;q=x, text/xml;q=0.1");
+    
+    assertEquals("Invalid json quality", 0.5, qualities.get("application/json"), 0.0);
+    assertEquals("Invalid xml quality", 1.0, qualities.get("text/xml"), 0.0);
+    assertEquals("Invalid malformed quality", 0.0, qualities.get("gzip"), 0.0);
+    assertTrue("Qualities of missing header", QueryUtils.parseQualities(null).isEmpty());
+  }
+  
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Piotr Andzel
+ */
+public class XmlUtilsTest {
+  
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testParseFileWithBOM() throws Exception {
+    File file = folder.newFile("bom.xml");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] { (byte)0xEF, (byte)0xBB, (byte)0xBF });
+    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root>\u017C\u00F3\u0142w</root>".getBytes(StandardCharsets.UTF_8));
+    Files.write(file.toPath(), out.toByteArray());
+    
+    Document doc = XmlUtils.parseToXml(file);
+    
+    assertEquals("Invalid root", "root", doc.getDocumentElement().getNodeName());
+    assertEquals("Invalid content", "\u017C\u00F3\u0142w", doc.getDocumentElement().getTextContent());
+  }
+
+  @Test
+  public void testParseMappedFile() throws Exception {
+    File file = folder.newFile("large.xml");
+    StringBuilder xml = new StringBuilder("\uFEFF<root>");
+    int count = (int)(XmlUtils.MAPPING_THRESHOLD / 14) + 1;
+    for (int i=0; i<count; i++) {
+      xml.append("<item>").append(i % 10).append("</item>");
+    }
+    xml.append("</root>");
+    Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+    assertTrue("File too small", file.length() >= XmlUtils.MAPPING_THRESHOLD);
+    
+    Document doc = XmlUtils.parseToXml(file);
+    
+    assertEquals("Invalid number of items", count, doc.getDocumentElement().getElementsByTagName("item").getLength());
+  }
+  
+  @Test
+  public void testBlockExternalEntities() throws Exception {
+    long blocked = XmlParsers.entityResolver().getBlockedCount();
+    Document doc = XmlUtils.parseToXml("<?xml version=\"1.0\"?>"
+            + "<!DOCTYPE root SYSTEM \"http://localhost:1/root.dtd\" [<!ENTITY ext SYSTEM \"http://localhost:1/ext.txt\">]>"
+            + "<root>a&ext;b</root>");
+    
+    assertEquals("Invalid content", "ab", doc.getDocumentElement().getTextContent());
+    assertEquals("Invalid number of blocked resolutions", blocked + 2, XmlParsers.entityResolver().getBlockedCount());
+  }
+  
+}
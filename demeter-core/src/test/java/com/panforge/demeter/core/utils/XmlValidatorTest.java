@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Piotr Andzel
+ */
+public class XmlValidatorTest {
+  private static XmlValidator validator;
+  
+  @BeforeClass
+  public static void initialize() {
+    validator = new XmlValidator();
+  }
+
+  @Test
+  public void testBundledSchemas() {
+    assertNotNull("Missing oai_dc", SchemaCatalog.offline().locate("http://www.openarchives.org/OAI/2.0/oai_dc.xsd"));
+    assertNotNull("Missing simpledc", SchemaCatalog.offline().locate("http://dublincore.org/schemas/xmls/simpledc20021212.xsd"));
+    assertNull("Unexpected schema", SchemaCatalog.offline().locate("http://www.openarchives.org/OAI/2.0/unknown.xsd"));
+  }
+
+  @Test
+  public void testValidOaiDc() throws Exception {
+    Document doc = XmlUtils.parseToXml(oaiDc("<dc:title xml:lang=\"en\">Title</dc:title><dc:creator>Creator</dc:creator>"));
+    
+    assertTrue("Not validated", validator.validate(doc));
+    assertTrue("Not validated", validator.validate(doc));
+  }
+
+  @Test(expected = SAXException.class)
+  public void testInvalidOaiDc() throws Exception {
+    Document doc = XmlUtils.parseToXml(oaiDc("<dc:title><dc:creator>Creator</dc:creator></dc:title>"));
+    
+    validator.validate(doc);
+  }
+
+  @Test
+  public void testUnknownNamespace() throws Exception {
+    Document doc = XmlUtils.parseToXml("<x:root xmlns:x=\"urn:unknown\"><x:any/></x:root>");
+    
+    assertFalse("Unexpected validation", validator.validate(doc));
+  }
+  
+  private static String oaiDc(String content) {
+    return "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">" + content + "</oai_dc:dc>";
+  }
+}
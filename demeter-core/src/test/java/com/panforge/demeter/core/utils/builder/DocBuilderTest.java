@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils.builder;
+
+import com.panforge.demeter.core.utils.XmlUtils;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Piotr Andzel
+ */
+public class DocBuilderTest {
+
+  @Test
+  public void testNestedSkippedChildren() throws Exception {
+    String xml = new DocBuilder().begin()
+            .child("ListRecords")
+              .child("record", DocBuilder.FALSE)
+                .child("header")
+                  .child("identifier").value("skipped").done()
+                .done()
+                .child("metadata").done()
+              .done()
+              .child("record")
+                .child("header").done()
+              .done()
+            .done()
+            .end();
+    
+    Document doc = XmlUtils.parseToXml(xml);
+    Element listRecords = (Element)doc.getDocumentElement().getElementsByTagName("ListRecords").item(0);
+    
+    assertNotNull("Missing ListRecords", listRecords);
+    assertEquals("Invalid number of records", 1, listRecords.getElementsByTagName("record").getLength());
+    assertEquals("Skipped content present", 0, doc.getElementsByTagName("identifier").getLength());
+    assertEquals("Invalid header parent", "record", doc.getElementsByTagName("header").item(0).getParentNode().getNodeName());
+  }
+
+  @Test
+  public void testSkippedChildReused() {
+    DocNode root = new DocBuilder().begin();
+    
+    DocNode first = root.child("first", DocBuilder.FALSE);
+    assertSame("Not returned to the parent", root, first.done());
+    DocNode second = root.child("second", DocBuilder.FALSE);
+    assertSame("Skipped node not reused", first, second);
+    assertSame("Not returned to the parent", root, second.done());
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.core.utils.namespace;
+
+import com.panforge.demeter.core.utils.XmlUtils;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Namespace utils test.
+ */
+public class NamespaceUtilsTest {
+  private static final String DC = "http://purl.org/dc/elements/1.1/";
+  private static final String OAI_DC = "http://www.openarchives.org/OAI/2.0/oai_dc/";
+  private static final String FOREIGN = "http://example.com/foreign";
+
+  @Test
+  public void testSanitizeAndCollect() throws Exception {
+    Document doc = XmlUtils.newDocument();
+    Element root = doc.createElement("root");
+    doc.appendChild(root);
+    
+    Element parent = root;
+    for (int i=0; i<1000; i++) {
+      Element title = doc.createElementNS(DC, "dc:title");
+      title.setTextContent("title" + i);
+      parent.appendChild(title);
+      Element foreign = doc.createElementNS(FOREIGN, "fx:foreign");
+      foreign.appendChild(doc.createElementNS(DC, "dc:lost"));
+      parent.appendChild(foreign);
+      parent = title;
+    }
+    
+    Map<String, String> ndUris = NamespaceUtils.sanitizeAndCollect(root);
+    
+    assertEquals("Invalid namespaces", 1, ndUris.size());
+    assertEquals("Invalid namespace", DC, ndUris.get("dc"));
+    assertEquals("Foreign elements not removed", 0, doc.getElementsByTagNameNS(FOREIGN, "*").getLength());
+    assertEquals("Legitimate elements removed", 1000, doc.getElementsByTagNameNS(DC, "title").getLength());
+    assertEquals("Nested elements not removed", 0, doc.getElementsByTagNameNS(DC, "lost").getLength());
+  }
+
+  @Test
+  public void testGenerateSchemaLocation() throws Exception {
+    String schemaLocation = NamespaceUtils.generateSchemaLocation(Arrays.asList(OAI_DC, DC, FOREIGN));
+    
+    assertEquals("Invalid schema location", Namespaces.NSMAP.get(OAI_DC).toSchemaLocation(), schemaLocation);
+    assertSame("Schema location not reused", schemaLocation, NamespaceUtils.generateSchemaLocation(Arrays.asList(FOREIGN, DC, OAI_DC)));
+  }
+}
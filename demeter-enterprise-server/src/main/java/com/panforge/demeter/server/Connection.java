@@ -15,9 +15,11 @@
  */
 package com.panforge.demeter.server;
 
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Statement;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Connection.
@@ -37,6 +39,13 @@ public interface Connection {
    * @return result
    */
   ResultSet execute(Statement stmt);
+
+  /**
+   * Executes bound statement asynchronously.
+   * @param stmt statement
+   * @return completion stage of the result
+   */
+  CompletionStage<AsyncResultSet> executeAsync(Statement<?> stmt);
   
   /**
    * Prepares statement.
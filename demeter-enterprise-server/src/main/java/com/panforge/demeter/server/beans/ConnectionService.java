@@ -18,9 +18,11 @@ package com.panforge.demeter.server.beans;
 import com.panforge.demeter.server.Connection;
 import com.datastax.oss.driver.api.core.CqlIdentifier;
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Statement;
+import java.util.concurrent.CompletionStage;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
@@ -59,6 +61,11 @@ public class ConnectionService implements Connection {
   public ResultSet execute(Statement stmt) {
     return session.execute(stmt);
   }
+
+  @Override
+  public CompletionStage<AsyncResultSet> executeAsync(Statement<?> stmt) {
+    return session.executeAsync(stmt);
+  }
   
   @Override
   public PreparedStatement prepare(String cql) {
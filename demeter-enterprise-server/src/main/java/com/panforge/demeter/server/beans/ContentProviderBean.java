@@ -15,6 +15,8 @@
  */
 package com.panforge.demeter.server.beans;
 
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Row;
 import com.panforge.demeter.core.api.exception.CannotDisseminateFormatException;
@@ -44,8 +46,15 @@ import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.StreamSupport;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
@@ -59,12 +68,16 @@ import org.w3c.dom.Document;
 public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
 
   private static final Logger LOG = LoggerFactory.getLogger(ContentProviderBean.class);
+  /** maximum number of concurrent lookups, well below requests allowed per connection */
+  private static final int MAX_CONCURRENT_READS = 128;
 
   @Autowired
   private MetaProcessorService metadataProcessorService;
 
   @Autowired
   private Connection conn;
+  
+  private volatile PreparedStatement byIdentifier;
 
   @PostConstruct
   public void construct() {
@@ -87,9 +100,6 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
 
   @Override
   public Page<Set, DefaultPageCursor> listSets(DefaultPageCursor pageCursor, int pageSize) throws NoSetHierarchyException {
-    Row one = conn.execute("select counter from counter where table_name = 'sets'").one();
-    long total = one != null ? one.getLong("counter") : 0;
-
     ByteBuffer byteBuffer = extractPagingState(pageCursor);
     ResultSet rs = conn.execute(conn.prepare("select * from sets").bind().setPageSize(pageSize).setPagingState(byteBuffer));
 
@@ -106,9 +116,19 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
       }
     }
 
-    DefaultPageCursor nextPageCursor = createPageCursor(rs.getExecutionInfo().getPagingState(), total);
+    DefaultPageCursor nextPageCursor = createPageCursor(rs.getExecutionInfo().getPagingState(), cursor(pageCursor) + sets.size(), null);
+
+    return Page.of(sets, () -> count("sets"), Page.TotalKind.Exact, nextPageCursor);
+  }
+
+  private long count(String table) {
+    // counted only once per list, when the first page is served
+    Row one = conn.execute("select counter from counter where table_name = '" + table + "'").one();
+    return one != null ? one.getLong("counter") : 0;
+  }
 
-    return Page.of(sets, (pageCursor != null && pageCursor.cursor != null ? pageCursor.cursor : 0) + pageSize, nextPageCursor);
+  private long cursor(DefaultPageCursor pageCursor) {
+    return pageCursor != null ? pageCursor.cursor() : 0;
   }
 
   private ByteBuffer extractPagingState(DefaultPageCursor pageCursor) {
@@ -119,12 +139,13 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
     return ByteBuffer.wrap(Base64.decodeBase64(pageCursor.data));
   }
 
-  private DefaultPageCursor createPageCursor(ByteBuffer pagingState, long cursor) {
+  private DefaultPageCursor createPageCursor(ByteBuffer pagingState, long cursor, Filter filter) {
     if (pagingState == null) {
       return null;
     }
 
-    DefaultPageCursor pageCursor = new DefaultPageCursor();
+    // filter is not repeated by resumed requests, thus carried by the cursor
+    DefaultPageCursor pageCursor = new DefaultPageCursor().filter(filter);
     pageCursor.data = Base64.encodeBase64String(pagingState.array());
     pageCursor.cursor = cursor;
     return pageCursor;
@@ -148,16 +169,8 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
 
   @Override
   public Page<Header, DefaultPageCursor> listHeaders(Filter filter, DefaultPageCursor pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
-    try {
-      if (!StreamSupport.stream(listMetadataFormats(null).spliterator(), false).map(f -> f.metadataPrefix).anyMatch(p -> p.equals(filter.metadataPrefix))) {
-        throw new CannotDisseminateFormatException(String.format("Invalid metadata format prefix: '%s'", filter.metadataPrefix));
-      }
-    } catch (NoMetadataFormatsException | IdDoesNotExistException ex) {
-      throw new CannotDisseminateFormatException(String.format("Invalid metadata format prefix: '%s'", filter.metadataPrefix), ex);
-    }
-    
-    Row one = conn.execute("select counter from counter where table_name = 'records'").one();
-    long total = one != null ? one.getLong("counter") : 0;
+    Filter effective = pageCursor != null ? pageCursor.toFilter() : filter;
+    validateMetadataPrefix(effective);
 
     ByteBuffer byteBuffer = extractPagingState(pageCursor);
     ResultSet rs = conn.execute(conn.prepare("select id, identifier, date from records").bind().setPageSize(pageSize).setPagingState(byteBuffer));
@@ -178,9 +191,58 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
       }
     }
 
-    DefaultPageCursor nextPageCursor = createPageCursor(rs.getExecutionInfo().getPagingState(), total);
+    DefaultPageCursor nextPageCursor = createPageCursor(rs.getExecutionInfo().getPagingState(), cursor(pageCursor) + headers.size(), effective);
+
+    return Page.of(headers, () -> count("records"), Page.TotalKind.Exact, nextPageCursor);
+  }
+
+  @Override
+  public Page<Record, DefaultPageCursor> listRecords(Filter filter, DefaultPageCursor pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+    Filter effective = pageCursor != null ? pageCursor.toFilter() : filter;
+    validateMetadataPrefix(effective);
+
+    ByteBuffer byteBuffer = extractPagingState(pageCursor);
+    ResultSet rs = conn.execute(conn.prepare("select * from records").bind().setPageSize(pageSize).setPagingState(byteBuffer));
+
+    ArrayList<Row> rows = new ArrayList<>();
+    for (Row row : rs) {
+      rows.add(row);
+      if (rows.size() >= pageSize) {
+        break;
+      }
+    }
+
+    Map<UUID, List<String>> setSpecs = listSetSpecsFor(rows.stream().map(row -> row.getUuid("id")).collect(Collectors.toList()));
+    List<Record> records = rows.stream()
+            .map(row -> toRecord(URI.create(row.getString("identifier")), row, setSpecs))
+            .filter(r -> r != null)
+            .collect(Collectors.toList());
+
+    DefaultPageCursor nextPageCursor = createPageCursor(rs.getExecutionInfo().getPagingState(), cursor(pageCursor) + rows.size(), effective);
+
+    return Page.of(records, () -> count("records"), Page.TotalKind.Exact, nextPageCursor);
+  }
+
+  private void validateMetadataPrefix(Filter filter) throws CannotDisseminateFormatException {
+    try {
+      if (!StreamSupport.stream(listMetadataFormats(null).spliterator(), false).map(f -> f.metadataPrefix).anyMatch(p -> p.equals(filter.metadataPrefix))) {
+        throw new CannotDisseminateFormatException(String.format("Invalid metadata format prefix: '%s'", filter.metadataPrefix));
+      }
+    } catch (NoMetadataFormatsException | IdDoesNotExistException ex) {
+      throw new CannotDisseminateFormatException(String.format("Invalid metadata format prefix: '%s'", filter.metadataPrefix), ex);
+    }
+  }
 
-    return Page.of(headers, (pageCursor != null && pageCursor.cursor != null ? pageCursor.cursor : 0) + pageSize, nextPageCursor);
+  private Record toRecord(URI identifier, Row row, Map<UUID, List<String>> setSpecs) {
+    Document doc = metadataProcessorService.adopt(row);
+    if (doc == null) {
+      return null;
+    }
+    LocalDate localDate = row.getLocalDate("date");
+    List<String> sets = setSpecs.getOrDefault(row.getUuid("id"), Collections.emptyList());
+    String[] setsArray = !sets.isEmpty() ? sets.toArray(new String[sets.size()]) : null;
+    Header header = new Header(identifier, OffsetDateTime.ofInstant(localDate.atStartOfDay(ZoneId.systemDefault()).toInstant(), ZoneId.systemDefault()), setsArray, false);
+    return new Record(header, doc, null);
   }
 
   @Override
@@ -203,4 +265,80 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
 
     return record;
   }
+
+  @Override
+  public Map<URI, Record> readRecords(Collection<URI> identifiers, String metadataPrefix) {
+    // identifier is a secondary index which does not allow 'in'; lookups are issued concurrently instead
+    PreparedStatement statement = byIdentifier();
+    List<URI> pending = new ArrayList<>(identifiers);
+    Map<URI, Row> rows = new LinkedHashMap<>();
+    for (int start = 0; start < pending.size(); start += MAX_CONCURRENT_READS) {
+      Map<URI, CompletableFuture<AsyncResultSet>> lookups = new LinkedHashMap<>();
+      pending.subList(start, Math.min(start + MAX_CONCURRENT_READS, pending.size()))
+              .forEach(identifier -> lookups.put(identifier, conn.executeAsync(statement.bind(identifier.toString())).toCompletableFuture()));
+      for (Map.Entry<URI, CompletableFuture<AsyncResultSet>> lookup : lookups.entrySet()) {
+        // absent records are skipped; any failure fails the entire page
+        Row row = join(lookup.getValue()).one();
+        if (row != null) {
+          rows.put(lookup.getKey(), row);
+        }
+      }
+    }
+    if (rows.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    Map<UUID, List<String>> setSpecs = listSetSpecsFor(rows.values().stream().map(row -> row.getUuid("id")).collect(Collectors.toList()));
+
+    Map<URI, Record> records = new LinkedHashMap<>();
+    rows.forEach((identifier, row) -> {
+      Record record = toRecord(identifier, row, setSpecs);
+      if (record != null) {
+        records.put(identifier, record);
+      }
+    });
+
+    return records;
+  }
+
+  private PreparedStatement byIdentifier() {
+    if (byIdentifier == null) {
+      byIdentifier = conn.prepare("select * from records where identifier = ?");
+    }
+    return byIdentifier;
+  }
+  
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private Map<UUID, List<String>> listSetSpecsFor(List<UUID> recordIds) {
+    if (recordIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    // recordId is the partition key of collections, so both lookups can use 'in'
+    List<Row> collections = conn.execute("select recordId, setId from collections where recordId in (" + recordIds.stream().map(UUID::toString).collect(Collectors.joining(",")) + ")").all();
+    if (collections.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    String setIds = collections.stream().map(row -> row.getUuid("setId")).distinct().map(UUID::toString).collect(Collectors.joining(","));
+    Map<UUID, String> specs = new HashMap<>();
+    conn.execute("select id, setSpec from sets where id in (" + setIds + ")").forEach(row -> specs.put(row.getUuid("id"), row.getString("setSpec")));
+
+    Map<UUID, List<String>> setSpecs = new HashMap<>();
+    collections.forEach(row -> {
+      String setSpec = specs.get(row.getUuid("setId"));
+      if (setSpec != null) {
+        setSpecs.computeIfAbsent(row.getUuid("recordId"), id -> new ArrayList<>()).add(setSpec);
+      }
+    });
+    return setSpecs;
+  }
 }
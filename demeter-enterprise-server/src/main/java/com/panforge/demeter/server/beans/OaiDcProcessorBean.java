@@ -18,14 +18,13 @@ package com.panforge.demeter.server.beans;
 import com.datastax.oss.driver.api.core.cql.Row;
 import com.panforge.demeter.core.model.response.elements.MetadataFormat;
 import com.panforge.demeter.core.utils.SimpleNamespaceContext;
+import com.panforge.demeter.core.utils.XmlParsers;
 import com.panforge.demeter.core.utils.XmlUtils;
 import com.panforge.demeter.core.utils.namespace.NamespaceUtils;
 import com.panforge.demeter.server.MetaProcessor;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathFactory;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,21 +40,14 @@ public class OaiDcProcessorBean implements MetaProcessor {
 
   private static final Logger LOG = LoggerFactory.getLogger(OaiDcProcessorBean.class);
 
-  private final static XPathFactory XPATH_FACTORY = XPathFactory.newInstance();
-  private final static XPath XPATH = XPATH_FACTORY.newXPath();
-
-  static {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    XPATH.setNamespaceContext(new SimpleNamespaceContext()
-            .add("oai_dc", "http://www.openarchives.org/OAI/2.0/")
-            .add("dc", "http://purl.org/dc/elements/1.1/")
-            .add("dct", "http://purl.org/dc/terms/")
-            .add("dcmiBox", "http://dublincore.org/documents/2000/07/11/dcmi-box/")
-            .add("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#")
-            .add("ows", "http://www.opengis.net/ows")
-    );
-  }
+  private final static ThreadLocal<XPath> XPATH = XmlParsers.xpath(new SimpleNamespaceContext()
+          .add("oai_dc", "http://www.openarchives.org/OAI/2.0/")
+          .add("dc", "http://purl.org/dc/elements/1.1/")
+          .add("dct", "http://purl.org/dc/terms/")
+          .add("dcmiBox", "http://dublincore.org/documents/2000/07/11/dcmi-box/")
+          .add("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#")
+          .add("ows", "http://www.opengis.net/ows")
+  );
 
   private final static MetadataFormat OAI_DC = new MetadataFormat(
           "oai_dc",
@@ -15,11 +15,17 @@
  */
 package com.panforge.demeter.http.client;
 
+import com.panforge.demeter.core.api.JsonResponseParser;
+import com.panforge.demeter.core.api.ResponseFormat;
 import com.panforge.demeter.core.api.ResponseParser;
 import com.panforge.demeter.core.api.exception.ProtocolException;
 import com.panforge.demeter.core.model.request.Request;
+import com.panforge.demeter.core.model.response.GetRecordResponse;
+import com.panforge.demeter.core.model.response.ListRecordsResponse;
 import com.panforge.demeter.core.model.response.Response;
+import com.panforge.demeter.core.model.response.elements.Record;
 import com.panforge.demeter.core.utils.UnicodeBOMInputStream;
+import com.panforge.demeter.core.utils.XmlValidator;
 import com.panforge.robotstxt.client.HttpClientWrapper;
 import java.io.Closeable;
 import java.io.IOException;
@@ -43,6 +49,7 @@ import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
+import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
 /**
@@ -50,21 +57,60 @@ import org.xml.sax.SAXException;
  */
 public class Client implements Closeable {
 
-  private final ResponseParser parser = new ResponseParser();
+  private final ResponseParser parser;
+  private final JsonResponseParser jsonParser;
   private final CloseableHttpClient httpClient;
   private final URL url;
+  private final ResponseFormat format;
+  private XmlValidator validator;
+  private InvalidRecordListener invalidRecordListener;
 
   /**
    * Creates instance of the client.
+   * <p>
+   * Preferred format is only requested; response is always parsed according 
+   * to the content type actually returned by the server, thus servers not 
+   * supporting JSON still can be harvested.
    *
    * @param httpClient the HTTP client
    * @param url the end-point URL.
+   * @param format preferred response format
+   * @param lazyMetadata <code>true</code> to keep record metadata as raw bytes (see {@link Record#getMetadata()})
    */
-  public Client(CloseableHttpClient httpClient, URL url) {
+  public Client(CloseableHttpClient httpClient, URL url, ResponseFormat format, boolean lazyMetadata) {
     this.httpClient = httpClient;
     this.url = url;
+    this.format = format;
+    this.parser = new ResponseParser(lazyMetadata);
+    this.jsonParser = new JsonResponseParser(lazyMetadata);
     Validate.notNull(httpClient, "Missing HTTP client");
     Validate.notNull(url, "Missing end-point url");
+    Validate.notNull(format, "Missing response format");
+  }
+
+  /**
+   * Creates instance of the client.
+   * <p>
+   * Preferred format is only requested; response is always parsed according 
+   * to the content type actually returned by the server, thus servers not 
+   * supporting JSON still can be harvested.
+   *
+   * @param httpClient the HTTP client
+   * @param url the end-point URL.
+   * @param format preferred response format
+   */
+  public Client(CloseableHttpClient httpClient, URL url, ResponseFormat format) {
+    this(httpClient, url, format, false);
+  }
+
+  /**
+   * Creates instance of the client.
+   *
+   * @param httpClient the HTTP client
+   * @param url the end-point URL.
+   */
+  public Client(CloseableHttpClient httpClient, URL url) {
+    this(httpClient, url, ResponseFormat.Xml);
   }
 
   /**
@@ -86,6 +132,22 @@ public class Client implements Closeable {
     this(url, false);
   }
 
+  /**
+   * Sets validator of the harvested metadata.
+   * <p>
+   * When set, metadata of each record returned by GetRecord and ListRecords
+   * is validated against the schemas of its namespaces. Records failing the
+   * validation are reported to the listener and remain in the response, thus
+   * a single invalid record doesn't prevent harvesting the rest of the list.
+   * @param validator validator or <code>null</code> to skip validation
+   * @param invalidRecordListener listener of invalid records
+   */
+  public void setValidator(XmlValidator validator, InvalidRecordListener invalidRecordListener) {
+    Validate.isTrue(validator == null || invalidRecordListener != null, "Missing invalid record listener");
+    this.validator = validator;
+    this.invalidRecordListener = invalidRecordListener;
+  }
+
   /**
    * Executes request.
    *
@@ -113,6 +175,9 @@ public class Client implements Closeable {
     URI requestUri = builder.build();
 
     HttpGet httpRequest = new HttpGet(requestUri);
+    if (format == ResponseFormat.Json) {
+      httpRequest.setHeader("Accept", String.format("%s, %s;q=0.5", ResponseFormat.Json.contentType, ResponseFormat.Xml.contentType));
+    }
 
     try (CloseableHttpResponse httpResponse = httpClient.execute(httpRequest); InputStream httpStream = new UnicodeBOMInputStream(httpResponse.getEntity().getContent());) {
       if (httpResponse.getStatusLine().getStatusCode() == 429 || httpResponse.getStatusLine().getStatusCode() == 503) {
@@ -134,7 +199,15 @@ public class Client implements Closeable {
         throw new HttpResponseException(httpResponse.getStatusLine().getStatusCode(), httpResponse.getStatusLine().getReasonPhrase());
       }
       
-      return parser.parse(httpStream);
+      org.apache.http.Header contentType = httpResponse.getEntity().getContentType();
+      Response<? extends Request> response;
+      if (contentType != null && contentType.getValue().startsWith(ResponseFormat.Json.contentType)) {
+        response = jsonParser.parse(httpStream);
+      } else {
+        response = parser.parse(httpStream);
+      }
+      validate(response);
+      return response;
     }
   }
 
@@ -143,6 +216,39 @@ public class Client implements Closeable {
     httpClient.close();
   }
 
+  private void validate(Response<? extends Request> response) {
+    if (validator == null) {
+      return;
+    }
+    Record[] records = response instanceof GetRecordResponse? new Record[] { ((GetRecordResponse)response).record }:
+            response instanceof ListRecordsResponse? ((ListRecordsResponse)response).records: null;
+    if (records != null) {
+      for (Record record: records) {
+        try {
+          Document metadata = record != null? record.getMetadata(): null;
+          if (metadata != null) {
+            validator.validate(metadata);
+          }
+        } catch (IOException|SAXException ex) {
+          invalidRecordListener.invalid(record, ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Listener of records failing the validation.
+   */
+  @FunctionalInterface
+  public interface InvalidRecordListener {
+    /**
+     * Called for each record failing the validation.
+     * @param record invalid record
+     * @param error validation error
+     */
+    void invalid(Record record, Exception error);
+  }
+
   private Date getRetryAfter(HttpResponse response) {
     org.apache.http.Header retryAfterHeader = response.getFirstHeader("Retry-After");
     if (retryAfterHeader != null) {
@@ -46,14 +46,18 @@ import com.panforge.demeter.core.model.response.elements.Header;
 import com.panforge.demeter.core.model.response.elements.MetadataFormat;
 import com.panforge.demeter.core.model.response.elements.Record;
 import com.panforge.demeter.core.model.response.elements.Set;
+import com.panforge.demeter.core.utils.XmlValidator;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 /**
@@ -142,6 +146,25 @@ public class ClientTest {
     assertEquals("Invalid verb", Verb.ListRecords.name(), response.getParameter("verb"));
   }
   
+  @Test
+  public void testListRecordsInvalidRecord() throws Exception {
+    List<Record> invalid = new ArrayList<>();
+    client.setValidator(new XmlValidator() {
+      @Override
+      public boolean validate(Node node) throws SAXException, IOException {
+        throw new SAXException("Invalid metadata");
+      }
+    }, (record, error) -> invalid.add(record));
+    
+    ListRecordsRequest request = new ListRecordsRequest("oai_dc", null, null, null);
+    ListRecordsResponse response = (ListRecordsResponse) client.execute(request);
+    
+    assertNotNull("No response received.", response);
+    assertEquals("Invalid number of records", 1, response.records.length);
+    assertEquals("Invalid record not reported", 1, invalid.size());
+    assertNotNull("Missing resumption token", response.resumptionToken);
+  }
+  
   @Test
   public void testGetRecord() throws Exception {
     GetRecordRequest request = new GetRecordRequest(URI.create("identifier"), "oai");
@@ -36,10 +36,17 @@ import com.panforge.demeter.server.RootFolderService;
 import com.panforge.demeter.server.ScanningService;
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 import com.panforge.demeter.core.content.ContentProvider;
@@ -49,6 +56,7 @@ import com.panforge.demeter.core.content.StreamingIterable;
 import com.panforge.demeter.core.utils.DefaultPageCursor;
 import java.util.List;
 import java.util.stream.StreamSupport;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,6 +77,7 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
   private MetaProcessorService metadataProcessorService;
   
   private final Map<URI, Map<String,MetaDescriptor>> descriptors = Collections.synchronizedMap(new HashMap<>());
+  private final NavigableMap<Key, MetaDescriptor> index = new ConcurrentSkipListMap<>();
   
   @PostConstruct
   public void construct() {
@@ -98,6 +107,37 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
 
   @Override
   public Page<Header, DefaultPageCursor> listHeaders(Filter filter, DefaultPageCursor pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+    Filter effective = pageCursor!=null? pageCursor.toFilter(): filter;
+    List<MetaDescriptor> page = listDescriptors(effective, pageCursor, pageSize);
+    List<Header> headers = page.stream().map(MetaDescriptor::toHeader).collect(Collectors.toList());
+    return Page.of(headers, () -> countDescriptors(effective), Page.TotalKind.Exact, nextPageCursor(effective, pageCursor, page, pageSize), count -> cursorAt(effective, pageCursor, page, count));
+  }
+
+  @Override
+  public Page<Record, DefaultPageCursor> listRecords(Filter filter, DefaultPageCursor pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+    Filter effective = pageCursor!=null? pageCursor.toFilter(): filter;
+    List<MetaDescriptor> page = listDescriptors(effective, pageCursor, pageSize);
+    // records are parsed as they are written, so pages cut short are not parsed in full
+    List<Record> records = new AbstractList<Record>() {
+      @Override
+      public Record get(int index) {
+        MetaDescriptor md = page.get(index);
+        Document doc = parseToXml(md.source);
+        if (doc!=null) {
+          doc = md.mp.adopt(md.source, doc);
+        }
+        return new Record(md.toHeader(), doc, null);
+      }
+
+      @Override
+      public int size() {
+        return page.size();
+      }
+    };
+    return Page.of(records, () -> countDescriptors(effective), Page.TotalKind.Exact, nextPageCursor(effective, pageCursor, page, pageSize), count -> cursorAt(effective, pageCursor, page, count));
+  }
+  
+  private List<MetaDescriptor> listDescriptors(Filter filter, DefaultPageCursor pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
     if (filter.set!=null) {
       throw new NoSetHierarchyException("This repository does not support set hierarchy.");
     }
@@ -108,30 +148,51 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
     } catch (NoMetadataFormatsException|IdDoesNotExistException ex) {
         throw new CannotDisseminateFormatException(String.format("Invalid metadata format prefix: '%s'", filter.metadataPrefix), ex);
     }
-    long skip = pageCursor!=null && pageCursor.cursor!=null? pageCursor.cursor(): 0;
-    List<Header> headers = descriptors.values().stream()
-                    .map(l -> {
-                      MetaDescriptor md = l.values().stream()
-                              .filter(desc->desc.matches(filter))
-                              .sorted((a, b) -> a.datestamp.compareTo(b.datestamp))
-                              .findFirst()
-                              .orElse(null);
-                      return md != null ? md.toHeader() : null;
-                    })
-                    .filter(h -> h != null)
-                    .skip(skip)
+    
+    Stream<MetaDescriptor> matching;
+    if (pageCursor!=null && pageCursor.keyset()) {
+      // seek right after the last element of the previous page
+      matching = matchingDescriptors(filter, index.tailMap(new Key(pageCursor.datestamp, pageCursor.identifier, filter.metadataPrefix), false));
+    } else {
+      long skip = pageCursor!=null? pageCursor.cursor(): 0;
+      matching = matchingDescriptors(filter).skip(skip);
+    }
+    List<MetaDescriptor> page = matching
                     .limit(pageSize)
                     .collect(Collectors.toList());    
     
-    if (headers.isEmpty()) {
+    if (page.isEmpty()) {
       throw new NoRecordsMatchException(String.format("No matching records."));
     }
-    DefaultPageCursor nextPageCursor = null;
-    if (headers.size()>=pageSize) {
-      nextPageCursor = new DefaultPageCursor();
-      nextPageCursor.cursor = skip + pageSize;
+    return page;
+  }
+  
+  private Stream<MetaDescriptor> matchingDescriptors(Filter filter) {
+    NavigableMap<Key, MetaDescriptor> range = filter.from!=null? index.tailMap(new Key(filter.from.toInstant().toEpochMilli(), "", ""), true): index;
+    return matchingDescriptors(filter, range);
+  }
+  
+  private Stream<MetaDescriptor> matchingDescriptors(Filter filter, NavigableMap<Key, MetaDescriptor> range) {
+    return range.values().stream()
+                    .takeWhile(md -> filter.until==null || !md.datestamp.isAfter(filter.until))
+                    .filter(md -> md.matches(filter));
+  }
+  
+  private long countDescriptors(Filter filter) {
+    return matchingDescriptors(filter).count();
+  }
+  
+  private DefaultPageCursor nextPageCursor(Filter filter, DefaultPageCursor pageCursor, List<MetaDescriptor> page, int pageSize) {
+    if (page.size()<pageSize) {
+      return null;
     }
-    return Page.of(headers, descriptors.values().size(), nextPageCursor);
+    MetaDescriptor last = page.get(page.size()-1);
+    return DefaultPageCursor.keyset(filter, last.datestamp, last.uri, (pageCursor!=null? pageCursor.cursor(): 0) + page.size());
+  }
+  
+  private DefaultPageCursor cursorAt(Filter filter, DefaultPageCursor pageCursor, List<MetaDescriptor> page, int count) {
+    MetaDescriptor last = page.get(count-1);
+    return DefaultPageCursor.keyset(filter, last.datestamp, last.uri, (pageCursor!=null? pageCursor.cursor(): 0) + count);
   }
 
   @Override
@@ -153,13 +214,42 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
     return new Record(header, doc, null);
   }
   
+  @Override
+  public Map<URI, Record> readRecords(Collection<URI> identifiers, String metadataPrefix) {
+    // resolve all descriptors in a single pass over the index, then parse
+    List<MetaDescriptor> found = new ArrayList<>(identifiers.size());
+    synchronized (descriptors) {
+      for (URI identifier: identifiers) {
+        Map<String, MetaDescriptor> commonDescriptors = descriptors.get(identifier);
+        MetaDescriptor md = commonDescriptors!=null? commonDescriptors.get(metadataPrefix): null;
+        if (md!=null) {
+          found.add(md);
+        }
+      }
+    }
+    
+    Map<URI, Record> records = new LinkedHashMap<>();
+    for (MetaDescriptor md: found) {
+      Document doc = parseToXml(md.source);
+      if (doc!=null) {
+        doc = md.mp.adopt(md.source, doc);
+      }
+      records.put(md.uri, new Record(md.toHeader(), doc, null));
+    }
+    return records;
+  }
+  
   private void storeDescriptor(MetaDescriptor md) {
     Map<String, MetaDescriptor> commonDescriptors = descriptors.get(md.uri);
     if (commonDescriptors==null) {
       commonDescriptors = Collections.synchronizedMap(new HashMap<>());
       descriptors.put(md.uri, commonDescriptors);
     }
-    commonDescriptors.put(md.format.metadataPrefix, md);
+    MetaDescriptor previous = commonDescriptors.put(md.format.metadataPrefix, md);
+    if (previous!=null) {
+      index.remove(new Key(previous));
+    }
+    index.put(new Key(md), md);
   }
   
   private Document parseToXml(File file) {
@@ -170,4 +260,35 @@ public class ContentProviderBean implements ContentProvider<DefaultPageCursor> {
       return null;
     }
   }
+  
+  /**
+   * Key of the descriptor; descriptors are listed in the key order.
+   */
+  private static final class Key implements Comparable<Key> {
+    final long datestamp;
+    final String identifier;
+    final String metadataPrefix;
+
+    Key(long datestamp, String identifier, String metadataPrefix) {
+      this.datestamp = datestamp;
+      this.identifier = identifier;
+      this.metadataPrefix = StringUtils.defaultString(metadataPrefix);
+    }
+
+    Key(MetaDescriptor md) {
+      this(md.datestamp.toInstant().toEpochMilli(), md.uri.toString(), md.format.metadataPrefix);
+    }
+
+    @Override
+    public int compareTo(Key other) {
+      int result = Long.compare(datestamp, other.datestamp);
+      if (result==0) {
+        result = identifier.compareTo(other.identifier);
+      }
+      if (result==0) {
+        result = metadataPrefix.compareTo(other.metadataPrefix);
+      }
+      return result;
+    }
+  }
 }
@@ -15,12 +15,12 @@
  */
 package com.panforge.demeter.server.beans;
 
-import com.panforge.demeter.core.utils.DefaultPageCursorCodec;
+import com.panforge.demeter.core.utils.CompactPageCursorCodec;
 import org.springframework.stereotype.Service;
 
 /**
  * Page cursor codec bean.
  */
 @Service
-public class PageCursorCodesBean extends DefaultPageCursorCodec {
+public class PageCursorCodesBean extends CompactPageCursorCodec {
 }
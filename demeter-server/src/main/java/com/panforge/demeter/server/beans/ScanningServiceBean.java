@@ -15,9 +15,12 @@
  */
 package com.panforge.demeter.server.beans;
 
+import com.panforge.demeter.core.utils.SchemaCatalog;
 import com.panforge.demeter.core.utils.XmlUtils;
+import com.panforge.demeter.core.utils.XmlValidator;
 import com.panforge.demeter.server.MetaDescriptor;
 import com.panforge.demeter.server.MetaProcessorService;
+import com.panforge.demeter.server.RootFolderService;
 import com.panforge.demeter.server.ScanningService;
 import java.io.File;
 import java.io.IOException;
@@ -29,6 +32,7 @@ import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
@@ -43,8 +47,18 @@ public class ScanningServiceBean implements ScanningService {
   @Autowired
   private MetaProcessorService metadataProcessorService;
   
+  @Autowired
+  private RootFolderService rootFolder;
+  
+  @Value("${validate:false}")
+  private boolean validate;
+  private XmlValidator validator;
+  
   @PostConstruct
   public void construct() {
+    if (validate) {
+      validator = new XmlValidator(new SchemaCatalog(new File(rootFolder.getRootFolder(), "schemas"), false));
+    }
     LOG.info(String.format("%s created.", this.getClass().getSimpleName()));
   }
   
@@ -60,29 +74,51 @@ public class ScanningServiceBean implements ScanningService {
   }
   
   private void scan(Set<File> visitedDirs, File folder, MetaListener listener) {
-    File[] xmls = folder.listFiles(f->f.isFile() && f.getName().toLowerCase().endsWith(".xml"));
-    Arrays.stream(xmls).map(f->new FileData(f, parseToXml(f))).filter(fd->fd.doc!=null).forEach(fd->{
-      MetaDescriptor md = metadataProcessorService.describe(fd.file, fd.doc);
-      if (md!=null) {
-        listener.accept(md);
-      }
-    });
+    // single listing per folder; files are read through NIO (see XmlUtils.parseToXml(Path))
+    File[] entries = folder.listFiles();
+    if (entries==null) {
+      return;
+    }
+    Arrays.stream(entries)
+            .filter(f->f.isFile() && f.getName().toLowerCase().endsWith(".xml"))
+            .map(f->new FileData(f, parseToXml(f)))
+            .filter(fd->fd.doc!=null && isValid(fd))
+            .forEach(fd->{
+              MetaDescriptor md = metadataProcessorService.describe(fd.file, fd.doc);
+              if (md!=null) {
+                listener.accept(md);
+              }
+            });
 
-    File[] dirs = folder.listFiles(f->f.isDirectory());
-    Arrays.stream(dirs)
+    Arrays.stream(entries)
+            .filter(f->f.isDirectory())
             .filter(dir->!visitedDirs.contains(dir))
             .forEach(dir->scan(visitedDirs, dir, listener));
   }
   
   private Document parseToXml(File file) {
     try {
-      return XmlUtils.parseToXml(file);
+      return XmlUtils.parseToXml(file.toPath());
     } catch (IOException | SAXException ex) {
       LOG.debug(String.format("Error parsing file: %s", file), ex);
       return null;
     }
   }
   
+  private boolean isValid(FileData fd) {
+    if (validator==null) {
+      return true;
+    }
+    try {
+      validator.validate(fd.doc);
+      return true;
+    } catch (IOException | SAXException ex) {
+      LOG.warn(String.format("Invalid file: %s (%s)", fd.file, ex.getMessage()));
+      LOG.debug(String.format("Invalid file: %s", fd.file), ex);
+      return false;
+    }
+  }
+  
   private static class FileData {
     public final File file;
     public final Document doc;
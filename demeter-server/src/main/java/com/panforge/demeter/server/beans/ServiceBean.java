@@ -15,6 +15,7 @@
  */
 package com.panforge.demeter.server.beans;
 
+import com.panforge.demeter.service.PageBudget;
 import com.panforge.demeter.service.TokenManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -22,6 +23,11 @@ import org.springframework.stereotype.Service;
 import com.panforge.demeter.core.content.ContentProvider;
 import com.panforge.demeter.core.utils.DefaultPageCursor;
 import com.panforge.demeter.server.ConfigService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
@@ -34,9 +40,32 @@ import org.slf4j.LoggerFactory;
 public class ServiceBean extends com.panforge.demeter.service.Service<DefaultPageCursor> {
   private static final Logger LOG = LoggerFactory.getLogger(ServiceBean.class);
 
+  private final ExecutorService contentExecutor;
+  private final ExecutorService writeExecutor;
+
   @Autowired 
-  public ServiceBean(ConfigService config, ContentProvider<DefaultPageCursor> repo, TokenManager<DefaultPageCursor> tokenManager, @Value("${batchSize}") int batchSize) {
-    super(config.getConfig(), repo, tokenManager, batchSize);
+  public ServiceBean(ConfigService config, ContentProvider<DefaultPageCursor> repo, TokenManager<DefaultPageCursor> tokenManager, @Value("${batchSize}") int batchSize,
+          @Value("${asyncThreads:16}") int asyncThreads, @Value("${writeThreads:200}") int writeThreads,
+          @Value("${minBatchSize:1}") int minBatchSize, @Value("${pageTimeBudget:0}") long pageTimeBudget, @Value("${pageByteBudget:0}") long pageByteBudget) {
+    this(config, repo, tokenManager, new PageBudget(Math.min(minBatchSize, batchSize), batchSize, pageTimeBudget, pageByteBudget),
+            Executors.newFixedThreadPool(asyncThreads), createWriteExecutor(writeThreads));
+  }
+  
+  private ServiceBean(ConfigService config, ContentProvider<DefaultPageCursor> repo, TokenManager<DefaultPageCursor> tokenManager, PageBudget pageBudget, ExecutorService contentExecutor, ExecutorService writeExecutor) {
+    super(config.getConfig(), repo, tokenManager, pageBudget, contentExecutor, writeExecutor);
+    this.contentExecutor = contentExecutor;
+    this.writeExecutor = writeExecutor;
+  }
+  
+  /**
+   * Creates executor writing responses; idle threads are released.
+   * @param writeThreads maximum number of threads
+   * @return executor
+   */
+  private static ExecutorService createWriteExecutor(int writeThreads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(writeThreads, writeThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
   
   @PostConstruct
@@ -46,6 +75,8 @@ public class ServiceBean extends com.panforge.demeter.service.Service<DefaultPag
   
   @PreDestroy
   public void destroy() {
+    contentExecutor.shutdown();
+    writeExecutor.shutdown();
     LOG.info(String.format("%s destroyed.", this.getClass().getSimpleName()));
   }
   
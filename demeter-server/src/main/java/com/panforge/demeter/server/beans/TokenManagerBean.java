@@ -15,11 +15,21 @@
  */
 package com.panforge.demeter.server.beans;
 
+import com.panforge.demeter.core.api.exception.BadResumptionTokenException;
 import com.panforge.demeter.core.content.PageCursorCodec;
+import com.panforge.demeter.core.model.ResumptionToken;
 import com.panforge.demeter.core.utils.DefaultPageCursor;
+import com.panforge.demeter.service.ResumptionState;
+import com.panforge.demeter.service.SignedTokenManager;
 import com.panforge.demeter.service.SimpleTokenManager;
+import com.panforge.demeter.service.TokenManager;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,23 +38,57 @@ import org.springframework.stereotype.Service;
 
 /**
  * Token manager bean.
+ * <p>
+ * Tokens are signed and carry their own state if <code>tokenKeys</code> are
+ * configured, otherwise they are kept in memory.
  */
 @Service
-public class TokenManagerBean extends SimpleTokenManager<DefaultPageCursor> {
+public class TokenManagerBean implements TokenManager<DefaultPageCursor> {
   private static final Logger LOG = LoggerFactory.getLogger(TokenManagerBean.class);
+  
+  private final TokenManager<DefaultPageCursor> tokenManager;
 
   @Autowired
-  public TokenManagerBean(PageCursorCodec<DefaultPageCursor> codec, @Value("${tokenExpiration}") long expiration) {
-    super(codec, expiration);
+  public TokenManagerBean(PageCursorCodec<DefaultPageCursor> codec, @Value("${tokenExpiration}") long expiration, @Value("${tokenKeys:}") String tokenKeys,
+          @Value("${tokenCapacity:100000}") int capacity, @Value("${tokenOverload:EvictOldest}") SimpleTokenManager.Overload overload) {
+    List<byte[]> keys = Arrays.stream(StringUtils.split(StringUtils.trimToEmpty(tokenKeys), ", "))
+            .map(Base64.getDecoder()::decode)
+            .collect(Collectors.toList());
+    this.tokenManager = !keys.isEmpty()
+            ? new SignedTokenManager<>(codec, expiration, keys)
+            : new SimpleTokenManager<>(codec, expiration, capacity, overload);
   }
   
   @PostConstruct
   public void construct() {
-    LOG.info(String.format("%s created.", this.getClass().getSimpleName()));
+    LOG.info(String.format("%s created (%s).", this.getClass().getSimpleName(), tokenManager.getClass().getSimpleName()));
   }
   
   @PreDestroy
   public void destroy() {
+    if (tokenManager instanceof SimpleTokenManager) {
+      LOG.info(String.format("Token statistics: %s", tokenManager));
+    }
     LOG.info(String.format("%s destroyed.", this.getClass().getSimpleName()));
   }
+
+  @Override
+  public ResumptionToken put(DefaultPageCursor pageCursor, long total) {
+    return tokenManager.put(pageCursor, total);
+  }
+
+  @Override
+  public void checkCapacity() {
+    tokenManager.checkCapacity();
+  }
+
+  @Override
+  public DefaultPageCursor pull(String tokenId) throws BadResumptionTokenException {
+    return tokenManager.pull(tokenId);
+  }
+
+  @Override
+  public ResumptionState<DefaultPageCursor> resume(String tokenId) throws BadResumptionTokenException {
+    return tokenManager.resume(tokenId);
+  }
 }
@@ -15,17 +15,32 @@
  */
 package com.panforge.demeter.server.rest;
 
+import com.panforge.demeter.core.api.Config;
+import com.panforge.demeter.core.api.Config.Compression;
+import com.panforge.demeter.core.api.ResponseFormat;
+import com.panforge.demeter.core.utils.CompressingOutputStream;
 import com.panforge.demeter.core.utils.DefaultPageCursor;
+import com.panforge.demeter.core.utils.GuardedOutputStream;
+import com.panforge.demeter.core.utils.QueryUtils;
+import com.panforge.demeter.service.TokenOverloadException;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
@@ -40,6 +55,9 @@ public class OaiController {
   @Autowired
   private com.panforge.demeter.service.Service<DefaultPageCursor> service;
   
+  @Value("${asyncTimeout:300000}")
+  private long asyncTimeout;
+  
   @PostConstruct
   public void construct() {
     LOG.info(String.format("%s created.", this.getClass().getSimpleName()));
@@ -50,15 +68,135 @@ public class OaiController {
     LOG.info(String.format("%s destroyed.", this.getClass().getSimpleName()));
   }
   
-  @RequestMapping(value = "/oai", method = RequestMethod.GET, produces = MediaType.APPLICATION_XML_VALUE)
-  public ResponseEntity<String> execute(HttpServletRequest request) {
+  @RequestMapping(value = "/oai", method = RequestMethod.GET, produces = {MediaType.APPLICATION_XML_VALUE, MediaType.APPLICATION_JSON_VALUE})
+  public void execute(HttpServletRequest request, HttpServletResponse response) throws IOException {
     try {
       LOG.debug(String.format("Received request '%s'", request.getQueryString()));
-      Map<String, String[]> parameters = request.getParameterMap();
-      return new ResponseEntity<>(service.execute(parameters), HttpStatus.OK);
+      ResponseFormat format = ResponseFormat.negotiate(request.getParameter("format"), request.getHeader(HttpHeaders.ACCEPT));
+      Map<String, String[]> parameters = QueryUtils.rejectKeys(request.getParameterMap(), "format");
+      response.setStatus(HttpStatus.OK.value());
+      response.setContentType(format.contentType);
+      response.setCharacterEncoding("UTF-8");
+      // format is negotiated from Accept, compression from Accept-Encoding
+      response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+      // same configuration as advertised by Identify; no lookup per request
+      Config config = service.getConfig();
+      Compression compression = Compression.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING), config.compression);
+      CompressingOutputStream output = new CompressingOutputStream(response.getOutputStream(), compression, config.compressionThreshold,
+              c -> response.setHeader(HttpHeaders.CONTENT_ENCODING, c.encoding));
+      // servlet thread is released while content is being fetched
+      AsyncContext async = request.startAsync();
+      async.setTimeout(asyncTimeout);
+      GuardedOutputStream guarded = new GuardedOutputStream(output);
+      AtomicBoolean completed = new AtomicBoolean();
+      async.addListener(new AsyncListener() {
+        @Override
+        public void onTimeout(AsyncEvent event) {
+          LOG.warn(String.format("Request '%s' timed out", request.getQueryString()));
+          abort(output, guarded, async, completed);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+          LOG.error(String.format("Error processing request '%s'", request.getQueryString()), event.getThrowable());
+          abort(output, guarded, async, completed);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+      });
+      try {
+        service.executeAsync(parameters, guarded, format, template -> {
+          response.setHeader(HttpHeaders.ETAG, template.etag);
+          response.setDateHeader(HttpHeaders.LAST_MODIFIED, template.lastModified.toInstant().toEpochMilli());
+          if (template.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE))) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return false;
+          }
+          return true;
+        }).whenComplete((v, error) -> complete(request, response, output, async, completed, error));
+      } catch (RuntimeException ex) {
+        complete(request, response, output, async, completed, ex);
+      }
     } catch (Exception ex) {
       LOG.error(String.format("Error processing request '%s'", request.getQueryString()), ex);
-      return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+      if (!response.isCommitted()) {
+        sendError(response, ex);
+      }
+    }
+  }
+  
+  /**
+   * Completes asynchronous request: finishes the output or sends error status.
+   * @param request HTTP request
+   * @param response HTTP response
+   * @param output output stream
+   * @param async asynchronous context
+   * @param completed flag indicating request has been completed
+   * @param error error or <code>null</code> if response has been written
+   */
+  private void complete(HttpServletRequest request, HttpServletResponse response, CompressingOutputStream output, AsyncContext async, AtomicBoolean completed, Throwable error) {
+    if (!completed.compareAndSet(false, true)) {
+      // already timed out or failed
+      return;
+    }
+    try {
+      if (error == null) {
+        output.finish();
+      } else {
+        LOG.error(String.format("Error processing request '%s'", request.getQueryString()), error);
+        if (!response.isCommitted()) {
+          sendError(response, error);
+        }
+      }
+    } catch (IOException|RuntimeException ex) {
+      LOG.error(String.format("Error completing request '%s'", request.getQueryString()), ex);
+    } finally {
+      async.complete();
+    }
+  }
+  
+  /**
+   * Sends error status: 503 with Retry-After if tokens are overloaded, 500 otherwise.
+   * @param response HTTP response
+   * @param error error
+   * @throws IOException if error sending status
+   */
+  private void sendError(HttpServletResponse response, Throwable error) throws IOException {
+    Throwable cause = error instanceof CompletionException && error.getCause() != null? error.getCause(): error;
+    response.reset();
+    if (cause instanceof TokenOverloadException) {
+      response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(((TokenOverloadException) cause).retryAfter));
+      response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+    } else {
+      response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value());
+    }
+  }
+  
+  /**
+   * Aborts asynchronous request: stops the writer, then closes the output and 
+   * completes the context.
+   * @param output output stream
+   * @param guarded guarded output stream used by the writer
+   * @param async asynchronous context
+   * @param completed flag indicating request has been completed
+   */
+  private void abort(CompressingOutputStream output, GuardedOutputStream guarded, AsyncContext async, AtomicBoolean completed) {
+    if (completed.compareAndSet(false, true)) {
+      // waits for the write in progress; any further write fails
+      guarded.abort();
+      try {
+        output.close();
+      } catch (IOException|RuntimeException ex) {
+        LOG.debug(String.format("Error closing output: %s", ex.getMessage()));
+      } finally {
+        async.complete();
+      }
     }
   }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.service;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Page budget.
+ * <p>
+ * ListIdentifiers and ListRecords pages are cut short once either the time
+ * or the size budget is exhausted, but never before the minimum number of
+ * elements has been written. The rest of the page is available through the
+ * resumption token.
+ */
+public final class PageBudget {
+  /** minimum number of elements on the page */
+  public final int minSize;
+  /** maximum number of elements on the page */
+  public final int maxSize;
+  /** time budget in milliseconds counted since receiving the request; 0 if none */
+  public final long time;
+  /** budget in bytes of the serialized response; 0 if none */
+  public final long bytes;
+
+  /**
+   * Creates instance of the budget.
+   * @param minSize minimum number of elements on the page
+   * @param maxSize maximum number of elements on the page
+   * @param time time budget in milliseconds or 0 if none
+   * @param bytes budget in bytes or 0 if none
+   */
+  public PageBudget(int minSize, int maxSize, long time, long bytes) {
+    Validate.isTrue(minSize > 0 && minSize <= maxSize, "Invalid page size bounds: %d..%d", minSize, maxSize);
+    Validate.isTrue(time >= 0, "Invalid time budget: %d", time);
+    Validate.isTrue(bytes >= 0, "Invalid byte budget: %d", bytes);
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.time = time;
+    this.bytes = bytes;
+  }
+  
+  /**
+   * Creates budget of fixed page size.
+   * @param pageSize page size
+   * @return page budget
+   */
+  public static PageBudget fixed(int pageSize) {
+    return new PageBudget(pageSize, pageSize, 0, 0);
+  }
+  
+  /**
+   * Checks if pages might be cut short.
+   * @return <code>true</code> if pages might be cut short
+   */
+  public boolean isLimited() {
+    return minSize < maxSize && (time > 0 || bytes > 0);
+  }
+  
+  /**
+   * Checks if budget is exhausted.
+   * @param started request start time (as of {@link System#nanoTime()})
+   * @param written number of bytes written so far
+   * @return <code>true</code> if budget is exhausted
+   */
+  boolean isExhausted(long started, long written) {
+    return (bytes > 0 && written >= bytes) || (time > 0 && System.nanoTime() - started >= time * 1000000);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("{ minSize: %d, maxSize: %d, time: %d, bytes: %d }", minSize, maxSize, time, bytes);
+  }
+}
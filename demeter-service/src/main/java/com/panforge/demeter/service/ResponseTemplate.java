@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Pre-rendered response.
+ * <p>
+ * Holds response rendered once; only response date is substituted each time
+ * the response is written. Weak entity tag and last modification date allow
+ * conditional requests.
+ */
+public final class ResponseTemplate {
+  /** response date used while rendering template */
+  static final OffsetDateTime TEMPLATE_DATE = OffsetDateTime.of(1, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+  private static final byte [] MARKER = TEMPLATE_DATE.format(DateTimeFormatter.ISO_DATE_TIME).getBytes(StandardCharsets.UTF_8);
+  
+  private final byte [] head;
+  private final byte [] tail;
+  /** content the template has been rendered from (used for validation) */
+  final Object [] content;
+  
+  /** entity tag */
+  public final String etag;
+  /** last modification date */
+  public final OffsetDateTime lastModified;
+
+  private ResponseTemplate(byte [] head, byte [] tail, Object [] content) {
+    this.head = head;
+    this.tail = tail;
+    this.content = content;
+    
+    CRC32 crc = new CRC32();
+    crc.update(head);
+    crc.update(tail);
+    this.etag = String.format("W/\"%08x%08x\"", crc.getValue(), head.length + tail.length);
+    this.lastModified = OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.SECONDS);
+  }
+  
+  /**
+   * Renders template.
+   * @param renderer renderer writing response with {@link #TEMPLATE_DATE} as response date
+   * @param content content the template is rendered from
+   * @return template
+   * @throws IOException if rendering fails
+   */
+  static ResponseTemplate render(Renderer renderer, Object [] content) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    renderer.render(out);
+    byte [] rendered = out.toByteArray();
+    int index = indexOf(rendered, MARKER);
+    if (index < 0) {
+      throw new IOException("Missing response date in the rendered response.");
+    }
+    return new ResponseTemplate(
+            Arrays.copyOfRange(rendered, 0, index), 
+            Arrays.copyOfRange(rendered, index + MARKER.length, rendered.length), 
+            content
+    );
+  }
+  
+  /**
+   * Writes response using current date as response date.
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void write(OutputStream out) throws IOException {
+    out.write(head);
+    out.write(OffsetDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME).getBytes(StandardCharsets.UTF_8));
+    out.write(tail);
+  }
+  
+  /**
+   * Checks if the client already has the current version of the response.
+   * @param ifNoneMatch value of <i>If-None-Match</i> header (optional)
+   * @param ifModifiedSince value of <i>If-Modified-Since</i> header in milliseconds (negative if absent)
+   * @return <code>true</code> if the client already has the current version of the response
+   */
+  public boolean matches(String ifNoneMatch, long ifModifiedSince) {
+    if (!StringUtils.isBlank(ifNoneMatch)) {
+      String opaque = etag.substring(2);
+      return Arrays.stream(ifNoneMatch.split(","))
+              .map(String::trim)
+              .anyMatch(tag -> tag.equals("*") || StringUtils.removeStart(tag, "W/").equals(opaque));
+    }
+    return ifModifiedSince >= 0 && ifModifiedSince >= lastModified.toInstant().toEpochMilli();
+  }
+  
+  private static int indexOf(byte [] data, byte [] pattern) {
+    outer:
+    for (int i = 0; i <= data.length - pattern.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (data[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+  
+  /**
+   * Template renderer.
+   */
+  @FunctionalInterface
+  interface Renderer {
+    void render(OutputStream out) throws IOException;
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.service;
+
+import com.panforge.demeter.core.content.PageCursor;
+
+/**
+ * State of the harvest carried by resumption token.
+ * @param <PC> page cursor type
+ */
+public final class ResumptionState<PC extends PageCursor> {
+  /** page cursor */
+  public final PC pageCursor;
+  /** complete list size or negative if unknown */
+  public final long completeListSize;
+
+  /**
+   * Creates instance of the state.
+   * @param pageCursor page cursor
+   * @param completeListSize complete list size or negative if unknown
+   */
+  public ResumptionState(PC pageCursor, long completeListSize) {
+    this.pageCursor = pageCursor;
+    this.completeListSize = completeListSize;
+  }
+}
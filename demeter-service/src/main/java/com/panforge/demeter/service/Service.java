@@ -16,12 +16,16 @@
 package com.panforge.demeter.service;
 
 import com.panforge.demeter.core.api.Config;
+import com.panforge.demeter.core.content.AsyncContentProvider;
 import com.panforge.demeter.core.content.ContentProvider;
 import com.panforge.demeter.core.api.Context;
+import com.panforge.demeter.core.api.JsonResponseFactory;
 import com.panforge.demeter.core.api.RequestParser;
 import com.panforge.demeter.core.api.ResponseFactory;
+import com.panforge.demeter.core.api.ResponseFormat;
 import com.panforge.demeter.core.model.ErrorCode;
 import com.panforge.demeter.core.model.ErrorInfo;
+import com.panforge.demeter.core.model.Verb;
 import com.panforge.demeter.core.api.exception.ProtocolException;
 import com.panforge.demeter.core.api.exception.BadResumptionTokenException;
 import com.panforge.demeter.core.api.exception.CannotDisseminateFormatException;
@@ -51,12 +55,30 @@ import com.panforge.demeter.core.model.response.elements.Header;
 import com.panforge.demeter.core.utils.QueryUtils;
 import com.panforge.demeter.core.model.ResumptionToken;
 import com.panforge.demeter.core.model.response.ListRecordsResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 
 /**
  * Service.
@@ -66,32 +88,86 @@ public class Service<PC extends PageCursor> {
   protected static final Logger LOG = LoggerFactory.getLogger(Service.class);
   public static final int DEFAULT_BATCH_SIZE = 10;
   private final ContentProvider<PC> repo;
+  private final AsyncContentProvider<PC> asyncRepo;
+  private final Executor writeExecutor;
   private final TokenManager<PC> tokenManager;
   
   private final Context ctx;
   private final RequestParser parser;
   private final ResponseFactory factory;
-  private final int pageSize;
+  private final ResponseFactory jsonFactory;
+  private final PageBudget pageBudget;
+  private final Map<String, ResponseTemplate> templates = new ConcurrentHashMap<>();
 
   /**
    * Creates instance of the service.
+   * <p>
+   * Writing to slow clients blocks; writer executor should be able to serve
+   * as many concurrent responses as the server is expected to handle, while
+   * content executor might be sized to the capacity of the content provider.
    * @param config configuration
    * @param repo repository
    * @param tokenManager token manager
-   * @param pageSize batch size
+   * @param pageBudget page budget
+   * @param contentExecutor executor running blocking content provider calls
+   * @param writeExecutor executor writing asynchronous responses
    */
-  public Service(Config config, ContentProvider<PC> repo, TokenManager<PC> tokenManager, int pageSize) {
+  @SuppressWarnings("unchecked")
+  public Service(Config config, ContentProvider<PC> repo, TokenManager<PC> tokenManager, PageBudget pageBudget, Executor contentExecutor, Executor writeExecutor) {
     this.repo = repo;
     this.tokenManager = tokenManager;
-    this.pageSize = pageSize;
+    this.pageBudget = pageBudget;
+    this.writeExecutor = writeExecutor;
     
     Validate.notNull(config, "Missing configuration");
     Validate.notNull(repo, "Missing content provider");
     Validate.notNull(tokenManager, "Missing token manager");
+    Validate.notNull(pageBudget, "Missing page budget");
+    Validate.notNull(contentExecutor, "Missing content executor");
+    Validate.notNull(writeExecutor, "Missing write executor");
     
+    this.asyncRepo = repo instanceof AsyncContentProvider? (AsyncContentProvider<PC>)repo: AsyncContentProvider.of(repo, contentExecutor);
     this.ctx = new Context(config);
     this.parser = new RequestParser();
     this.factory = new ResponseFactory(ctx);
+    this.jsonFactory = new JsonResponseFactory(ctx);
+  }
+
+  /**
+   * Creates instance of the service.
+   * @param config configuration
+   * @param repo repository
+   * @param tokenManager token manager
+   * @param pageBudget page budget
+   * @param executor executor running blocking content provider calls and writing asynchronous responses
+   */
+  public Service(Config config, ContentProvider<PC> repo, TokenManager<PC> tokenManager, PageBudget pageBudget, Executor executor) {
+    this(config, repo, tokenManager, pageBudget, executor, executor);
+  }
+
+  /**
+   * Creates instance of the service.
+   * @param config configuration
+   * @param repo repository
+   * @param tokenManager token manager
+   * @param pageSize batch size
+   * @param executor executor running blocking content provider calls and writing asynchronous responses
+   */
+  public Service(Config config, ContentProvider<PC> repo, TokenManager<PC> tokenManager, int pageSize, Executor executor) {
+    this(config, repo, tokenManager, PageBudget.fixed(pageSize), executor);
+  }
+
+  /**
+   * Creates instance of the service.
+   * <p>
+   * Asynchronous requests are executed in the calling thread.
+   * @param config configuration
+   * @param repo repository
+   * @param tokenManager token manager
+   * @param pageSize batch size
+   */
+  public Service(Config config, ContentProvider<PC> repo, TokenManager<PC> tokenManager, int pageSize) {
+    this(config, repo, tokenManager, pageSize, Runnable::run);
   }
 
   /**
@@ -104,6 +180,14 @@ public class Service<PC extends PageCursor> {
     this(config, repo, tokenManager, DEFAULT_BATCH_SIZE);
   }
 
+  /**
+   * Gets configuration the service has been created with.
+   * @return configuration
+   */
+  public Config getConfig() {
+    return ctx.config;
+  }
+
   /**
    * Executes OAI-PMH request.
    * @param query HTTP query
@@ -120,95 +204,470 @@ public class Service<PC extends PageCursor> {
    * @return response
    */
   public String execute(Map<String, String[]> parameters) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      execute(parameters, out);
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+  
+  /**   
+   * Executes OAI-PMH request streaming response into the output stream.
+   * <p>
+   * Records and headers are read from the content provider while response is 
+   * being written, thus memory consumption does not depend on the page size.
+   * @param parameters HTTP parameters
+   * @param out output stream
+   * @throws IOException if writing response fails
+   */
+  public void execute(Map<String, String[]> parameters, OutputStream out) throws IOException {
+    execute(parameters, out, ResponseFormat.Xml);
+  }
+  
+  /**   
+   * Executes OAI-PMH request streaming response in the requested format into the output stream.
+   * @param parameters HTTP parameters
+   * @param out output stream
+   * @param format response format
+   * @throws IOException if writing response fails
+   */
+  public void execute(Map<String, String[]> parameters, OutputStream out, ResponseFormat format) throws IOException {
+    execute(parameters, out, format, template -> true);
+  }
+  
+  /**   
+   * Executes OAI-PMH request streaming response in the requested format into the output stream.
+   * <p>
+   * Identify, ListMetadataFormats (without identifier) and single page ListSets
+   * responses are pre-rendered once and written from the template. Error 
+   * responses echo the request, thus are always rendered.
+   * Before such a response is written, the condition is tested; it may be used
+   * to set response headers and to suppress response if client already has it.
+   * @param parameters HTTP parameters
+   * @param out output stream
+   * @param format response format
+   * @param condition condition to write pre-rendered response
+   * @throws IOException if writing response fails
+   */
+  public void execute(Map<String, String[]> parameters, OutputStream out, ResponseFormat format, Predicate<ResponseTemplate> condition) throws IOException {
+    ResponseFactory factory = format == ResponseFormat.Json? jsonFactory: this.factory;
+    Templating templating = new Templating(format, factory, condition, out);
     try {
       Request request = parser.parse(parameters);
       switch (request.verb) {
         case Identify:
-          return createIdentifyResponse((IdentifyRequest) request);
+          writeIdentifyResponse((IdentifyRequest) request, templating);
+          break;
 
         case ListMetadataFormats:
-          return createListMetadataFormatsResponse((ListMetadataFormatsRequest) request);
+          writeListMetadataFormatsResponse((ListMetadataFormatsRequest) request, factory, templating, out);
+          break;
           
         case GetRecord:
-          return createGetRecordResponse((GetRecordRequest) request);
+          writeGetRecordResponse((GetRecordRequest) request, factory, out);
+          break;
 
         case ListSets:
-          return createListSetsResponse((ListSetsRequest)request);
+          writeListSetsResponse((ListSetsRequest)request, factory, templating, out);
+          break;
           
         case ListIdentifiers:
-          return createListIdentifiersResponse((ListIdentifiersRequest)request);
+          writeListIdentifiersResponse((ListIdentifiersRequest)request, factory, templating, out);
+          break;
           
         case ListRecords:
-          return createListRecordsResponse((ListRecordsRequest)request);
+          writeListRecordsResponse((ListRecordsRequest)request, factory, templating, out);
+          break;
           
         default:
-          return factory.createErrorResponse(OffsetDateTime.now(), parameters, new ErrorInfo[]{new ErrorInfo(ErrorCode.badArgument, "Error parsing request.")});
+          writeErrorResponse(parameters, new ErrorInfo[]{new ErrorInfo(ErrorCode.badArgument, "Error parsing request.")}, templating);
       }
     } catch (ProtocolException pex) {
-      return factory.createErrorResponse(OffsetDateTime.now(), parameters, pex.infos);
+      writeErrorResponse(parameters, pex.infos, templating);
+    }
+  }
+  
+  /**   
+   * Executes OAI-PMH request asynchronously.
+   * <p>
+   * No thread is held while content provider is working; once the content is
+   * available, response is written by the write executor. Otherwise it behaves as 
+   * {@link #execute(java.util.Map, java.io.OutputStream, com.panforge.demeter.core.api.ResponseFormat, java.util.function.Predicate)}.
+   * @param parameters HTTP parameters
+   * @param out output stream
+   * @param format response format
+   * @param condition condition to write pre-rendered response
+   * @return completion stage completed once response has been written
+   */
+  public CompletionStage<Void> executeAsync(Map<String, String[]> parameters, OutputStream out, ResponseFormat format, Predicate<ResponseTemplate> condition) {
+    ResponseFactory factory = format == ResponseFormat.Json? jsonFactory: this.factory;
+    Templating templating = new Templating(format, factory, condition, out);
+    CompletionStage<ResponseWriter> content;
+    try {
+      Request request = parser.parse(parameters);
+      content = fetchAsync(request, parameters, factory, templating, out);
+    } catch (ProtocolException pex) {
+      content = CompletableFuture.completedFuture(() -> writeErrorResponse(parameters, pex.infos, templating));
+    }
+    
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    content.whenCompleteAsync((writer, error) -> {
+      try {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null? error.getCause(): error;
+        if (cause instanceof ProtocolException) {
+          writeErrorResponse(parameters, ((ProtocolException)cause).infos, templating);
+        } else if (cause != null) {
+          done.completeExceptionally(cause);
+          return;
+        } else {
+          writer.write();
+        }
+        done.complete(null);
+      } catch (IOException|RuntimeException ex) {
+        done.completeExceptionally(ex);
+      }
+    }, writeExecutor);
+    return done;
+  }
+  
+  private CompletionStage<ResponseWriter> fetchAsync(Request request, Map<String, String[]> parameters, ResponseFactory factory, Templating templating, OutputStream out) throws BadResumptionTokenException {
+    switch (request.verb) {
+      case Identify:
+        return CompletableFuture.completedFuture(() -> writeIdentifyResponse((IdentifyRequest) request, templating));
+
+      case ListMetadataFormats: {
+        ListMetadataFormatsRequest req = (ListMetadataFormatsRequest) request;
+        return asyncRepo.listMetadataFormatsAsync(req.getIdentifier())
+                .thenApply(formats -> () -> writeListMetadataFormatsResponse(req, formats, factory, templating, out));
+      }
+
+      case GetRecord: {
+        GetRecordRequest req = (GetRecordRequest) request;
+        return asyncRepo.readRecordAsync(req.getIdentifier(), req.getMetadataPrefix())
+                .thenApply(record -> () -> writeGetRecordResponse(req, record, factory, out));
+      }
+
+      case ListSets: {
+        ListSetsRequest req = (ListSetsRequest) request;
+        ResumptionState<PC> state = resume(req.getResumptionToken());
+        return asyncRepo.listSetsAsync(pageCursor(state), pageBudget.maxSize)
+                .thenApply(sets -> () -> writeListSetsResponse(req, state, sets, factory, templating, out));
+      }
+
+      case ListIdentifiers: {
+        ListIdentifiersRequest req = (ListIdentifiersRequest) request;
+        ResumptionState<PC> state = resume(req.getResumptionToken());
+        return asyncRepo.listHeadersAsync(req.getFilter(), pageCursor(state), pageBudget.maxSize)
+                .thenApply(headers -> () -> writeListIdentifiersResponse(req, state, headers, factory, templating, out));
+      }
+
+      case ListRecords: {
+        ListRecordsRequest req = (ListRecordsRequest) request;
+        ResumptionState<PC> state = resume(req.getResumptionToken());
+        return asyncRepo.listRecordsAsync(req.getFilter(), pageCursor(state), pageBudget.maxSize)
+                .thenApply(records -> () -> writeListRecordsResponse(req, state, records, factory, templating, out));
+      }
+
+      default:
+        return CompletableFuture.completedFuture(() -> writeErrorResponse(parameters, new ErrorInfo[]{new ErrorInfo(ErrorCode.badArgument, "Error parsing request.")}, templating));
     }
   }
   
-  private String createIdentifyResponse(IdentifyRequest request) {
-    IdentifyResponse idetifyResponse = IdentifyResponse.createFromConfig(request.getParameters(), OffsetDateTime.now(), ctx.config, null);
-    return factory.createIdentifyResponse(idetifyResponse);
+  /**
+   * Invalidates all pre-rendered responses.
+   * <p>
+   * Has to be called after the configuration the service has been created with
+   * is changed in place. Pre-rendered lists of metadata formats and sets are
+   * validated against the content provider on each request, thus are 
+   * invalidated automatically. Servers read configuration once at startup, 
+   * thus never need to call it.
+   */
+  public void invalidate() {
+    templates.clear();
+  }
+  
+  private void writeErrorResponse(Map<String, String[]> parameters, ErrorInfo[] errors, Templating templating) throws IOException {
+    templating.factory.writeErrorResponse(OffsetDateTime.now(), parameters, errors, templating.out);
+  }
+  
+  private void writeIdentifyResponse(IdentifyRequest request, Templating templating) throws IOException {
+    templating.write(Verb.Identify, null, out -> {
+      IdentifyResponse idetifyResponse = IdentifyResponse.createFromConfig(request.getParameters(), ResponseTemplate.TEMPLATE_DATE, ctx.config, null);
+      templating.factory.writeIdentifyResponse(idetifyResponse, out);
+    });
+  }
+  
+  private void writeListMetadataFormatsResponse(ListMetadataFormatsRequest request, ResponseFactory factory, Templating templating, OutputStream out) throws IOException, IdDoesNotExistException, NoMetadataFormatsException {
+    writeListMetadataFormatsResponse(request, repo.listMetadataFormats(request.getIdentifier()), factory, templating, out);
   }
   
-  private String createListMetadataFormatsResponse(ListMetadataFormatsRequest request) throws IdDoesNotExistException, NoMetadataFormatsException {
-    StreamingIterable<MetadataFormat> metadataFormats = repo.listMetadataFormats(request.getIdentifier());
+  private void writeListMetadataFormatsResponse(ListMetadataFormatsRequest request, StreamingIterable<MetadataFormat> metadataFormats, ResponseFactory factory, Templating templating, OutputStream out) throws IOException {
     MetadataFormat[] metadataFormatsArray = StreamSupport.stream(metadataFormats.spliterator(), false).toArray(MetadataFormat[]::new);
+    if (request.getIdentifier() == null) {
+      templating.write(Verb.ListMetadataFormats, metadataFormatsArray, o -> {
+        factory.writeListMetadataFormatsResponse(new ListMetadataFormatsResponse(request.getParameters(), ResponseTemplate.TEMPLATE_DATE, metadataFormatsArray), o);
+      });
+      return;
+    }
     ListMetadataFormatsResponse metadataFormatsResponse = new ListMetadataFormatsResponse(request.getParameters(), OffsetDateTime.now(), metadataFormatsArray);
-    return factory.createListMetadataFormatsResponse(metadataFormatsResponse);
+    factory.writeListMetadataFormatsResponse(metadataFormatsResponse, out);
+  }
+  
+  private void writeGetRecordResponse(GetRecordRequest request, ResponseFactory factory, OutputStream out) throws IOException, IdDoesNotExistException, CannotDisseminateFormatException {
+    writeGetRecordResponse(request, repo.readRecord(request.getIdentifier(), request.getMetadataPrefix()), factory, out);
   }
   
-  private String createGetRecordResponse(GetRecordRequest request) throws IdDoesNotExistException, CannotDisseminateFormatException {
-    Record record = repo.readRecord(request.getIdentifier(), request.getMetadataPrefix());
+  private void writeGetRecordResponse(GetRecordRequest request, Record record, ResponseFactory factory, OutputStream out) throws IOException {
     GetRecordResponse getRecordResponse = new GetRecordResponse(request.getParameters(), OffsetDateTime.now(), record);
-    return factory.createGetRecordResponse(getRecordResponse);
+    factory.writeGetRecordResponse(getRecordResponse, out);
   }
   
-  private String createListSetsResponse(ListSetsRequest request) throws BadResumptionTokenException, NoSetHierarchyException {
-    PC pageCursor = request.getResumptionToken()!=null? tokenManager.pull(request.getResumptionToken()): null;
-    try (Page<Set,PC> listSets = repo.listSets(pageCursor, pageSize);) {
-      PC nextPageCursor = listSets.nextPageCursor();
-      ResumptionToken resumptionToken = nextPageCursor!=null? tokenManager.put(nextPageCursor, listSets.total()): null;
+  private void writeListSetsResponse(ListSetsRequest request, ResponseFactory factory, Templating templating, OutputStream out) throws IOException, BadResumptionTokenException, NoSetHierarchyException {
+    ResumptionState<PC> state = resume(request.getResumptionToken());
+    writeListSetsResponse(request, state, repo.listSets(pageCursor(state), pageBudget.maxSize), factory, templating, out);
+  }
+  
+  private void writeListSetsResponse(ListSetsRequest request, ResumptionState<PC> state, Page<Set,PC> listSets, ResponseFactory factory, Templating templating, OutputStream out) throws IOException {
+    try (listSets) {
+      if (state == null && listSets.nextPageCursor() == null) {
+        Set[] setArray = StreamSupport.stream(listSets.spliterator(), false).toArray(Set[]::new);
+        templating.write(Verb.ListSets, Arrays.stream(setArray).map(SetContent::new).toArray(), o -> {
+          factory.writeListSetsResponse(new ListSetsResponse(request.getParameters(), ResponseTemplate.TEMPLATE_DATE, setArray, null), o);
+        });
+        return;
+      }
+      ResumptionToken resumptionToken = nextResumptionToken(state, listSets, listSets.nextPageCursor());
       Set[] setArray = StreamSupport.stream(listSets.spliterator(), false).toArray(Set[]::new);
       ListSetsResponse response = new ListSetsResponse(request.getParameters(), OffsetDateTime.now(), setArray, resumptionToken);
-      return factory.createListSetsResponse(response); 
-    }
-  }
-  
-  private String createListIdentifiersResponse(ListIdentifiersRequest request) throws BadResumptionTokenException, CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
-    PC pageCursor = request.getResumptionToken()!=null? tokenManager.pull(request.getResumptionToken()): null;
-    try (Page<Header, PC> headers = repo.listHeaders(request.getFilter(), pageCursor, pageSize);) {
-      PC nextPageCursor = headers.nextPageCursor();
-      ResumptionToken resumptionToken = nextPageCursor!=null? tokenManager.put(nextPageCursor, headers.total()): null;
-      Header[] headerArray = StreamSupport.stream(headers.spliterator(), false).toArray(Header[]::new);
-      ListIdentifiersResponse response = new ListIdentifiersResponse(request.getParameters(), OffsetDateTime.now(), headerArray, resumptionToken);
-      return factory.createListIdentifiersResponse(response); 
-    }
-  }
-  
-  private String createListRecordsResponse(ListRecordsRequest request) throws BadResumptionTokenException, CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
-    PC pageCursor = request.getResumptionToken()!=null? tokenManager.pull(request.getResumptionToken()): null;
-    try (Page<Header, PC> headers = repo.listHeaders(request.getFilter(), pageCursor, pageSize);) {
-      PC nextPageCursor = headers.nextPageCursor();
-      ResumptionToken resumptionToken = nextPageCursor!=null? tokenManager.put(nextPageCursor, headers.total()): null;
-      Record[] recordArray = StreamSupport.stream(headers.spliterator(), false).map(h -> {
-        if (!h.deleted) {
-          try {
-            return repo.readRecord(h.identifier, request.getMetadataPrefix()); 
-          } catch (ProtocolException ex) {
-            LOG.debug(String.format("Error reading record: %s", h.identifier), ex);
-            return null;
-          }
-        } else {
-          Record rec = new Record(h, null, null);
-          return rec;
+      factory.writeListSetsResponse(response, out); 
+    }
+  }
+  
+  private void writeListIdentifiersResponse(ListIdentifiersRequest request, ResponseFactory factory, Templating templating, OutputStream out) throws IOException, BadResumptionTokenException, CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+    ResumptionState<PC> state = resume(request.getResumptionToken());
+    writeListIdentifiersResponse(request, state, repo.listHeaders(request.getFilter(), pageCursor(state), pageBudget.maxSize), factory, templating, out);
+  }
+  
+  private void writeListIdentifiersResponse(ListIdentifiersRequest request, ResumptionState<PC> state, Page<Header, PC> headers, ResponseFactory factory, Templating templating, OutputStream out) throws IOException {
+    try (headers) {
+      checkCapacity(headers);
+      PageCut<Header> cut = new PageCut<>(headers, templating.started, out);
+      ListIdentifiersResponse response = new ListIdentifiersResponse(request.getParameters(), OffsetDateTime.now(), new Header[0], null);
+      factory.writeListIdentifiersResponse(response, cut.stream(), () -> nextResumptionToken(state, headers, cut.nextPageCursor()), cut.out); 
+    }
+  }
+  
+  private void writeListRecordsResponse(ListRecordsRequest request, ResponseFactory factory, Templating templating, OutputStream out) throws IOException, BadResumptionTokenException, CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+    ResumptionState<PC> state = resume(request.getResumptionToken());
+    writeListRecordsResponse(request, state, repo.listRecords(request.getFilter(), pageCursor(state), pageBudget.maxSize), factory, templating, out);
+  }
+  
+  private void writeListRecordsResponse(ListRecordsRequest request, ResumptionState<PC> state, Page<Record, PC> records, ResponseFactory factory, Templating templating, OutputStream out) throws IOException {
+    try (records) {
+      checkCapacity(records);
+      PageCut<Record> cut = new PageCut<>(records, templating.started, out);
+      ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), new Record[0], null);
+      factory.writeListRecordsResponse(response, cut.stream(), () -> nextResumptionToken(state, records, cut.nextPageCursor()), cut.out); 
+    }
+  }
+  
+  private ResumptionState<PC> resume(String resumptionToken) throws BadResumptionTokenException {
+    return resumptionToken!=null? tokenManager.resume(resumptionToken): null;
+  }
+  
+  private PC pageCursor(ResumptionState<PC> state) {
+    return state!=null? state.pageCursor: null;
+  }
+  
+  /**
+   * Checks if resumption token to the next page can be issued before the page
+   * is written, so an overload is reported before the response gets committed.
+   * @param page current page
+   */
+  private void checkCapacity(Page<?, PC> page) {
+    if (page.nextPageCursor() != null || pageBudget.isLimited()) {
+      tokenManager.checkCapacity();
+    }
+  }
+  
+  /**
+   * Creates resumption token to the next page.
+   * <p>
+   * Complete list size is obtained from the first page of the list only, then
+   * carried by the consecutive tokens; it is not reported if unknown.
+   * @param state state of the current page or <code>null</code> if first page
+   * @param page current page
+   * @param nextPageCursor cursor to the next page or <code>null</code> if no more pages
+   * @return resumption token or <code>null</code> if no more pages
+   */
+  private ResumptionToken nextResumptionToken(ResumptionState<PC> state, Page<?, PC> page, PC nextPageCursor) {
+    if (nextPageCursor == null) {
+      return null;
+    }
+    long completeListSize = state!=null? state.completeListSize: page.totalKind()!=Page.TotalKind.Unknown? page.total(): -1;
+    return tokenManager.put(nextPageCursor, completeListSize);
+  }
+  
+  /**
+   * Page cut short once the page budget is exhausted.
+   * <p>
+   * Elements are counted as they are written; once the minimum has been
+   * written and the budget is exhausted, the page ends with the cursor to its
+   * remainder, provided the page can resume in the middle.
+   * @param <T> type of the element
+   */
+  private class PageCut<T> implements Iterator<T> {
+    final Page<T, PC> page;
+    final long started;
+    final CountingOutputStream out;
+    Iterator<T> source;
+    int count;
+    PC cutCursor;
+
+    PageCut(Page<T, PC> page, long started, OutputStream out) {
+      this.page = page;
+      this.started = started;
+      this.out = new CountingOutputStream(out);
+    }
+    
+    Stream<T> stream() {
+      if (!pageBudget.isLimited()) {
+        return StreamSupport.stream(page.spliterator(), false);
+      }
+      source = page.iterator();
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false);
+    }
+    
+    /**
+     * Gets cursor to the next page.
+     * @return cursor to the remainder of this page if cut, otherwise cursor to the next page
+     */
+    PC nextPageCursor() {
+      return cutCursor != null? cutCursor: page.nextPageCursor();
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (cutCursor != null || !source.hasNext()) {
+        return false;
+      }
+      if (count >= pageBudget.minSize && pageBudget.isExhausted(started, out.count)) {
+        cutCursor = page.cursorAt(count);
+      }
+      return cutCursor == null;
+    }
+
+    @Override
+    public T next() {
+      count++;
+      return source.next();
+    }
+  }
+  
+  /**
+   * Output stream counting bytes written.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+  
+  /**
+   * Writer of the response with all the content already fetched.
+   */
+  @FunctionalInterface
+  private interface ResponseWriter {
+    void write() throws IOException;
+  }
+  
+  /**
+   * Templating context of a single request.
+   */
+  /**
+   * Set as content of the template.
+   * <p>
+   * Unlike the set itself, compares descriptions too, so a changed description
+   * gets the template re-rendered.
+   */
+  private static final class SetContent {
+    final Set set;
+
+    SetContent(Set set) {
+      this.set = set;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SetContent) || !set.equals(((SetContent) obj).set)) {
+        return false;
+      }
+      Document [] these = set.descriptions != null? set.descriptions: new Document[0];
+      Document [] others = ((SetContent) obj).set.descriptions != null? ((SetContent) obj).set.descriptions: new Document[0];
+      if (these.length != others.length) {
+        return false;
+      }
+      for (int i = 0; i < these.length; i++) {
+        if (these[i] == null? others[i] != null: others[i] == null || !these[i].isEqualNode(others[i])) {
+          return false;
         }
-      }).filter(r->r!=null).toArray(Record[]::new);
-      ListRecordsResponse response = new ListRecordsResponse(request.getParameters(), OffsetDateTime.now(), recordArray, resumptionToken);
-      return factory.createListRecordsResponse(response); 
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return set.hashCode();
+    }
+  }
+  
+  private class Templating {
+    final ResponseFormat format;
+    final ResponseFactory factory;
+    final Predicate<ResponseTemplate> condition;
+    final OutputStream out;
+    final long started = System.nanoTime();
+
+    public Templating(ResponseFormat format, ResponseFactory factory, Predicate<ResponseTemplate> condition, OutputStream out) {
+      this.format = format;
+      this.factory = factory;
+      this.condition = condition;
+      this.out = out;
+    }
+    
+    /**
+     * Writes response from the template; template gets rendered if missing or outdated.
+     * @param verb verb
+     * @param content content of the response
+     * @param renderer template renderer
+     * @throws IOException if writing response fails
+     */
+    void write(Verb verb, Object [] content, ResponseTemplate.Renderer renderer) throws IOException {
+      String key = String.format("%s:%s", format, verb);
+      ResponseTemplate template = templates.get(key);
+      if (template == null || !Arrays.equals(template.content, content)) {
+        template = ResponseTemplate.render(renderer, content);
+        templates.put(key, template);
+      }
+      if (condition == null || condition.test(template)) {
+        template.write(out);
+      }
     }
   }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.service;
+
+import com.panforge.demeter.core.api.exception.BadResumptionTokenException;
+import com.panforge.demeter.core.content.PageCursor;
+import com.panforge.demeter.core.content.PageCursorCodec;
+import com.panforge.demeter.core.model.ResumptionToken;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import static com.panforge.demeter.core.utils.VarintUtils.readLong;
+import static com.panforge.demeter.core.utils.VarintUtils.writeLong;
+
+/**
+ * Stateless token manager.
+ * <p>
+ * Page cursor, expiration time and complete list size are encoded into the
+ * token itself and protected with HMAC, thus no state is kept on the server
+ * and any node sharing the keys can resume any harvest. The first key signs
+ * new tokens, all the keys are accepted; a key can be rotated by prepending
+ * a new one and dropping the old one after the token expiration time.
+ *
+ * @param <PC> page cursor type
+ */
+public class SignedTokenManager<PC extends PageCursor> implements TokenManager<PC> {
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int VERSION = 1;
+  private static final int COMPRESSED = 1;
+  private static final int SIGNATURE_LENGTH = 16;
+  private static final int COMPRESSION_THRESHOLD = 128;
+  private static final int MAX_PAYLOAD_LENGTH = 16 * 1024;
+  
+  private final PageCursorCodec<PC> codec;
+  private final long expiration;
+  private final List<SecretKeySpec> keys;
+  private final ThreadLocal<Mac[]> macs;
+
+  /**
+   * Creates instance of the token manager.
+   * @param codec codec
+   * @param expiration expiration time (in milliseconds) of the token
+   * @param keys secret keys; the first one signs tokens, all of them verify
+   */
+  public SignedTokenManager(PageCursorCodec<PC> codec, long expiration, List<byte[]> keys) {
+    Validate.notNull(codec, "Missing codec");
+    Validate.notEmpty(keys, "Missing keys");
+    Validate.noNullElements(keys, "Missing key");
+    this.codec = codec;
+    this.expiration = expiration;
+    this.keys = new ArrayList<>();
+    for (byte[] key: keys) {
+      Validate.isTrue(key.length >= SIGNATURE_LENGTH, "Key too short; at least %d bytes required", SIGNATURE_LENGTH);
+      this.keys.add(new SecretKeySpec(key, ALGORITHM));
+    }
+    this.macs = ThreadLocal.withInitial(this::createMacs);
+    createMacs();
+  }
+
+  @Override
+  public ResumptionToken put(PC pageCursor, long total) {
+    OffsetDateTime expirationDate = OffsetDateTime.now().plus(expiration, ChronoUnit.MILLIS);
+    byte[] pcBytes = codec.toString(pageCursor).getBytes(StandardCharsets.UTF_8);
+    
+    ByteArrayOutputStream body = new ByteArrayOutputStream(pcBytes.length + 16);
+    writeLong(body, expirationDate.toInstant().toEpochMilli());
+    writeLong(body, total);
+    body.write(pcBytes, 0, pcBytes.length);
+    
+    byte[] content = body.toByteArray();
+    int flags = 0;
+    if (content.length > COMPRESSION_THRESHOLD) {
+      byte[] deflated = deflate(content);
+      if (deflated.length < content.length) {
+        content = deflated;
+        flags |= COMPRESSED;
+      }
+    }
+    
+    byte[] payload = new byte[content.length + 2];
+    payload[0] = VERSION;
+    payload[1] = (byte) flags;
+    System.arraycopy(content, 0, payload, 2, content.length);
+    byte[] signature = sign(macs.get()[0], payload);
+    
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    String tokenValue = encoder.encodeToString(payload) + "." + encoder.encodeToString(signature);
+    return new ResumptionToken(tokenValue, expirationDate, total, pageCursor.cursor());
+  }
+
+  @Override
+  public PC pull(String tokenId) throws BadResumptionTokenException {
+    return resume(tokenId).pageCursor;
+  }
+
+  @Override
+  public ResumptionState<PC> resume(String tokenId) throws BadResumptionTokenException {
+    try {
+      int dot = tokenId != null? tokenId.indexOf('.'): -1;
+      if (dot < 0) {
+        throw invalid(tokenId);
+      }
+      Base64.Decoder decoder = Base64.getUrlDecoder();
+      byte[] payload = decoder.decode(tokenId.substring(0, dot));
+      byte[] signature = decoder.decode(tokenId.substring(dot + 1));
+      if (payload.length < 2 || !verify(payload, signature) || payload[0] != VERSION) {
+        throw invalid(tokenId);
+      }
+      
+      byte[] content = Arrays.copyOfRange(payload, 2, payload.length);
+      if ((payload[1] & COMPRESSED) != 0) {
+        content = inflate(content);
+      }
+      
+      ByteBuffer in = ByteBuffer.wrap(content);
+      long expirationMillis = readLong(in);
+      long total = readLong(in);
+      if (Instant.now().toEpochMilli() > expirationMillis) {
+        throw new BadResumptionTokenException(String.format("Expired token: '%s'", StringUtils.trimToEmpty(tokenId)));
+      }
+      PC pageCursor = codec.fromString(new String(content, in.position(), in.remaining(), StandardCharsets.UTF_8));
+      if (pageCursor == null) {
+        throw invalid(tokenId);
+      }
+      return new ResumptionState<>(pageCursor, total);
+    } catch (IllegalArgumentException|BufferUnderflowException|DataFormatException ex) {
+      throw invalid(tokenId);
+    }
+  }
+  
+  private BadResumptionTokenException invalid(String tokenId) {
+    return new BadResumptionTokenException(String.format("Invalid token: '%s'", StringUtils.trimToEmpty(tokenId)));
+  }
+  
+  private boolean verify(byte[] payload, byte[] signature) {
+    for (Mac mac: macs.get()) {
+      if (MessageDigest.isEqual(sign(mac, payload), signature)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  private static byte[] sign(Mac mac, byte[] payload) {
+    return Arrays.copyOf(mac.doFinal(payload), SIGNATURE_LENGTH);
+  }
+  
+  private Mac[] createMacs() {
+    try {
+      Mac[] result = new Mac[keys.size()];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = Mac.getInstance(ALGORITHM);
+        result[i].init(keys.get(i));
+      }
+      return result;
+    } catch (GeneralSecurityException ex) {
+      throw new IllegalStateException(String.format("Error initializing %s", ALGORITHM), ex);
+    }
+  }
+  
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+      byte[] buffer = new byte[256];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+  
+  private static byte[] inflate(byte[] data) throws DataFormatException {
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(data);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+      byte[] buffer = new byte[256];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Truncated data");
+        }
+        out.write(buffer, 0, length);
+        if (out.size() > MAX_PAYLOAD_LENGTH) {
+          throw new DataFormatException("Payload too large");
+        }
+      }
+      return out.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+}
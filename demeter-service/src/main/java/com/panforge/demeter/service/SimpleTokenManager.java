@@ -21,22 +21,46 @@ import com.panforge.demeter.core.content.PageCursor;
 import com.panforge.demeter.core.content.PageCursorCodec;
 import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Queue;
 import java.util.UUID;
-import org.apache.commons.collections4.map.PassiveExpiringMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 
 /**
  * Simple token manager.
+ * <p>
+ * Tokens are kept in memory. Since all the tokens live equally long, they
+ * expire in order of creation; expired tokens are swept from the head of the
+ * creation queue on each access, so both put and pull take constant time
+ * and never block. The number of outstanding tokens is bounded (approximately,
+ * under concurrent load) by the maximum size.
  *
  * @param <PC> page cursor type
  */
 public class SimpleTokenManager<PC extends PageCursor> implements TokenManager<PC> {
 
   public static final long DEFAULT_EXPIRATION = 60000;
-  private final PassiveExpiringMap<String, String> tokens;
+  public static final int DEFAULT_MAX_SIZE = 100000;
+  
+  private final ConcurrentHashMap<String, Entry> tokens = new ConcurrentHashMap<>();
+  private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean sweeping = new AtomicBoolean();
+  private final AtomicInteger size = new AtomicInteger();
+  
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
 
   private final PageCursorCodec<PC> codec;
   private final long expiration;
+  private final int maxSize;
+  private final Overload overload;
 
   /**
    * Creates instance of the default token manager.
@@ -45,32 +69,209 @@ public class SimpleTokenManager<PC extends PageCursor> implements TokenManager<P
    * @param expiration expiration time (in milliseconds) of the token
    */
   public SimpleTokenManager(PageCursorCodec<PC> codec, long expiration) {
+    this(codec, expiration, DEFAULT_MAX_SIZE, Overload.EvictOldest);
+  }
+
+  /**
+   * Creates instance of the default token manager.
+   *
+   * @param codec codec
+   * @param expiration expiration time (in milliseconds) of the token
+   * @param maxSize maximum number of outstanding tokens
+   * @param overload overload policy
+   */
+  public SimpleTokenManager(PageCursorCodec<PC> codec, long expiration, int maxSize, Overload overload) {
+    Validate.isTrue(maxSize > 0, "Invalid maximum size: %d", maxSize);
+    Validate.notNull(overload, "Missing overload policy");
     this.codec = codec;
     this.expiration = expiration;
-    this.tokens = new PassiveExpiringMap<>(expiration);
+    this.maxSize = maxSize;
+    this.overload = overload;
   }
 
   @Override
   public ResumptionToken put(PC pageCursor, long total) {
-    synchronized (tokens) {
-      OffsetDateTime now = OffsetDateTime.now();
-      String tokenValue = UUID.randomUUID().toString();
-      String pcString = codec.toString(pageCursor);
-      tokens.put(tokenValue, pcString);
-      ResumptionToken resumptionToken = new ResumptionToken(tokenValue, now.plus(expiration, ChronoUnit.MILLIS), total, pageCursor.cursor());
-      return resumptionToken;
+    long now = System.currentTimeMillis();
+    sweep(now);
+    if (size.get() >= maxSize) {
+      if (overload == Overload.Reject) {
+        throw overloaded(now);
+      }
+      evict();
+    }
+    
+    String tokenValue = UUID.randomUUID().toString();
+    String pcString = codec.toString(pageCursor);
+    Entry entry = new Entry(tokenValue, pcString, total, now + expiration);
+    tokens.put(tokenValue, entry);
+    queue.add(entry);
+    size.incrementAndGet();
+    
+    return new ResumptionToken(tokenValue, OffsetDateTime.now().plus(expiration, ChronoUnit.MILLIS), total, pageCursor.cursor());
+  }
+
+  @Override
+  public void checkCapacity() {
+    long now = System.currentTimeMillis();
+    sweep(now);
+    if (overload == Overload.Reject && size.get() >= maxSize) {
+      throw overloaded(now);
     }
   }
 
   @Override
   public PC pull(String tokenId) throws BadResumptionTokenException {
-    synchronized (tokens) {
-      String pcString = tokens.get(tokenId);
-      if (pcString == null) {
-        throw new BadResumptionTokenException(String.format("Invalid token: '%s'", StringUtils.trimToEmpty(tokenId)));
+    return resume(tokenId).pageCursor;
+  }
+
+  @Override
+  public ResumptionState<PC> resume(String tokenId) throws BadResumptionTokenException {
+    long now = System.currentTimeMillis();
+    sweep(now);
+    Entry entry = tokenId != null? tokens.get(tokenId): null;
+    if (entry == null || entry.expires <= now) {
+      if (entry == null) {
+        misses.increment();
+      } else if (remove(entry)) {
+        expirations.increment();
+      }
+      throw new BadResumptionTokenException(String.format("Invalid token: '%s'", StringUtils.trimToEmpty(tokenId)));
+    }
+    hits.increment();
+    PC pageCursor = codec.fromString(entry.pageCursor);
+    return new ResumptionState<>(pageCursor, entry.completeListSize);
+  }
+  
+  /**
+   * Gets number of outstanding tokens.
+   * @return number of tokens
+   */
+  public int size() {
+    return size.get();
+  }
+  
+  /**
+   * Gets number of successfully resumed tokens.
+   * @return number of hits
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+  
+  /**
+   * Gets number of unknown tokens.
+   * @return number of misses
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+  
+  /**
+   * Gets number of expired tokens.
+   * @return number of expirations
+   */
+  public long getExpirations() {
+    return expirations.sum();
+  }
+  
+  /**
+   * Gets number of tokens evicted before expiration due to overload.
+   * @return number of evictions
+   */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("{ size: %d, hits: %d, misses: %d, expirations: %d, evictions: %d }", 
+            size(), getHits(), getMisses(), getExpirations(), getEvictions());
+  }
+  
+  /**
+   * Removes expired tokens from the head of the queue. Only one thread sweeps
+   * at a time; others skip sweeping instead of waiting.
+   * @param now current time
+   */
+  private void sweep(long now) {
+    Entry head = queue.peek();
+    if (head == null || head.expires > now || !sweeping.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      while ((head = queue.peek()) != null && head.expires <= now) {
+        queue.poll();
+        if (remove(head)) {
+          expirations.increment();
+        }
       }
-      PC pageCursor = codec.fromString(pcString);
-      return pageCursor;
+    } finally {
+      sweeping.set(false);
+    }
+  }
+  
+  /**
+   * Evicts the oldest tokens until there is a room for a new one.
+   */
+  private void evict() {
+    if (!sweeping.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      Entry head;
+      while (size.get() >= maxSize && (head = queue.poll()) != null) {
+        if (remove(head)) {
+          evictions.increment();
+        }
+      }
+    } finally {
+      sweeping.set(false);
+    }
+  }
+  
+  /**
+   * Creates overload exception suggesting to retry once the oldest token expires.
+   * @param now current time
+   * @return exception
+   */
+  private TokenOverloadException overloaded(long now) {
+    Entry head = queue.peek();
+    long wait = head != null? head.expires - now: expiration;
+    return new TokenOverloadException(String.format("Too many outstanding tokens: %d", size.get()), Math.max(1, (wait + 999) / 1000));
+  }
+  
+  private boolean remove(Entry entry) {
+    if (tokens.remove(entry.token, entry)) {
+      size.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+  
+  /**
+   * Overload policy.
+   */
+  public enum Overload {
+    /** Evict the oldest tokens. */
+    EvictOldest,
+    /** Reject new tokens with {@link TokenOverloadException}. */
+    Reject
+  }
+  
+  /**
+   * Stored token entry.
+   */
+  private static final class Entry {
+    final String token;
+    final String pageCursor;
+    final long completeListSize;
+    final long expires;
+
+    public Entry(String token, String pageCursor, long completeListSize, long expires) {
+      this.token = token;
+      this.pageCursor = pageCursor;
+      this.completeListSize = completeListSize;
+      this.expires = expires;
     }
   }
 }
@@ -27,11 +27,19 @@ public interface TokenManager<PC extends PageCursor> {
   /**
    * Stores page cursor.
    * @param pageCursor page cursor
-   * @param total total records
+   * @param total complete list size or negative if unknown; carried by the token
    * @return resumption token
+   * @throws TokenOverloadException if no more tokens can be stored at the moment
    */
   ResumptionToken put(PC pageCursor, long total);
   
+  /**
+   * Checks if a new token can be stored.
+   * @throws TokenOverloadException if no more tokens can be stored at the moment
+   */
+  default void checkCapacity() {
+  }
+  
   /**
    * Retrieves page cursor.
    * @param tokenId token id
@@ -39,4 +47,14 @@ public interface TokenManager<PC extends PageCursor> {
    * @throws BadResumptionTokenException if invalid token
    */
   PC pull(String tokenId) throws BadResumptionTokenException;
+  
+  /**
+   * Retrieves page cursor together with complete list size carried by the token.
+   * @param tokenId token id
+   * @return resumption state
+   * @throws BadResumptionTokenException if invalid token
+   */
+  default ResumptionState<PC> resume(String tokenId) throws BadResumptionTokenException {
+    return new ResumptionState<>(pull(tokenId), -1);
+  }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.service;
+
+/**
+ * Token overload exception.
+ * <p>
+ * Thrown when no more resumption tokens can be issued at the moment. It is
+ * not a protocol error; the request should be retried later.
+ */
+public class TokenOverloadException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+  
+  /** number of seconds after which request may be retried */
+  public final long retryAfter;
+
+  /**
+   * Creates instance of the exception.
+   * @param message message
+   * @param retryAfter number of seconds after which request may be retried
+   */
+  public TokenOverloadException(String message, long retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+}
@@ -16,19 +16,49 @@
 package com.panforge.demeter.service;
 
 import com.panforge.demeter.core.api.Config;
+import com.panforge.demeter.core.api.JsonResponseParser;
+import com.panforge.demeter.core.api.ResponseFormat;
 import com.panforge.demeter.core.api.ResponseParser;
+import com.panforge.demeter.core.api.exception.CannotDisseminateFormatException;
+import com.panforge.demeter.core.api.exception.IdDoesNotExistException;
+import com.panforge.demeter.core.api.exception.NoMetadataFormatsException;
+import com.panforge.demeter.core.api.exception.NoRecordsMatchException;
+import com.panforge.demeter.core.api.exception.NoSetHierarchyException;
 import com.panforge.demeter.core.content.ContentProvider;
+import com.panforge.demeter.core.content.Filter;
+import com.panforge.demeter.core.content.Page;
 import com.panforge.demeter.core.content.PageCursorCodec;
+import com.panforge.demeter.core.content.StreamingIterable;
+import com.panforge.demeter.core.model.ErrorCode;
 import com.panforge.demeter.core.model.Verb;
 import com.panforge.demeter.core.model.request.*;
 import com.panforge.demeter.core.model.response.*;
+import com.panforge.demeter.core.model.response.elements.Header;
+import com.panforge.demeter.core.model.response.elements.MetadataFormat;
+import com.panforge.demeter.core.model.response.elements.Record;
+import com.panforge.demeter.core.model.response.elements.Set;
+import com.panforge.demeter.core.utils.XmlUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import org.junit.AfterClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.BeforeClass;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
 /**
  * Service test
@@ -216,4 +246,252 @@ public class ServiceTest {
     GetRecordResponse responseObj = (GetRecordResponse)response;
     assertNotNull("Missing record", responseObj.record);
   }
+  
+  @Test
+  public void testListRecordsStreamed() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai_dc", null, null, null);
+    Map<String, String[]> parameters = request.getParameters();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    service.execute(parameters, out);
+    Response<? extends Request> response = respParser.parse(new ByteArrayInputStream(out.toByteArray()));
+    
+    assertNotNull("Empty response", response);
+    assertNull("Errors received", response.errors);
+    assertEquals("Invalid response type", Verb.ListRecords.name(), response.getParameter("verb"));
+    
+    ListRecordsResponse responseObj = (ListRecordsResponse)response;
+    assertEquals("Invalid number of records", contentProvider.listHeaders(null, null, Service.DEFAULT_BATCH_SIZE).total(), responseObj.records.length);
+  }
+  
+  @Test
+  public void testListRecordsJson() throws Exception {
+    ListRecordsRequest request = new ListRecordsRequest("oai_dc", null, null, null);
+    Map<String, String[]> parameters = request.getParameters();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    service.execute(parameters, out, ResponseFormat.Json);
+    Response<? extends Request> response = new JsonResponseParser().parse(new ByteArrayInputStream(out.toByteArray()));
+    
+    assertNotNull("Empty response", response);
+    assertNull("Errors received", response.errors);
+    assertEquals("Invalid response type", Verb.ListRecords.name(), response.getParameter("verb"));
+    
+    ListRecordsResponse responseObj = (ListRecordsResponse)response;
+    assertEquals("Invalid number of records", contentProvider.listHeaders(null, null, Service.DEFAULT_BATCH_SIZE).total(), responseObj.records.length);
+  }
+  
+  @Test
+  public void testIdentifyTemplate() throws Exception {
+    Config cfg = new Config();
+    cfg.repositoryName = "First name";
+    Service<MockupPageCursor> svc = new Service<>(cfg, contentProvider, new SimpleTokenManager<>(pageCursorCodec, 1000));
+    Map<String, String[]> parameters = new IdentifyRequest().getParameters();
+    
+    AtomicReference<ResponseTemplate> template = new AtomicReference<>();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    svc.execute(parameters, out, ResponseFormat.Xml, t -> { template.set(t); return true; });
+    assertNotNull("No template", template.get());
+    assertEquals("Invalid identify", "First name", ((IdentifyResponse)respParser.parse(out.toString("UTF-8"))).repositoryName);
+    
+    out = new ByteArrayOutputStream();
+    svc.execute(parameters, out, ResponseFormat.Xml, t -> !t.matches(template.get().etag, -1));
+    assertEquals("Response written despite matching entity tag", 0, out.size());
+    
+    cfg.repositoryName = "Second name";
+    svc.invalidate();
+    out = new ByteArrayOutputStream();
+    svc.execute(parameters, out, ResponseFormat.Xml, t -> !t.matches(template.get().etag, -1));
+    assertEquals("Invalid identify", "Second name", ((IdentifyResponse)respParser.parse(out.toString("UTF-8"))).repositoryName);
+  }
+  
+  @Test
+  public void testListSetsTemplateDescription() throws Exception {
+    AtomicReference<String> description = new AtomicReference<>("First description");
+    ContentProvider<MockupPageCursor> provider = new ContentProvider<MockupPageCursor>() {
+      @Override
+      public StreamingIterable<MetadataFormat> listMetadataFormats(URI identifier) throws IdDoesNotExistException, NoMetadataFormatsException {
+        return contentProvider.listMetadataFormats(identifier);
+      }
+
+      @Override
+      public Page<Set, MockupPageCursor> listSets(MockupPageCursor pageCursor, int pageSize) throws NoSetHierarchyException {
+        try {
+          Document doc = XmlUtils.parseToXml("<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+                  + "<dc:description>" + description.get() + "</dc:description></oai_dc:dc>");
+          return Page.of(Collections.singletonList(new Set("music", "Music", new Document[] { doc })), 1, null);
+        } catch (IOException|SAXException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+      @Override
+      public Page<Header, MockupPageCursor> listHeaders(Filter filter, MockupPageCursor pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+        return contentProvider.listHeaders(filter, pageCursor, pageSize);
+      }
+
+      @Override
+      public Record readRecord(URI identifier, String metadataPrefix) throws IdDoesNotExistException, CannotDisseminateFormatException {
+        return contentProvider.readRecord(identifier, metadataPrefix);
+      }
+    };
+    Service<MockupPageCursor> svc = new Service<>(config, provider, new SimpleTokenManager<>(pageCursorCodec, 1000));
+    Map<String, String[]> parameters = new ListSetsRequest().getParameters();
+    
+    AtomicReference<ResponseTemplate> template = new AtomicReference<>();
+    svc.execute(parameters, new ByteArrayOutputStream(), ResponseFormat.Xml, t -> { template.set(t); return true; });
+    String etag = template.get().etag;
+    
+    description.set("Second description");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    svc.execute(parameters, out, ResponseFormat.Xml, t -> { template.set(t); return true; });
+    assertNotEquals("Stale template", etag, template.get().etag);
+    assertTrue("Stale description", out.toString("UTF-8").contains("Second description"));
+  }
+  
+  @Test
+  public void testExecuteAsync() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Service<MockupPageCursor> svc = new Service<>(config, contentProvider, new SimpleTokenManager<>(pageCursorCodec, 1000), Service.DEFAULT_BATCH_SIZE, executor);
+      
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      svc.executeAsync(new ListRecordsRequest("oai_dc", null, null, null).getParameters(), out, ResponseFormat.Xml, t -> true).toCompletableFuture().get(10, TimeUnit.SECONDS);
+      Response<? extends Request> response = respParser.parse(out.toString("UTF-8"));
+      assertNull("Errors received", response.errors);
+      assertEquals("Invalid number of records", contentProvider.listHeaders(null, null, Service.DEFAULT_BATCH_SIZE).total(), ((ListRecordsResponse)response).records.length);
+      
+      out = new ByteArrayOutputStream();
+      svc.executeAsync(new GetRecordRequest(URI.create("urn:missing"), "oai_dc").getParameters(), out, ResponseFormat.Xml, t -> true).toCompletableFuture().get(10, TimeUnit.SECONDS);
+      response = respParser.parse(out.toString("UTF-8"));
+      assertNotNull("No errors received", response.errors);
+      assertEquals("Invalid error code", ErrorCode.idDoesNotExist, response.errors[0].errorCode);
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  @Test
+  public void testCompleteListSizeCountedOnce() throws Exception {
+    AtomicInteger counted = new AtomicInteger();
+    Service<MockupPageCursor> svc = new Service<>(config, countingProvider(counted, Page.TotalKind.Exact), new SimpleTokenManager<>(pageCursorCodec, 500000), 3);
+    long total = contentProvider.listHeaders(null, null, Service.DEFAULT_BATCH_SIZE).total();
+    
+    ListIdentifiersResponse responseObj = (ListIdentifiersResponse)respParser.parse(svc.execute(new ListIdentifiersRequest("oai_dc", null, null, null).getParameters()));
+    int pages = 1;
+    while (responseObj.resumptionToken != null) {
+      assertEquals("Invalid completeListSize", total, responseObj.resumptionToken.completeListSize);
+      responseObj = (ListIdentifiersResponse)respParser.parse(svc.execute(ListIdentifiersRequest.resume(responseObj.resumptionToken.value).getParameters()));
+      pages++;
+    }
+    assertTrue("Not paged", pages > 1);
+    assertEquals("Total counted more than once", 1, counted.get());
+    
+    counted.set(0);
+    svc = new Service<>(config, countingProvider(counted, Page.TotalKind.Unknown), new SimpleTokenManager<>(pageCursorCodec, 500000), 3);
+    responseObj = (ListIdentifiersResponse)respParser.parse(svc.execute(new ListIdentifiersRequest("oai_dc", null, null, null).getParameters()));
+    assertNotNull("Missing resumptionToken", responseObj.resumptionToken);
+    assertEquals("Unknown completeListSize reported", -1, responseObj.resumptionToken.completeListSize);
+    assertEquals("Unknown total counted", 0, counted.get());
+    
+    // records listed from headers take the total from the headers
+    ListRecordsResponse recordsObj = (ListRecordsResponse)respParser.parse(svc.execute(new ListRecordsRequest("oai_dc", null, null, null).getParameters()));
+    assertNotNull("Missing resumptionToken", recordsObj.resumptionToken);
+    assertEquals("Unknown completeListSize reported", -1, recordsObj.resumptionToken.completeListSize);
+    assertEquals("Unknown total counted", 0, counted.get());
+    
+    svc = new Service<>(config, countingProvider(counted, Page.TotalKind.Exact), new SimpleTokenManager<>(pageCursorCodec, 500000), 3);
+    recordsObj = (ListRecordsResponse)respParser.parse(svc.execute(new ListRecordsRequest("oai_dc", null, null, null).getParameters()));
+    recordsObj = (ListRecordsResponse)respParser.parse(svc.execute(ListRecordsRequest.resume(recordsObj.resumptionToken.value).getParameters()));
+    assertEquals("Total counted more than once", 1, counted.get());
+  }
+  
+  @Test
+  public void testPageBudget() throws Exception {
+    PageBudget budget = new PageBudget(2, 5, 0, 1);
+    long total = contentProvider.listHeaders(null, null, Service.DEFAULT_BATCH_SIZE).total();
+    
+    // every page is cut right after minimum number of records
+    Service<MockupPageCursor> svc = new Service<>(config, cuttingProvider(), new SimpleTokenManager<>(pageCursorCodec, 500000), budget, Runnable::run);
+    ListRecordsResponse responseObj = (ListRecordsResponse)executeJson(svc, new ListRecordsRequest("oai_dc", null, null, null).getParameters());
+    java.util.Set<URI> identifiers = new HashSet<>();
+    while (true) {
+      assertNull("Errors received", responseObj.errors);
+      for (Record record: responseObj.records) {
+        assertTrue("Duplicated record", identifiers.add(record.header.identifier));
+      }
+      if (responseObj.resumptionToken == null) {
+        break;
+      }
+      assertEquals("Page not cut", budget.minSize, responseObj.records.length);
+      assertEquals("Invalid cursor", identifiers.size(), responseObj.resumptionToken.cursor);
+      responseObj = (ListRecordsResponse)executeJson(svc, ListRecordsRequest.resume(responseObj.resumptionToken.value).getParameters());
+    }
+    assertEquals("Records missing", total, identifiers.size());
+    
+    // pages unable to resume in the middle are never cut
+    svc = new Service<>(config, contentProvider, new SimpleTokenManager<>(pageCursorCodec, 500000), budget, Runnable::run);
+    ListIdentifiersResponse headers = (ListIdentifiersResponse)respParser.parse(svc.execute(new ListIdentifiersRequest("oai_dc", null, null, null).getParameters()));
+    assertEquals("Page cut", Math.min(total, budget.maxSize), headers.headers.length);
+  }
+  
+  private static Response<? extends Request> executeJson(Service<MockupPageCursor> svc, Map<String, String[]> parameters) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    svc.execute(parameters, out, ResponseFormat.Json);
+    return new JsonResponseParser().parse(new ByteArrayInputStream(out.toByteArray()));
+  }
+  
+  private static ContentProvider<MockupPageCursor> cuttingProvider() {
+    return new ContentProvider<MockupPageCursor>() {
+      @Override
+      public StreamingIterable<MetadataFormat> listMetadataFormats(URI identifier) throws IdDoesNotExistException, NoMetadataFormatsException {
+        return contentProvider.listMetadataFormats(identifier);
+      }
+
+      @Override
+      public Page<Set, MockupPageCursor> listSets(MockupPageCursor pageCursor, int pageSize) throws NoSetHierarchyException {
+        return contentProvider.listSets(pageCursor, pageSize);
+      }
+
+      @Override
+      public Page<Header, MockupPageCursor> listHeaders(Filter filter, MockupPageCursor pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+        Page<Header, MockupPageCursor> page = contentProvider.listHeaders(filter, pageCursor, pageSize);
+        List<Header> headers = page.stream().collect(Collectors.toList());
+        long start = pageCursor!=null? pageCursor.cursor(): 0;
+        return Page.of(headers, page::total, Page.TotalKind.Exact, page.nextPageCursor(), count -> new MockupPageCursor(start + count));
+      }
+
+      @Override
+      public Record readRecord(URI identifier, String metadataPrefix) throws IdDoesNotExistException, CannotDisseminateFormatException {
+        return contentProvider.readRecord(identifier, metadataPrefix);
+      }
+    };
+  }
+  
+  private static ContentProvider<MockupPageCursor> countingProvider(AtomicInteger counted, Page.TotalKind totalKind) {
+    return new ContentProvider<MockupPageCursor>() {
+      @Override
+      public StreamingIterable<MetadataFormat> listMetadataFormats(URI identifier) throws IdDoesNotExistException, NoMetadataFormatsException {
+        return contentProvider.listMetadataFormats(identifier);
+      }
+
+      @Override
+      public Page<Set, MockupPageCursor> listSets(MockupPageCursor pageCursor, int pageSize) throws NoSetHierarchyException {
+        return contentProvider.listSets(pageCursor, pageSize);
+      }
+
+      @Override
+      public Page<Header, MockupPageCursor> listHeaders(Filter filter, MockupPageCursor pageCursor, int pageSize) throws CannotDisseminateFormatException, NoRecordsMatchException, NoSetHierarchyException {
+        Page<Header, MockupPageCursor> page = contentProvider.listHeaders(filter, pageCursor, pageSize);
+        List<Header> headers = page.stream().collect(Collectors.toList());
+        return Page.of(headers, () -> {
+          counted.incrementAndGet();
+          return page.total();
+        }, totalKind, page.nextPageCursor());
+      }
+
+      @Override
+      public Record readRecord(URI identifier, String metadataPrefix) throws IdDoesNotExistException, CannotDisseminateFormatException {
+        return contentProvider.readRecord(identifier, metadataPrefix);
+      }
+    };
+  }
 }
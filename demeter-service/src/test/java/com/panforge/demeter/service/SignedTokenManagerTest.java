@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Piotr Andzel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.panforge.demeter.service;
+
+import com.panforge.demeter.core.api.exception.BadResumptionTokenException;
+import com.panforge.demeter.core.model.ResumptionToken;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Signed token manager test.
+ * @author Piotr Andzel
+ */
+public class SignedTokenManagerTest {
+  private static final long expiration = 1000;
+  private static final byte[] oldKey = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] newKey = "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.UTF_8);
+  private static SignedTokenManager<MockupPageCursor> tm;
+  
+  @BeforeClass
+  public static void setUpClass() {
+    tm = new SignedTokenManager<>(new MockupPageCursorCodec(), expiration, Collections.singletonList(oldKey));
+  }
+
+  @Test
+  public void testToken() throws BadResumptionTokenException {
+    ResumptionToken token = tm.put(new MockupPageCursor(25), 100);
+    assertNotNull("No token", token);
+    assertNotNull("Empty token value", token.value);
+    
+    // any instance sharing the key resumes the token
+    SignedTokenManager<MockupPageCursor> other = new SignedTokenManager<>(new MockupPageCursorCodec(), expiration, Collections.singletonList(oldKey));
+    ResumptionState<MockupPageCursor> state = other.resume(token.value);
+    assertEquals("Invalid cursor", 25, state.pageCursor.cursor);
+    assertEquals("Invalid complete list size", 100, state.completeListSize);
+  }
+  
+  @Test
+  public void testTampering() throws BadResumptionTokenException {
+    ResumptionToken token = tm.put(new MockupPageCursor(25), 100);
+    char[] chars = token.value.toCharArray();
+    chars[3] = chars[3] != 'A'? 'A': 'B';
+    for (String value: new String[] { new String(chars), token.value + "A", "", "garbage", "a.b" }) {
+      try {
+        tm.pull(value);
+        fail(String.format("Token accepted: '%s'", value));
+      } catch (BadResumptionTokenException ex) {
+        // expected
+      }
+    }
+  }
+  
+  @Test
+  public void testKeyRotation() throws BadResumptionTokenException {
+    ResumptionToken token = tm.put(new MockupPageCursor(25), 100);
+    
+    SignedTokenManager<MockupPageCursor> rotated = new SignedTokenManager<>(new MockupPageCursorCodec(), expiration, Arrays.asList(newKey, oldKey));
+    assertEquals("Old token rejected", 25, rotated.pull(token.value).cursor);
+    
+    ResumptionToken newToken = rotated.put(new MockupPageCursor(50), 100);
+    try {
+      tm.pull(newToken.value);
+      fail("Token signed with unknown key accepted");
+    } catch (BadResumptionTokenException ex) {
+      // expected
+    }
+  }
+  
+  @Test(expected = BadResumptionTokenException.class)
+  public void testExpiration() throws BadResumptionTokenException, InterruptedException {
+    ResumptionToken token = tm.put(new MockupPageCursor(), 0);
+    Thread.sleep(expiration+10);
+    tm.pull(token.value);
+  }
+  
+}
@@ -17,6 +17,11 @@ package com.panforge.demeter.service;
 
 import com.panforge.demeter.core.api.exception.BadResumptionTokenException;
 import com.panforge.demeter.core.model.ResumptionToken;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -60,4 +65,79 @@ public class SimpleTokenManagerTest {
     MockupPageCursor pageCursor = tm.pull(token.value);
   }
   
+  @Test
+  public void testEviction() throws BadResumptionTokenException {
+    SimpleTokenManager<MockupPageCursor> bounded = new SimpleTokenManager<>(new MockupPageCursorCodec(), 60000, 10, SimpleTokenManager.Overload.EvictOldest);
+    List<ResumptionToken> tokens = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      tokens.add(bounded.put(new MockupPageCursor(i), 0));
+    }
+    assertEquals("Invalid size", 10, bounded.size());
+    assertEquals("Invalid evictions", 15, bounded.getEvictions());
+    assertEquals("Invalid cursor", 24, bounded.pull(tokens.get(24).value).cursor);
+    try {
+      bounded.pull(tokens.get(0).value);
+      fail("Evicted token accepted");
+    } catch (BadResumptionTokenException ex) {
+      // expected
+    }
+    assertEquals("Invalid hits", 1, bounded.getHits());
+    assertEquals("Invalid misses", 1, bounded.getMisses());
+  }
+  
+  @Test(expected = TokenOverloadException.class)
+  public void testReject() {
+    SimpleTokenManager<MockupPageCursor> bounded = new SimpleTokenManager<>(new MockupPageCursorCodec(), 60000, 10, SimpleTokenManager.Overload.Reject);
+    for (int i = 0; i < 10; i++) {
+      bounded.put(new MockupPageCursor(i), 0);
+    }
+    try {
+      bounded.checkCapacity();
+      fail("Overload not detected");
+    } catch (TokenOverloadException ex) {
+      assertTrue("Invalid retry after", ex.retryAfter > 0 && ex.retryAfter <= 60);
+    }
+    bounded.put(new MockupPageCursor(), 0);
+  }
+  
+  @Test
+  public void testSweep() throws InterruptedException {
+    SimpleTokenManager<MockupPageCursor> shortLived = new SimpleTokenManager<>(new MockupPageCursorCodec(), 50);
+    for (int i = 0; i < 100; i++) {
+      shortLived.put(new MockupPageCursor(i), 0);
+    }
+    Thread.sleep(60);
+    shortLived.put(new MockupPageCursor(), 0);
+    assertEquals("Expired tokens not swept", 1, shortLived.size());
+    assertEquals("Invalid expirations", 100, shortLived.getExpirations());
+  }
+  
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    SimpleTokenManager<MockupPageCursor> shared = new SimpleTokenManager<>(new MockupPageCursorCodec(), 60000);
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            ResumptionToken token = shared.put(new MockupPageCursor(i), i);
+            if (shared.resume(token.value).completeListSize != i) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result: results) {
+        assertTrue("Invalid token resumed concurrently", result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals("Invalid size", threads * 1000, shared.size());
+    assertEquals("Invalid hits", threads * 1000, shared.getHits());
+  }
+  
 }